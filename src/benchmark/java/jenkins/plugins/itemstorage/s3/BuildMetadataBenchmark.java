@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.s3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import jenkins.plugins.jobcacher.benchmark.SyntheticTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link S3BaseUploadCallable#buildMetadata(File)} which is called for every file uploaded and does a MIME
+ * type lookup and, when an expires header is configured, parses a date.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BuildMetadataBenchmark {
+    @Param({"none", "expires"})
+    public String userMetadata;
+
+    private SyntheticTree tree;
+    private MetadataCallable callable;
+
+    @Setup
+    public void setUp() throws IOException {
+        tree = SyntheticTree.create(SyntheticTree.createTempRoot("metadata"), 1, 4, 50, 16);
+
+        Map<String, String> metadata = new HashMap<>();
+        if ("expires".equals(userMetadata)) {
+            metadata.put("Expires", "Thu, 01 Dec 2016 16:00:00 GMT");
+            metadata.put("Cache-Control", "no-cache");
+        }
+        callable = new MetadataCallable(metadata);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public void buildMetadata(Blackhole blackhole) throws IOException {
+        List<String> files = tree.getFiles();
+        for (String relativePath : files) {
+            blackhole.consume(callable.buildMetadata(new File(tree.getRoot(), relativePath)));
+        }
+    }
+
+    private static class MetadataCallable extends S3BaseUploadCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        MetadataCallable(Map<String, String> userMetadata) {
+            super(new ClientHelper(null, null), userMetadata, null, false);
+        }
+
+        @Override
+        protected ObjectMetadata buildMetadata(File file) throws IOException {
+            return super.buildMetadata(file);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.s3;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jenkins.plugins.jobcacher.benchmark.SyntheticTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading the manifest of {@link S3Keys}, which every save and restore of a cache stored under
+ * spread keys does once.  Lives in the package of S3Keys as the class is not public.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class S3KeysBenchmark {
+    private static final String BUCKET = "jobcacher-benchmark";
+
+    @Param({"3"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanout;
+
+    @Param({"50"})
+    public int filesPerDir;
+
+    private S3Keys keys;
+    private List<S3ObjectSummary> summaries;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticTree tree = SyntheticTree.create(SyntheticTree.createTempRoot("s3keys"), depth, fanout, filesPerDir, 16);
+        try {
+            keys = new S3Keys("0123456789abcdef/cache", true);
+            summaries = new ArrayList<>();
+            for (String path : tree.getFiles()) {
+                File f = new File(tree.getRoot(), path);
+                summaries.add(S3Keys.summary(BUCKET, keys.getPrefix() + "/" + path, f.length(), new Date(f.lastModified())));
+            }
+            encoded = keys.encode(summaries);
+        } finally {
+            tree.delete();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return keys.encode(summaries);
+    }
+
+    @Benchmark
+    public Map<String, S3ObjectSummary> decode() throws IOException {
+        return keys.decode(BUCKET, new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public String toObjectKey() {
+        return keys.toObjectKey(summaries.get(summaries.size() / 2).getKey());
+    }
+}
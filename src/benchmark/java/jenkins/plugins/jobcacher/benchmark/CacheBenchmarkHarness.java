@@ -0,0 +1,361 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Action;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.local.LocalItemStorage;
+import jenkins.plugins.itemstorage.s3.ClientHelper;
+import jenkins.plugins.itemstorage.s3.S3ItemStorage;
+import jenkins.plugins.itemstorage.s3.S3ObjectPath;
+import jenkins.plugins.itemstorage.s3.S3Profile;
+import jenkins.plugins.jobcacher.ArbitraryFileCache;
+import jenkins.plugins.jobcacher.Cache;
+import jenkins.plugins.jobcacher.CacheBuildLastAction;
+import jenkins.plugins.jobcacher.CacheManager;
+import jenkins.plugins.jobcacher.CacheStatistics;
+import org.apache.commons.io.FileUtils;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * End to end restore and save benchmark.  For every selected workload and storage the harness seeds a cache from a
+ * generated tree and then repeatedly restores it into a clean workspace, applies 1-5% churn and saves it again through
+ * {@link CacheManager}, the same way a build on a fresh executor would.  S3 runs go against an in-process
+ * {@link LocalS3Server}.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=jenkins.plugins.jobcacher.benchmark.CacheBenchmarkHarness \
+ *     -Dbenchmark.args="--workload m2 --storage s3 --runs 20 --scale 0.1 --output results.csv --label 1.1"
+ * </pre>
+ *
+ * @author Peter Hayes
+ */
+public class CacheBenchmarkHarness {
+    private static final String BUCKET = "jobcacher-benchmark";
+
+    private final File workDir;
+    private final int runs;
+    private final double scale;
+
+    // Builds are numbered in the order they start, as saves of older builds are skipped
+    private int buildNumber;
+
+    public CacheBenchmarkHarness(File workDir, int runs, double scale) {
+        this.workDir = workDir;
+        this.runs = runs;
+        this.scale = scale;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        List<Workload> workloads = new ArrayList<>();
+        String workload = option(options, "workload", "all");
+        if ("all".equals(workload)) {
+            workloads.addAll(Arrays.asList(Workload.values()));
+        } else {
+            for (String id : workload.split(",")) {
+                workloads.add(Workload.fromId(id));
+            }
+        }
+
+        String storages = option(options, "storage", "all");
+        List<String> storageTypes = "all".equals(storages) ? Arrays.asList("local", "s3") : Arrays.asList(storages.split(","));
+
+        File workDir = SyntheticTree.createTempRoot("macro");
+        CacheBenchmarkHarness harness = new CacheBenchmarkHarness(workDir,
+                Integer.parseInt(option(options, "runs", "10")),
+                Double.parseDouble(option(options, "scale", "0.1")));
+
+        List<Report> reports = new ArrayList<>();
+        try {
+            for (Workload w : workloads) {
+                for (String storage : storageTypes) {
+                    Report report = harness.run(w, storage);
+                    report.print(System.out);
+                    reports.add(report);
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(workDir);
+        }
+
+        if (options.containsKey("output")) {
+            Report.writeCsv(new File(options.get("output")), option(options, "label", "dev"), reports);
+        }
+    }
+
+    public Report run(Workload workload, String storageType) throws Exception {
+        File root = new File(workDir, workload.getId() + "-" + storageType);
+        LocalS3Server server = null;
+
+        try {
+            ItemStorage storage;
+            if ("s3".equals(storageType)) {
+                server = new LocalS3Server(new File(root, "s3"));
+                server.start();
+                storage = new LocalS3ItemStorage(new ClientHelper(new BasicAWSCredentials("benchmark", "benchmark"), null, server.getEndpoint(), null));
+            } else if ("local".equals(storageType)) {
+                storage = new LocalItemStorage();
+            } else {
+                throw new IllegalArgumentException("Unknown storage " + storageType);
+            }
+
+            Job job = mockJob(workload.getId(), new File(root, "job"));
+            List<Cache> caches = Collections.<Cache>singletonList(new ArbitraryFileCache("cache", "**/*", null));
+            Random random = new Random(42);
+
+            // Seed the cache from a generated workspace
+            File seed = new File(root, "ws-0");
+            workload.generate(new File(seed, "cache"), scale, random);
+            build(storage, job, seed, caches, null);
+            FileUtils.deleteDirectory(seed);
+
+            Report report = new Report(workload, storageType);
+            for (int i = 1; i <= runs; i++) {
+                File workspace = new File(root, "ws-" + i);
+                double churn = (1 + (i - 1) % 5) / 100.0;
+
+                resetPeakHeap();
+                Sample sample = build(storage, job, workspace, caches, new Churn(churn, random));
+                sample.peakHeap = peakHeap();
+                report.add(sample);
+
+                FileUtils.deleteDirectory(workspace);
+            }
+
+            if (server != null) {
+                report.requests = server.getRequestCount();
+            }
+            return report;
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    /**
+     * Run a single build: restore the caches into the workspace, optionally churn it and save the caches
+     */
+    private Sample build(ItemStorage storage, Job job, File workspace, List<Cache> caches, Churn churn) throws Exception {
+        Run run = mock(Run.class);
+        when(run.getParent()).thenReturn(job);
+        when(run.getNumber()).thenReturn(++buildNumber);
+        when(run.getStartTimeInMillis()).thenReturn(System.currentTimeMillis());
+
+        FilePath ws = new FilePath(workspace);
+        ws.mkdirs();
+
+        Sample sample = new Sample();
+
+        long start = System.nanoTime();
+        List<Cache.Saver> savers = CacheManager.cache(storage, run, ws, null, TaskListener.NULL, new EnvVars(), caches);
+        sample.restoreNanos = System.nanoTime() - start;
+
+        if (churn != null) {
+            Workload.churn(new File(workspace, "cache"), churn.fraction, churn.random);
+        }
+
+        start = System.nanoTime();
+        CacheManager.save(storage, run, ws, null, TaskListener.NULL, Long.MAX_VALUE / (1024 * 1024), caches, savers);
+        sample.saveNanos = System.nanoTime() - start;
+
+        ArgumentCaptor<Action> action = ArgumentCaptor.forClass(Action.class);
+        verify(run, atLeastOnce()).addAction(action.capture());
+        for (CacheStatistics statistics : ((CacheBuildLastAction) action.getValue()).getStatistics()) {
+            sample.restore.add(statistics.getRestore());
+            sample.save.add(statistics.getSave());
+        }
+
+        return sample;
+    }
+
+    private static Job mockJob(String name, File rootDir) throws IOException {
+        FileUtils.forceMkdir(rootDir);
+
+        Job job = mock(Job.class);
+        when(job.getFullName()).thenReturn("benchmark/" + name);
+        when(job.getRootDir()).thenReturn(rootDir);
+        return job;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0L;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option but got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.containsKey(name) ? options.get(name) : defaultValue;
+    }
+
+    /**
+     * S3 storage pointed at an explicit client rather than credentials looked up from Jenkins
+     */
+    private static class LocalS3ItemStorage extends S3ItemStorage {
+        private final transient ClientHelper helper;
+
+        LocalS3ItemStorage(ClientHelper helper) {
+            super(null, BUCKET, null);
+            this.helper = helper;
+        }
+
+        @Override
+        public S3ObjectPath getObjectPath(Item item, String path) {
+            return new S3ObjectPath(new S3Profile(helper, 5, 5L), getBucketName(), getRegion(), item.getFullName(), path);
+        }
+    }
+
+    private static class Churn {
+        final double fraction;
+        final Random random;
+
+        Churn(double fraction, Random random) {
+            this.fraction = fraction;
+            this.random = random;
+        }
+    }
+
+    static class Sample {
+        long restoreNanos;
+        long saveNanos;
+        long peakHeap;
+        final TransferResult restore = new TransferResult();
+        final TransferResult save = new TransferResult();
+    }
+
+    static class Report {
+        final Workload workload;
+        final String storage;
+        final List<Sample> samples = new ArrayList<>();
+        long requests = -1L;
+
+        Report(Workload workload, String storage) {
+            this.workload = workload;
+            this.storage = storage;
+        }
+
+        void add(Sample sample) {
+            samples.add(sample);
+        }
+
+        long percentile(boolean restore, double percentile) {
+            List<Long> durations = new ArrayList<>();
+            for (Sample sample : samples) {
+                durations.add(restore ? sample.restoreNanos : sample.saveNanos);
+            }
+            return TimeUnit.NANOSECONDS.toMillis(Percentiles.of(durations, percentile));
+        }
+
+        double throughput(boolean restore) {
+            long bytes = 0L;
+            long nanos = 0L;
+            for (Sample sample : samples) {
+                bytes += restore ? sample.restore.getBytesTransferred() : sample.save.getBytesTransferred();
+                nanos += restore ? sample.restoreNanos : sample.saveNanos;
+            }
+            return nanos == 0L ? 0.0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+        }
+
+        long peakHeap() {
+            long peak = 0L;
+            for (Sample sample : samples) {
+                peak = Math.max(peak, sample.peakHeap);
+            }
+            return peak;
+        }
+
+        void print(java.io.PrintStream out) {
+            out.println(String.format("%-14s %-6s restore p50 %6dms p99 %6dms %8.1f MB/s | save p50 %6dms p99 %6dms %8.1f MB/s | peak heap %5dMB%s",
+                    workload.getId(), storage,
+                    percentile(true, 50), percentile(true, 99), throughput(true),
+                    percentile(false, 50), percentile(false, 99), throughput(false),
+                    peakHeap() / (1024 * 1024),
+                    requests >= 0 ? " | " + requests + " requests" : ""));
+        }
+
+        static void writeCsv(File file, String label, List<Report> reports) throws IOException {
+            boolean header = !file.exists();
+            try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+                if (header) {
+                    out.println("label,workload,storage,runs,restore_p50_ms,restore_p99_ms,restore_mb_s,save_p50_ms,save_p99_ms,save_mb_s,peak_heap_mb");
+                }
+                for (Report report : reports) {
+                    out.println(String.format(Locale.US, "%s,%s,%s,%d,%d,%d,%.1f,%d,%d,%.1f,%d",
+                            label, report.workload.getId(), report.storage, report.samples.size(),
+                            report.percentile(true, 50), report.percentile(true, 99), report.throughput(true),
+                            report.percentile(false, 50), report.percentile(false, 99), report.throughput(false),
+                            report.peakHeap() / (1024 * 1024)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.jobcacher.benchmark;
+
+import jenkins.plugins.itemstorage.chunking.ChunkIndex;
+import jenkins.plugins.itemstorage.chunking.FastCdc;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading the {@link ChunkIndex} of a large file, which every chunked save and restore does for
+ * each file it transfers.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ChunkIndexBenchmark {
+    @Param({"67108864"})
+    public int fileSize;
+
+    @Param({"8192", "65536"})
+    public int averageChunkSize;
+
+    private ChunkIndex index;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticTree tree = SyntheticTree.create(SyntheticTree.createTempRoot("chunks"), 0, 0, 1, fileSize);
+        try {
+            File file = new File(tree.getRoot(), tree.getFiles().get(0));
+            index = new ChunkIndex(file.length(), file.lastModified(), new FastCdc(averageChunkSize).chunk(file));
+            encoded = index.encode();
+        } finally {
+            tree.delete();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return index.encode();
+    }
+
+    @Benchmark
+    public ChunkIndex decode() throws IOException {
+        return ChunkIndex.decode(new ByteArrayInputStream(encoded));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import jenkins.plugins.jobcacher.Cache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Cache.DirectorySize} which runs on the executor before every save.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DirectorySizeBenchmark {
+    @Param({"3"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanout;
+
+    @Param({"50"})
+    public int filesPerDir;
+
+    @Param({"1024"})
+    public int fileSize;
+
+    private SyntheticTree tree;
+
+    @Setup
+    public void setUp() throws IOException {
+        tree = SyntheticTree.create(SyntheticTree.createTempRoot("size"), depth, fanout, filesPerDir, fileSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public long directorySize() throws IOException {
+        return new Cache.DirectorySize("**/*", null).invoke(tree.getRoot(), null);
+    }
+}
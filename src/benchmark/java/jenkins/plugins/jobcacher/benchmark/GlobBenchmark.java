@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the include and exclude matching of {@link DirScanner.Glob} that every restore and save performs.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GlobBenchmark {
+    @Param({"3"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanout;
+
+    @Param({"50"})
+    public int filesPerDir;
+
+    @Param({"**/*", "**/*.jar,**/*.pom"})
+    public String includes;
+
+    @Param({"", "**/*.sha1,**/dir0/**"})
+    public String excludes;
+
+    private SyntheticTree tree;
+
+    @Setup
+    public void setUp() throws IOException {
+        tree = SyntheticTree.create(SyntheticTree.createTempRoot("glob"), depth, fanout, filesPerDir, 16);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public void scan(final Blackhole blackhole) throws IOException {
+        new DirScanner.Glob(includes, excludes).scan(tree.getRoot(), new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                blackhole.consume(relativePath);
+            }
+        });
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import hudson.FilePath;
+import hudson.util.FileVisitor;
+import jenkins.plugins.itemstorage.local.LocalObjectPath;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per file up to date check of {@link LocalObjectPath.IsNotThereOrOlderVisitor} against a target tree
+ * where a configurable percentage of the files is out of date.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IsNotThereOrOlderVisitorBenchmark {
+    @Param({"3"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanout;
+
+    @Param({"50"})
+    public int filesPerDir;
+
+    @Param({"0", "5", "100"})
+    public int percentModified;
+
+    private SyntheticTree source;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = SyntheticTree.create(SyntheticTree.createTempRoot("source"), depth, fanout, filesPerDir, 16);
+        target = SyntheticTree.createTempRoot("target");
+        FileUtils.copyDirectory(source.getRoot(), target, true);
+    }
+
+    /**
+     * The visitor touches the target files it copies so age them again before every iteration
+     */
+    @Setup(Level.Iteration)
+    public void ageTargets() {
+        List<String> files = source.getFiles();
+        int modified = files.size() * percentModified / 100;
+
+        for (int i = 0; i < modified; i++) {
+            File f = new File(target, files.get(i));
+            f.setLastModified(new File(source.getRoot(), files.get(i)).lastModified() - 60000L);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        source.delete();
+        FileUtils.deleteDirectory(target);
+    }
+
+    @Benchmark
+    public void visit(final Blackhole blackhole) throws IOException {
+        FileVisitor visitor = new LocalObjectPath.IsNotThereOrOlderVisitor(new FilePath(target), new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                blackhole.consume(relativePath);
+            }
+        });
+
+        for (String relativePath : source.getFiles()) {
+            visitor.visit(new File(source.getRoot(), relativePath), relativePath);
+        }
+    }
+}
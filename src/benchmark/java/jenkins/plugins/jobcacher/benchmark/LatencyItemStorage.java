@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import hudson.FilePath;
+import hudson.model.Item;
+import hudson.model.Job;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Item storage that moves no data and instead sleeps for a configurable time on each operation so that contention
+ * in {@link jenkins.plugins.jobcacher.CacheManager} can be studied in isolation of real I/O.
+ *
+ * @author Peter Hayes
+ */
+public class LatencyItemStorage extends ItemStorage<LatencyItemStorage.LatencyObjectPath> {
+    private static final long serialVersionUID = 1L;
+
+    private final long existsMillis;
+    private final long restoreMillis;
+    private final long saveMillis;
+    private final transient Set<String> saved = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public LatencyItemStorage(long existsMillis, long restoreMillis, long saveMillis) {
+        this.existsMillis = existsMillis;
+        this.restoreMillis = restoreMillis;
+        this.saveMillis = saveMillis;
+    }
+
+    @Override
+    public LatencyObjectPath getObjectPath(Item item, String path) {
+        return new LatencyObjectPath(item.getFullName() + "/" + path);
+    }
+
+    public class LatencyObjectPath extends ObjectPath {
+        private final String path;
+
+        LatencyObjectPath(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public ObjectPath child(String childPath) {
+            return new LatencyObjectPath(path + "/" + childPath);
+        }
+
+        @Override
+        public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws InterruptedException {
+            return simulate(restoreMillis);
+        }
+
+        @Override
+        public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws InterruptedException {
+            saved.add(path);
+            return simulate(saveMillis);
+        }
+
+        @Override
+        public boolean exists() throws InterruptedException {
+            Thread.sleep(existsMillis);
+            return saved.contains(path);
+        }
+
+        @Override
+        public void deleteRecursive() {
+            saved.remove(path);
+        }
+
+        @Override
+        public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+            return null;
+        }
+
+        private TransferResult simulate(long millis) throws InterruptedException {
+            long start = System.nanoTime();
+            Thread.sleep(millis);
+
+            TransferResult result = new TransferResult();
+            result.fileTransferred(0L);
+            result.addTransferNanos(System.nanoTime() - start);
+            return result;
+        }
+    }
+}
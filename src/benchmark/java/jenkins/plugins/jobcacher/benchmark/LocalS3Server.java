@@ -0,0 +1,556 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal in-process stand-in for S3 that implements just enough of the REST API for the plugin: path style
+ * bucket addressing, list objects (v1), get/head/put/delete object, copy, multi object delete and multipart uploads.
+ * Object content is kept on disk so that large workloads do not distort heap measurements.  Authentication is not
+ * checked but aws-chunked (SigV4 streaming) request bodies are decoded.
+ *
+ * @author Peter Hayes
+ */
+public class LocalS3Server implements HttpHandler {
+    private static final String NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final Pattern DELETE_KEY = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+
+    private final File storage;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentNavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, SortedMap<Integer, File>> multipartUploads = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public LocalS3Server(File storage) throws IOException {
+        this.storage = storage;
+        FileUtils.forceMkdir(storage);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        server.createContext("/", this);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(storage);
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return The number of requests served, useful to compare request counts between layouts
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            String[] bucketAndKey = path.substring(1).split("/", 2);
+            String bucket = URLDecoder.decode(bucketAndKey[0], "UTF-8");
+            String key = bucketAndKey.length > 1 ? URLDecoder.decode(bucketAndKey[1], "UTF-8") : "";
+            String method = exchange.getRequestMethod();
+
+            if (key.isEmpty()) {
+                if ("GET".equals(method)) {
+                    list(exchange, bucket, query);
+                } else if ("POST".equals(method) && query.containsKey("delete")) {
+                    deleteObjects(exchange, bucket);
+                } else {
+                    // Buckets always exist
+                    send(exchange, 200, null);
+                }
+            } else if ("PUT".equals(method)) {
+                if (query.containsKey("uploadId")) {
+                    uploadPart(exchange, query.get("uploadId"), Integer.parseInt(query.get("partNumber")));
+                } else if (exchange.getRequestHeaders().getFirst("x-amz-copy-source") != null) {
+                    copy(exchange, bucket, key);
+                } else {
+                    put(exchange, bucket, key);
+                }
+            } else if ("POST".equals(method)) {
+                if (query.containsKey("uploads")) {
+                    initiateMultipart(exchange, bucket, key);
+                } else {
+                    completeMultipart(exchange, bucket, key, query.get("uploadId"));
+                }
+            } else if ("GET".equals(method) || "HEAD".equals(method)) {
+                get(exchange, bucket, key, "HEAD".equals(method));
+            } else if ("DELETE".equals(method)) {
+                if (query.containsKey("uploadId")) {
+                    abortMultipart(query.get("uploadId"));
+                } else {
+                    delete(bucket + "/" + key);
+                }
+                send(exchange, 204, null);
+            } else {
+                send(exchange, 405, null);
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 500, error("InternalError", e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void list(HttpExchange exchange, String bucket, Map<String, String> query) throws IOException {
+        String prefix = query.containsKey("prefix") ? query.get("prefix") : "";
+        String marker = query.get("marker");
+        String delimiter = query.get("delimiter");
+        boolean urlEncode = "url".equals(query.get("encoding-type"));
+        int maxKeys = query.containsKey("max-keys") ? Integer.parseInt(query.get("max-keys")) : 1000;
+
+        String from = bucket + "/" + prefix;
+        ConcurrentNavigableMap<String, StoredObject> candidates = marker != null ?
+                objects.tailMap(bucket + "/" + marker, false) : objects.tailMap(from, true);
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<ListBucketResult xmlns=\"").append(NAMESPACE).append("\">");
+        element(xml, "Name", bucket);
+        element(xml, "Prefix", encode(prefix, urlEncode));
+        element(xml, "Marker", marker == null ? "" : encode(marker, urlEncode));
+        element(xml, "MaxKeys", Integer.toString(maxKeys));
+        if (delimiter != null) element(xml, "Delimiter", delimiter);
+        if (urlEncode) element(xml, "EncodingType", "url");
+
+        StringBuilder contents = new StringBuilder();
+        Set<String> commonPrefixes = new TreeSet<>();
+        String lastKey = null;
+        int count = 0;
+        boolean truncated = false;
+
+        for (Map.Entry<String, StoredObject> entry : candidates.entrySet()) {
+            if (!entry.getKey().startsWith(from)) break;
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+
+            String key = entry.getKey().substring(bucket.length() + 1);
+            lastKey = key;
+            count++;
+
+            if (delimiter != null) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    commonPrefixes.add(key.substring(0, index + delimiter.length()));
+                    continue;
+                }
+            }
+
+            StoredObject object = entry.getValue();
+            contents.append("<Contents>");
+            element(contents, "Key", encode(key, urlEncode));
+            element(contents, "LastModified", iso8601(object.lastModified));
+            element(contents, "ETag", "\"" + object.etag + "\"");
+            element(contents, "Size", Long.toString(object.file.length()));
+            element(contents, "StorageClass", "STANDARD");
+            contents.append("</Contents>");
+        }
+
+        element(xml, "IsTruncated", Boolean.toString(truncated));
+        if (truncated && delimiter != null) {
+            element(xml, "NextMarker", encode(lastKey, urlEncode));
+        }
+        xml.append(contents);
+        for (String commonPrefix : commonPrefixes) {
+            xml.append("<CommonPrefixes>");
+            element(xml, "Prefix", encode(commonPrefix, urlEncode));
+            xml.append("</CommonPrefixes>");
+        }
+        xml.append("</ListBucketResult>");
+
+        send(exchange, 200, xml.toString());
+    }
+
+    private void put(HttpExchange exchange, String bucket, String key) throws IOException {
+        File file = newDataFile();
+        String etag = receive(exchange, file);
+
+        StoredObject object = new StoredObject(file, etag, contentType(exchange.getRequestHeaders()));
+        replace(bucket + "/" + key, object);
+
+        exchange.getResponseHeaders().set("ETag", "\"" + etag + "\"");
+        send(exchange, 200, null);
+    }
+
+    private void copy(HttpExchange exchange, String bucket, String key) throws IOException {
+        String source = URLDecoder.decode(exchange.getRequestHeaders().getFirst("x-amz-copy-source"), "UTF-8");
+        StoredObject original = objects.get(source.startsWith("/") ? source.substring(1) : source);
+        if (original == null) {
+            send(exchange, 404, error("NoSuchKey", source));
+            return;
+        }
+
+        File file = newDataFile();
+        FileUtils.copyFile(original.file, file);
+        StoredObject object = new StoredObject(file, original.etag, original.contentType);
+        replace(bucket + "/" + key, object);
+
+        send(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><CopyObjectResult xmlns=\"" + NAMESPACE + "\">" +
+                "<LastModified>" + iso8601(object.lastModified) + "</LastModified><ETag>\"" + object.etag + "\"</ETag>" +
+                "</CopyObjectResult>");
+    }
+
+    private void get(HttpExchange exchange, String bucket, String key, boolean head) throws IOException {
+        StoredObject object = objects.get(bucket + "/" + key);
+        if (object == null) {
+            send(exchange, 404, head ? null : error("NoSuchKey", key));
+            return;
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", "\"" + object.etag + "\"");
+        headers.set("Last-Modified", rfc1123(object.lastModified));
+        headers.set("Content-Type", object.contentType);
+        headers.set("Accept-Ranges", "bytes");
+
+        long length = object.file.length();
+        if (head) {
+            headers.set("Content-Length", Long.toString(length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, length == 0 ? -1 : length);
+        try (InputStream in = new FileInputStream(object.file); OutputStream out = exchange.getResponseBody()) {
+            IOUtils.copyLarge(in, out);
+        }
+    }
+
+    private void deleteObjects(HttpExchange exchange, String bucket) throws IOException {
+        String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><DeleteResult xmlns=\"").append(NAMESPACE).append("\">");
+        Matcher matcher = DELETE_KEY.matcher(body);
+        while (matcher.find()) {
+            String key = unescapeXml(matcher.group(1));
+            delete(bucket + "/" + key);
+            xml.append("<Deleted>");
+            element(xml, "Key", key);
+            xml.append("</Deleted>");
+        }
+        xml.append("</DeleteResult>");
+
+        send(exchange, 200, xml.toString());
+    }
+
+    private void initiateMultipart(HttpExchange exchange, String bucket, String key) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        multipartUploads.put(uploadId, new ConcurrentSkipListMap<Integer, File>());
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><InitiateMultipartUploadResult xmlns=\"").append(NAMESPACE).append("\">");
+        element(xml, "Bucket", bucket);
+        element(xml, "Key", key);
+        element(xml, "UploadId", uploadId);
+        xml.append("</InitiateMultipartUploadResult>");
+
+        send(exchange, 200, xml.toString());
+    }
+
+    private void uploadPart(HttpExchange exchange, String uploadId, int partNumber) throws IOException {
+        SortedMap<Integer, File> parts = multipartUploads.get(uploadId);
+        if (parts == null) {
+            send(exchange, 404, error("NoSuchUpload", uploadId));
+            return;
+        }
+
+        File file = newDataFile();
+        String etag = receive(exchange, file);
+        parts.put(partNumber, file);
+
+        exchange.getResponseHeaders().set("ETag", "\"" + etag + "\"");
+        send(exchange, 200, null);
+    }
+
+    private void completeMultipart(HttpExchange exchange, String bucket, String key, String uploadId) throws IOException {
+        // Drain the part list, parts are assembled in part number order
+        IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+
+        SortedMap<Integer, File> parts = multipartUploads.remove(uploadId);
+        if (parts == null) {
+            send(exchange, 404, error("NoSuchUpload", uploadId));
+            return;
+        }
+
+        File file = newDataFile();
+        MessageDigest md5 = md5();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (File part : parts.values()) {
+                try (InputStream in = new FileInputStream(part)) {
+                    IOUtils.copyLarge(new DigestInputStream(in, md5), out);
+                }
+                FileUtils.deleteQuietly(part);
+            }
+        }
+
+        String etag = Hex.encodeHexString(md5.digest()) + "-" + parts.size();
+        replace(bucket + "/" + key, new StoredObject(file, etag, "application/octet-stream"));
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><CompleteMultipartUploadResult xmlns=\"").append(NAMESPACE).append("\">");
+        element(xml, "Location", getEndpoint() + "/" + bucket + "/" + key);
+        element(xml, "Bucket", bucket);
+        element(xml, "Key", key);
+        element(xml, "ETag", "\"" + etag + "\"");
+        xml.append("</CompleteMultipartUploadResult>");
+
+        send(exchange, 200, xml.toString());
+    }
+
+    private void abortMultipart(String uploadId) {
+        SortedMap<Integer, File> parts = multipartUploads.remove(uploadId);
+        if (parts != null) {
+            for (File part : parts.values()) {
+                FileUtils.deleteQuietly(part);
+            }
+        }
+    }
+
+    /**
+     * Read the request body to the file, decoding aws-chunked bodies, and return the hex MD5 of the content
+     */
+    private String receive(HttpExchange exchange, File file) throws IOException {
+        Headers headers = exchange.getRequestHeaders();
+        InputStream body = new BufferedInputStream(exchange.getRequestBody());
+
+        String sha256 = headers.getFirst("x-amz-content-sha256");
+        String encoding = headers.getFirst("Content-Encoding");
+        if ((sha256 != null && sha256.startsWith("STREAMING-")) || (encoding != null && encoding.contains("aws-chunked"))) {
+            body = new AwsChunkedInputStream(body);
+        }
+
+        MessageDigest md5 = md5();
+        try (InputStream in = new DigestInputStream(body, md5);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            IOUtils.copyLarge(in, out);
+        }
+        return Hex.encodeHexString(md5.digest());
+    }
+
+    private void replace(String key, StoredObject object) {
+        StoredObject previous = objects.put(key, object);
+        if (previous != null) {
+            FileUtils.deleteQuietly(previous.file);
+        }
+    }
+
+    private void delete(String key) {
+        StoredObject previous = objects.remove(key);
+        if (previous != null) {
+            FileUtils.deleteQuietly(previous.file);
+        }
+    }
+
+    private File newDataFile() {
+        return new File(storage, Long.toString(sequence.incrementAndGet()) + "-" + UUID.randomUUID());
+    }
+
+    private static void send(HttpExchange exchange, int status, String xml) throws IOException {
+        if (xml == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        byte[] bytes = xml.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String error(String code, String message) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code + "</Code><Message>" +
+                escapeXml(message) + "</Message></Error>";
+    }
+
+    private static void element(StringBuilder xml, String name, String value) {
+        xml.append('<').append(name).append('>').append(escapeXml(value)).append("</").append(name).append('>');
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescapeXml(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static String encode(String value, boolean urlEncode) throws UnsupportedEncodingException {
+        return urlEncode ? URLEncoder.encode(value, "UTF-8").replace("+", "%20") : value;
+    }
+
+    private static String contentType(Headers headers) {
+        String contentType = headers.getFirst("Content-Type");
+        return contentType != null ? contentType : "application/octet-stream";
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return query;
+
+        for (String pair : rawQuery.split("&")) {
+            int index = pair.indexOf('=');
+            if (index < 0) {
+                query.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                query.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static String iso8601(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private static String rfc1123(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class StoredObject {
+        final File file;
+        final String etag;
+        final String contentType;
+        final long lastModified = System.currentTimeMillis();
+
+        StoredObject(File file, String etag, String contentType) {
+            this.file = file;
+            this.etag = etag;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Decodes the SigV4 streaming body format: {@code hex-size;chunk-signature=...\r\n data \r\n} ending with an empty
+     * chunk.  Signatures are ignored.
+     */
+    private static class AwsChunkedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+        private boolean finished;
+
+        AwsChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) return -1;
+
+            if (remaining == 0) {
+                String header = readLine();
+                int semicolon = header.indexOf(';');
+                remaining = Long.parseLong(semicolon < 0 ? header.trim() : header.substring(0, semicolon).trim(), 16);
+                if (remaining == 0) {
+                    finished = true;
+                    return -1;
+                }
+            }
+
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) throw new EOFException("Truncated aws-chunked body");
+
+            remaining -= read;
+            if (remaining == 0) {
+                // trailing CRLF after the chunk data
+                readLine();
+            }
+            return read;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') break;
+                if (c != '\r') line.append((char) c);
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.jobcacher.ArbitraryFileCache;
+import jenkins.plugins.jobcacher.Cache;
+import jenkins.plugins.jobcacher.CacheBuildLastAction;
+import jenkins.plugins.jobcacher.CacheManager;
+import jenkins.plugins.jobcacher.CacheStatistics;
+import org.apache.commons.io.FileUtils;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Simulates a storm of concurrent builds across a set of jobs going through {@link CacheManager#cache} and
+ * {@link CacheManager#save} against a {@link LatencyItemStorage}, then reports the distribution of the job lock
+ * waits, overall throughput and how fairly executors and jobs were served.
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=jenkins.plugins.jobcacher.benchmark.LockContentionHarness \
+ *     -Dbenchmark.args="--builds 50 --jobs 5 --hotJobShare 0.8 --duration 60 --restoreLatency 200 --saveLatency 500"
+ * </pre>
+ *
+ * @author Peter Hayes
+ */
+public class LockContentionHarness {
+    private final int builds;
+    private final int jobs;
+    private final double hotJobShare;
+    private final long durationMillis;
+    private final long buildMillis;
+    private final ItemStorage storage;
+
+    // Builds are numbered in the order they start, as saves of older builds are skipped
+    private final AtomicInteger buildNumbers = new AtomicInteger();
+
+    public LockContentionHarness(int builds, int jobs, double hotJobShare, long durationMillis, long buildMillis, ItemStorage storage) {
+        this.builds = builds;
+        this.jobs = jobs;
+        this.hotJobShare = hotJobShare;
+        this.durationMillis = durationMillis;
+        this.buildMillis = buildMillis;
+        this.storage = storage;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+
+        LockContentionHarness harness = new LockContentionHarness(
+                Integer.parseInt(option(options, "builds", "50")),
+                Integer.parseInt(option(options, "jobs", "5")),
+                Double.parseDouble(option(options, "hotJobShare", "0")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(option(options, "duration", "30"))),
+                Long.parseLong(option(options, "buildTime", "100")),
+                new LatencyItemStorage(
+                        Long.parseLong(option(options, "existsLatency", "5")),
+                        Long.parseLong(option(options, "restoreLatency", "200")),
+                        Long.parseLong(option(options, "saveLatency", "500"))));
+
+        harness.run().print(System.out);
+    }
+
+    public Report run() throws Exception {
+        final File workspaces = SyntheticTree.createTempRoot("contention");
+        final List<Job> jobList = new ArrayList<>();
+        for (int i = 0; i < jobs; i++) {
+            jobList.add(mockJob("job" + i));
+        }
+
+        final Report report = new Report(builds, jobs);
+        final long deadline = System.currentTimeMillis() + durationMillis;
+        ExecutorService executors = Executors.newFixedThreadPool(builds);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int e = 0; e < builds; e++) {
+                final int executor = e;
+                futures.add(executors.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Random random = new Random(executor);
+                        FilePath workspace = new FilePath(new File(workspaces, "executor" + executor));
+                        workspace.child("cache").mkdirs();
+
+                        while (System.currentTimeMillis() < deadline) {
+                            int job = pickJob(random);
+                            report.record(executor, job, build(jobList.get(job), workspace));
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executors.shutdownNow();
+            FileUtils.deleteDirectory(workspaces);
+        }
+
+        report.elapsedMillis = durationMillis;
+        return report;
+    }
+
+    private int pickJob(Random random) {
+        if (jobs > 1 && random.nextDouble() < hotJobShare) {
+            return 0;
+        }
+        return random.nextInt(jobs);
+    }
+
+    private CacheStatistics build(Job job, FilePath workspace) throws Exception {
+        final AtomicReference<Action> action = new AtomicReference<>();
+
+        Run run = mock(Run.class, withSettings().stubOnly());
+        when(run.getParent()).thenReturn(job);
+        when(run.getNumber()).thenReturn(buildNumbers.incrementAndGet());
+        when(run.getStartTimeInMillis()).thenReturn(System.currentTimeMillis());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                action.set((Action) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(run).addAction(any(Action.class));
+
+        List<Cache> caches = Collections.<Cache>singletonList(new ArbitraryFileCache("cache", "**/*", null));
+
+        List<Cache.Saver> savers = CacheManager.cache(storage, run, workspace, null, TaskListener.NULL, new EnvVars(), caches);
+        Thread.sleep(buildMillis);
+        CacheManager.save(storage, run, workspace, null, TaskListener.NULL, Long.MAX_VALUE / (1024 * 1024), caches, savers);
+
+        return ((CacheBuildLastAction) action.get()).getStatistics().get(0);
+    }
+
+    private static Job mockJob(String name) throws IOException {
+        Job job = mock(Job.class, withSettings().stubOnly());
+        when(job.getFullName()).thenReturn("contention/" + name);
+        return job;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.containsKey(name) ? options.get(name) : defaultValue;
+    }
+
+    static class Report {
+        final List<Long> restoreWaits = new ArrayList<>();
+        final List<Long> saveWaits = new ArrayList<>();
+        final long[] buildsPerExecutor;
+        final long[] buildsPerJob;
+        final List<List<Long>> waitsPerJob = new ArrayList<>();
+        long elapsedMillis;
+
+        Report(int executors, int jobs) {
+            buildsPerExecutor = new long[executors];
+            buildsPerJob = new long[jobs];
+            for (int i = 0; i < jobs; i++) {
+                waitsPerJob.add(new ArrayList<Long>());
+            }
+        }
+
+        synchronized void record(int executor, int job, CacheStatistics statistics) {
+            long restoreWait = statistics.getRestore().getLockWaitMillis();
+            long saveWait = statistics.getSave().getLockWaitMillis();
+
+            restoreWaits.add(restoreWait);
+            saveWaits.add(saveWait);
+            waitsPerJob.get(job).add(restoreWait + saveWait);
+            buildsPerExecutor[executor]++;
+            buildsPerJob[job]++;
+        }
+
+        synchronized void print(PrintStream out) {
+            long total = restoreWaits.size();
+            out.println(String.format("%d builds in %ds, %.2f builds/s", total, elapsedMillis / 1000, total * 1000.0 / elapsedMillis));
+            out.println(distribution("restore lock wait", restoreWaits));
+            out.println(distribution("save lock wait   ", saveWaits));
+            out.println(String.format("executor fairness (Jain) %.3f", jain(buildsPerExecutor)));
+            for (int job = 0; job < buildsPerJob.length; job++) {
+                out.println(String.format("  job%-3d %6d builds, %s", job, buildsPerJob[job], distribution("lock wait", waitsPerJob.get(job))));
+            }
+        }
+
+        private static String distribution(String name, List<Long> values) {
+            return String.format("%s p50 %6dms p90 %6dms p99 %6dms max %6dms", name,
+                    Percentiles.of(values, 50), Percentiles.of(values, 90), Percentiles.of(values, 99), Percentiles.of(values, 100));
+        }
+
+        /**
+         * Jain's fairness index, 1 when every executor completed the same number of builds and 1/n when one did all
+         */
+        private static double jain(long[] values) {
+            double sum = 0.0;
+            double squares = 0.0;
+            for (long value : values) {
+                sum += value;
+                squares += (double) value * value;
+            }
+            return squares == 0.0 ? 1.0 : (sum * sum) / (values.length * squares);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.jobcacher.benchmark;
+
+import hudson.Util;
+import jenkins.plugins.itemstorage.dedup.Manifest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the dedup {@link Manifest} operations of a restore and a save: reading it, selecting the entries to restore
+ * and updating it with every file a save scanned, of which a few percent changed.
+ *
+ * @author Peter Hayes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ManifestBenchmark {
+    @Param({"3"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanout;
+
+    @Param({"50"})
+    public int filesPerDir;
+
+    @Param({"**/*", "**/*.jar,**/*.pom"})
+    public String includes;
+
+    @Param({"0.05"})
+    public double churn;
+
+    private SyntheticTree tree;
+    private File file;
+    private Manifest manifest;
+    private List<Manifest.Entry> scanned;
+
+    @Setup
+    public void setUp() throws IOException {
+        tree = SyntheticTree.create(SyntheticTree.createTempRoot("manifest"), depth, fanout, filesPerDir, 16);
+
+        manifest = new Manifest();
+        scanned = new ArrayList<>();
+        Random random = new Random(42);
+        for (String path : tree.getFiles()) {
+            File f = new File(tree.getRoot(), path);
+            Manifest.Entry entry = new Manifest.Entry(path, Util.getDigestOf(path), f.length(), f.lastModified());
+            manifest.put(entry);
+            scanned.add(random.nextDouble() < churn
+                    ? new Manifest.Entry(path, Util.getDigestOf(path + "'"), f.length() + 1, f.lastModified() + 1000)
+                    : entry);
+        }
+
+        file = new File(tree.getRoot(), Manifest.FILE_NAME);
+        manifest.write(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tree.delete();
+    }
+
+    @Benchmark
+    public Manifest read() throws IOException {
+        return Manifest.read(file);
+    }
+
+    @Benchmark
+    public List<Manifest.Entry> select() {
+        return manifest.select(includes, null);
+    }
+
+    @Benchmark
+    public Manifest update() {
+        return manifest.update(scanned, "**/*", true);
+    }
+}
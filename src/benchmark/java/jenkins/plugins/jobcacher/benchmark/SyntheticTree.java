@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a deterministic directory tree to benchmark against.  Every directory below the root has {@code fanout}
+ * subdirectories down to {@code depth} levels and contains {@code filesPerDir} files of {@code fileSize} bytes whose
+ * extensions rotate through a fixed set so that include and exclude patterns have something to match.
+ *
+ * @author Peter Hayes
+ */
+public class SyntheticTree {
+    static final String[] EXTENSIONS = {"jar", "pom", "class", "js", "json", "bin", "txt", "sha1"};
+
+    private final File root;
+    private final List<String> files = new ArrayList<>();
+
+    private SyntheticTree(File root) {
+        this.root = root;
+    }
+
+    public static SyntheticTree create(File root, int depth, int fanout, int filesPerDir, int fileSize) throws IOException {
+        SyntheticTree tree = new SyntheticTree(root);
+        tree.populate(root, "", depth, fanout, filesPerDir, new byte[fileSize], new Random(42));
+        return tree;
+    }
+
+    public static File createTempRoot(String name) throws IOException {
+        File root = File.createTempFile("jobcacher-" + name, "");
+        FileUtils.forceDelete(root);
+        FileUtils.forceMkdir(root);
+        return root;
+    }
+
+    private void populate(File dir, String relativeDir, int depth, int fanout, int filesPerDir, byte[] content, Random random) throws IOException {
+        FileUtils.forceMkdir(dir);
+
+        for (int i = 0; i < filesPerDir; i++) {
+            String name = "file" + i + "." + EXTENSIONS[i % EXTENSIONS.length];
+            random.nextBytes(content);
+            try (OutputStream out = new FileOutputStream(new File(dir, name))) {
+                out.write(content);
+            }
+            files.add(relativeDir + name);
+        }
+
+        if (depth > 0) {
+            for (int i = 0; i < fanout; i++) {
+                String name = "dir" + i;
+                populate(new File(dir, name), relativeDir + name + "/", depth - 1, fanout, filesPerDir, content, random);
+            }
+        }
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The relative paths of every generated file
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.benchmark;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Canonical cache shapes used by the macro benchmarks.  Sizes are multiplied by a scale factor so that the same
+ * shapes can be run quickly on a laptop and at full size on dedicated hardware.
+ *
+ * @author Peter Hayes
+ */
+public enum Workload {
+    /**
+     * 200k tiny files spread across a couple of thousand packages
+     */
+    NODE_MODULES("node_modules") {
+        @Override
+        void generate(File root, double scale, Random random) throws IOException {
+            int files = scaled(200000, scale);
+            int perPackage = 100;
+            for (int i = 0; i < files; i++) {
+                File dir = new File(root, "pkg" + (i / perPackage) + "/lib/" + (i % 10));
+                write(new File(dir, "file" + i + (i % 3 == 0 ? ".json" : ".js")), 200 + random.nextInt(3800), random);
+            }
+        }
+    },
+
+    /**
+     * A local maven repository with 20k jars, each with its pom and checksum
+     */
+    MAVEN_REPOSITORY("m2") {
+        @Override
+        void generate(File root, double scale, Random random) throws IOException {
+            int jars = scaled(20000, scale);
+            for (int i = 0; i < jars; i++) {
+                String artifact = "artifact" + (i / 5);
+                String version = "1.0." + (i % 5);
+                File dir = new File(root, "org/group" + (i / 200) + "/" + artifact + "/" + version);
+                write(new File(dir, artifact + "-" + version + ".jar"), 5 * 1024 + random.nextInt(200 * 1024), random);
+                write(new File(dir, artifact + "-" + version + ".pom"), 1024 + random.nextInt(2048), random);
+                write(new File(dir, artifact + "-" + version + ".jar.sha1"), 40, random);
+            }
+        }
+    },
+
+    /**
+     * A few multi gigabyte binaries such as build tool indexes or compiler caches
+     */
+    LARGE_BINARIES("binaries") {
+        @Override
+        void generate(File root, double scale, Random random) throws IOException {
+            long size = (long) (2L * 1024 * 1024 * 1024 * scale);
+            for (int i = 0; i < 3; i++) {
+                write(new File(root, "cache" + i + ".bin"), Math.max(1L, size), random);
+            }
+        }
+    };
+
+    private static final int BLOCK = 1024 * 1024;
+
+    private final String id;
+
+    Workload(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public static Workload fromId(String id) {
+        for (Workload workload : values()) {
+            if (workload.id.equals(id)) return workload;
+        }
+        throw new IllegalArgumentException("Unknown workload " + id);
+    }
+
+    abstract void generate(File root, double scale, Random random) throws IOException;
+
+    /**
+     * Mutate the tree like a build would between runs: of the chosen fraction of files 60% are modified in place,
+     * 20% are deleted and 20% get a new sibling.
+     *
+     * @return The number of files touched
+     */
+    public static int churn(File root, double fraction, Random random) throws IOException {
+        Collection<File> existing = FileUtils.listFiles(root, null, true);
+        List<File> files = new ArrayList<>(existing);
+        int toTouch = Math.max(1, (int) (files.size() * fraction));
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < toTouch && !files.isEmpty(); i++) {
+            File f = files.remove(random.nextInt(files.size()));
+            int action = random.nextInt(10);
+
+            if (action < 6) {
+                modify(f, random);
+                f.setLastModified(Math.max(now, f.lastModified() + 1000L));
+            } else if (action < 8) {
+                FileUtils.forceDelete(f);
+            } else {
+                write(new File(f.getParentFile(), "added" + i + "-" + f.getName()), Math.min(Math.max(f.length(), 1L), BLOCK), random);
+            }
+        }
+        return toTouch;
+    }
+
+    static int scaled(int count, double scale) {
+        return Math.max(1, (int) (count * scale));
+    }
+
+    private static void modify(File f, Random random) throws IOException {
+        // Rewrite a small region so large files change by a few KB like real indexes do
+        byte[] patch = new byte[(int) Math.min(4096, Math.max(1L, f.length()))];
+        random.nextBytes(patch);
+        try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+            long offset = f.length() > patch.length ? (long) (random.nextDouble() * (f.length() - patch.length)) : 0L;
+            file.seek(offset);
+            file.write(patch);
+        }
+    }
+
+    static void write(File f, long length, Random random) throws IOException {
+        FileUtils.forceMkdir(f.getParentFile());
+
+        byte[] block = new byte[(int) Math.min(length, BLOCK)];
+        random.nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+            for (long written = 0; written < length; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, length - written));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The lock of each cache, keyed by the full name of the job or by {@link #SHARED_PREFIX} and the name of a shared cache.  Builds
+ * hold the read lock while restoring a cache and the write lock while saving it.  Storages that copy caches between
+ * locations in the background hold the read lock while reading a location, so that they never copy a save half done.
+ * They hold the write lock while writing to a location builds may restore from, or changing where a cache lives, so
+ * that no restore reads a location half written.  As the read lock cannot be upgraded, a copy that stages under the
+ * read lock and writes under the write lock has to check that no save came in between.
+ *
+ * @author Peter Hayes
+ */
+public final class CacheLocks {
+    /**
+     * Prefixes the name of a shared cache wherever it is keyed like a job.  '@' is not allowed in item names so a
+     * shared cache never collides with a job.
+     */
+    public static final String SHARED_PREFIX = "@shared/";
+
+    // Could potentially grow indefinitely as jobs are created and destroyed
+    private static final ConcurrentMap<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+
+    private CacheLocks() {}
+
+    /**
+     * @param key The full name of the job or {@link #SHARED_PREFIX} and the name of a shared cache
+     * @return The lock of the cache
+     */
+    public static ReadWriteLock get(String key) {
+        ReadWriteLock lock = locks.get(key);
+        if (lock == null) {
+            ReadWriteLock existing = locks.putIfAbsent(key, lock = new ReentrantReadWriteLock());
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
+}
@@ -31,6 +31,7 @@ import jenkins.plugins.itemstorage.local.LocalItemStorage;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -42,6 +43,9 @@ import java.util.List;
 @Extension
 public class GlobalItemStorage extends GlobalConfiguration {
     private ItemStorage storage = new LocalItemStorage();
+    private List<SharedCache> sharedCaches = new ArrayList<>();
+    private List<TransferLimit> transferLimits = new ArrayList<>();
+    private int maxConcurrentTransfers;
 
     @SuppressWarnings("unused")
     public GlobalItemStorage() {
@@ -63,8 +67,91 @@ public class GlobalItemStorage extends GlobalConfiguration {
         save();
     }
 
+    @SuppressWarnings("unused")
+    public List<SharedCache> getSharedCaches() {
+        // Configurations saved before shared caches existed will not have any
+        return sharedCaches == null ? Collections.<SharedCache>emptyList() : Collections.unmodifiableList(sharedCaches);
+    }
+
+    @SuppressWarnings("unused")
+    public void setSharedCaches(List<SharedCache> sharedCaches) {
+        this.sharedCaches = sharedCaches == null ? new ArrayList<SharedCache>() : new ArrayList<>(sharedCaches);
+        save();
+    }
+
+    @SuppressWarnings("unused")
+    public List<TransferLimit> getTransferLimits() {
+        // Configurations saved before transfer limits existed will not have any
+        return transferLimits == null ? Collections.<TransferLimit>emptyList() : Collections.unmodifiableList(transferLimits);
+    }
+
+    @SuppressWarnings("unused")
+    public void setTransferLimits(List<TransferLimit> transferLimits) {
+        this.transferLimits = transferLimits == null ? new ArrayList<TransferLimit>() : new ArrayList<>(transferLimits);
+        TransferThrottles.reset();
+        save();
+    }
+
+    /**
+     * @return The maximum number of cache transfers using the master's disk at the same time, 0 for no limit
+     */
+    @SuppressWarnings("unused")
+    public int getMaxConcurrentTransfers() {
+        return maxConcurrentTransfers;
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+        this.maxConcurrentTransfers = Math.max(0, maxConcurrentTransfers);
+        TransferScheduler.limitChanged();
+        save();
+    }
+
+    /**
+     * Get the storages of a type in use, either the configured storage itself or storages nested in it
+     *
+     * @param type The type of storage
+     * @return The storages of that type, empty if none is in use
+     */
+    public <T extends ItemStorage> List<T> getStorages(Class<T> type) {
+        List<T> storages = new ArrayList<>();
+        if (storage != null) {
+            collect(storage, type, storages);
+        }
+        return storages;
+    }
+
+    private static <T extends ItemStorage> void collect(ItemStorage<?> storage, Class<T> type, List<T> storages) {
+        if (type.isInstance(storage)) {
+            storages.add(type.cast(storage));
+        }
+        for (ItemStorage<?> component : storage.getComponents()) {
+            collect(component, type, storages);
+        }
+    }
+
+    /**
+     * Get the declaration of a shared cache
+     *
+     * @param name The name of the shared cache
+     * @return The declaration or null if the cache was not declared
+     */
+    public SharedCache getSharedCache(String name) {
+        for (SharedCache sharedCache : getSharedCaches()) {
+            if (sharedCache.getName().equals(name)) {
+                return sharedCache;
+            }
+        }
+        return null;
+    }
+
     @Override public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        // An empty repeatable list is not submitted at all so clear it before binding
+        sharedCaches = new ArrayList<>();
+        transferLimits = new ArrayList<>();
         req.bindJSON(this, json);
+        TransferThrottles.reset();
+        TransferScheduler.limitChanged();
         return false;
     }
 
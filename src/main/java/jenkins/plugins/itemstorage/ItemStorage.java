@@ -29,6 +29,8 @@ import hudson.model.AbstractDescribableImpl;
 import hudson.model.Item;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Extension point for providing a new implementation of item storage that plugins can use to store data associated
@@ -47,4 +49,42 @@ public abstract class ItemStorage<T extends ObjectPath> extends AbstractDescriba
      * @return The ObjectPath to act upon that path
      */
     public abstract T getObjectPath(Item item, String path);
+
+    /**
+     * Whether {@link #getSharedObjectPath(String, String)} is implemented, which shared caches need.  Storages made of
+     * other storages support them when all their components do.
+     *
+     * @return True if shared locations are supported
+     */
+    public boolean supportsSharedCaches() {
+        List<ItemStorage<?>> components = getComponents();
+        for (ItemStorage<?> component : components) {
+            if (!component.supportsSharedCaches()) {
+                return false;
+            }
+        }
+        return !components.isEmpty();
+    }
+
+    /**
+     * Given the name of a shared location and a path, return an ObjectPath implementation for it.  Shared locations
+     * are not associated with any item so that several items can read and write the same data.  Only called when
+     * {@link #supportsSharedCaches()} is true.
+     *
+     * @param name The name of the shared location, a valid item name
+     * @param path The path scoped by the shared location
+     * @return The ObjectPath to act upon that path
+     */
+    public T getSharedObjectPath(String name, String path) {
+        throw new UnsupportedOperationException(getDescriptor().getDisplayName() + " does not support shared locations");
+    }
+
+    /**
+     * Get the storages this storage keeps its data in, for storages that are made of other storages
+     *
+     * @return The nested storages, empty if this storage keeps the data itself
+     */
+    public List<ItemStorage<?>> getComponents() {
+        return Collections.emptyList();
+    }
 }
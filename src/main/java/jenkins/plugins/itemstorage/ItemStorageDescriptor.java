@@ -25,6 +25,10 @@
 package jenkins.plugins.itemstorage;
 
 import hudson.model.Descriptor;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Descriptor for the Item Storage
@@ -33,4 +37,26 @@ import hudson.model.Descriptor;
  */
 public abstract class ItemStorageDescriptor<T extends ObjectPath> extends Descriptor<ItemStorage<T>> {
 
+    /**
+     * @return True if the storage is made of other storages
+     */
+    public boolean isComposite() {
+        return false;
+    }
+
+    /**
+     * @return The descriptors of the storages that can be nested in a composite storage
+     */
+    public static List<ItemStorageDescriptor> getComponentDescriptors() {
+        List<ItemStorageDescriptor> descriptors = new ArrayList<>();
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            for (Descriptor<ItemStorage> descriptor : jenkins.getDescriptorList(ItemStorage.class)) {
+                if (descriptor instanceof ItemStorageDescriptor && !((ItemStorageDescriptor) descriptor).isComposite()) {
+                    descriptors.add((ItemStorageDescriptor) descriptor);
+                }
+            }
+        }
+        return descriptors;
+    }
 }
@@ -26,11 +26,13 @@ package jenkins.plugins.itemstorage;
 
 import hudson.FilePath;
 import hudson.model.Job;
+import hudson.util.DirScanner;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * The abstraction to interact with a particular object path
@@ -54,11 +56,11 @@ public abstract class ObjectPath {
      * has changed.
      *
      * @param target Where to recursively copy the target to
-     * @return The number of files actually copied
+     * @return The result of the transfer
      * @throws IOException
      * @throws InterruptedException
      */
-    public int copyRecursiveTo(FilePath target) throws IOException, InterruptedException {
+    public TransferResult copyRecursiveTo(FilePath target) throws IOException, InterruptedException {
         return copyRecursiveTo("**/*", target);
     }
 
@@ -67,11 +69,11 @@ public abstract class ObjectPath {
      *
      * @param fileMask
      * @param target
-     * @return The number of files actually copied
+     * @return The result of the transfer
      * @throws IOException
      * @throws InterruptedException
      */
-    public int copyRecursiveTo(String fileMask, FilePath target) throws IOException, InterruptedException {
+    public TransferResult copyRecursiveTo(String fileMask, FilePath target) throws IOException, InterruptedException {
         return copyRecursiveTo(fileMask, null, target);
     }
 
@@ -81,21 +83,21 @@ public abstract class ObjectPath {
      * @param fileMask
      * @param excludes
      * @param target
-     * @return The number of files actually copied
+     * @return The result of the transfer
      * @throws IOException
      * @throws InterruptedException
      */
-    public abstract int copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException;
+    public abstract TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException;
 
     /**
      * Copy to this object path from the pass file source
      *
      * @param source
-     * @return The number of file copied
+     * @return The result of the transfer
      * @throws IOException
      * @throws InterruptedException
      */
-    public int copyRecursiveFrom(FilePath source) throws IOException, InterruptedException {
+    public TransferResult copyRecursiveFrom(FilePath source) throws IOException, InterruptedException {
         return copyRecursiveFrom("**/*", source);
     }
 
@@ -104,11 +106,11 @@ public abstract class ObjectPath {
      *
      * @param source
      * @param fileMask
-     * @return The number of file copied
+     * @return The result of the transfer
      * @throws IOException
      * @throws InterruptedException
      */
-    public int copyRecursiveFrom(String fileMask, FilePath source) throws IOException, InterruptedException {
+    public TransferResult copyRecursiveFrom(String fileMask, FilePath source) throws IOException, InterruptedException {
         return copyRecursiveFrom(fileMask, null, source);
     }
 
@@ -118,11 +120,56 @@ public abstract class ObjectPath {
      * @param fileMask
      * @param excludes
      * @param source
-     * @return The number of file copied
+     * @return The result of the transfer
      * @throws IOException
      * @throws InterruptedException
      */
-    public abstract int copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException;
+    public abstract TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException;
+
+    /**
+     * Copy to this object path from the pass file source and optionally delete the stored files matching the mask
+     * that were not copied, because they no longer exist in the source or are excluded, so that this path mirrors
+     * it.  Implementations that cannot delete only copy.
+     *
+     * @param fileMask
+     * @param excludes
+     * @param source
+     * @param deleteMissing Whether to delete files that are not in the source
+     * @return The result of the transfer
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source);
+    }
+
+    /**
+     * Copy to this object path from the pass file source leaving out the files the filter does not accept, which
+     * count as missing when deleting.  Implementations should apply the filter where they scan the source; by
+     * default the accepted files are first gathered in a temporary directory on the master.
+     *
+     * @param fileMask
+     * @param excludes
+     * @param source
+     * @param deleteMissing Whether to delete files that are not in the source
+     * @param filter Which of the matching files to copy, null for all of them
+     * @return The result of the transfer
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        if (filter == null || !source.exists()) {
+            return copyRecursiveFrom(fileMask, excludes, source, deleteMissing);
+        }
+
+        FilePath staging = new FilePath(Files.createTempDirectory("jobcacher-filter").toFile());
+        try {
+            source.copyRecursiveTo(PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter), staging, fileMask);
+            return copyRecursiveFrom(fileMask, excludes, staging, deleteMissing);
+        } finally {
+            staging.deleteRecursive();
+        }
+    }
 
     /**
      * Check if this path actually exists
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Narrows the files a save copies out of its source beyond the includes and excludes.  Unlike an excludes
+ * expression, which every file is matched against pattern by pattern, a filter decides on the exact relative path at
+ * once, so leaving out thousands of files costs no more than leaving out one.  Filters are evaluated wherever the
+ * source is scanned, usually on the agent.
+ *
+ * @author Peter Hayes
+ */
+public abstract class PathFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param path The relative path using forward slashes
+     * @return true if the file is to be copied
+     */
+    public abstract boolean accepts(String path);
+
+    /**
+     * @param filter The filter, null to accept everything
+     * @param relativePath The relative path as reported by a scanner
+     * @return true if the filter accepts the path
+     */
+    public static boolean accepts(PathFilter filter, String relativePath) {
+        return filter == null || filter.accepts(relativePath.replace('\\', '/'));
+    }
+
+    /**
+     * @param paths The relative paths using forward slashes
+     * @return A filter accepting every path but the passed ones
+     */
+    public static PathFilter excluding(Collection<String> paths) {
+        return new Excluding(paths);
+    }
+
+    /**
+     * @param scanner The scanner
+     * @param filter The filter, null to accept everything
+     * @return A scanner only passing on what the filter accepts
+     */
+    public static DirScanner filter(DirScanner scanner, PathFilter filter) {
+        return filter == null ? scanner : new FilteredScanner(scanner, filter);
+    }
+
+    /**
+     * @param visitor The visitor
+     * @param filter The filter, null to accept everything
+     * @return A visitor only visiting what the filter accepts
+     */
+    public static FileVisitor filter(final FileVisitor visitor, final PathFilter filter) {
+        if (filter == null) return visitor;
+
+        return new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                if (accepts(filter, relativePath)) {
+                    visitor.visit(f, relativePath);
+                }
+            }
+
+            @Override
+            public void visitSymlink(File link, String target, String relativePath) throws IOException {
+                if (accepts(filter, relativePath)) {
+                    visitor.visitSymlink(link, target, relativePath);
+                }
+            }
+
+            @Override
+            public boolean understandsSymlink() {
+                return visitor.understandsSymlink();
+            }
+        };
+    }
+
+    private static final class Excluding extends PathFilter {
+        private static final long serialVersionUID = 1L;
+
+        private final HashSet<String> excluded;
+
+        Excluding(Collection<String> excluded) {
+            this.excluded = new HashSet<>(excluded);
+        }
+
+        @Override
+        public boolean accepts(String path) {
+            return !excluded.contains(path);
+        }
+    }
+
+    private static final class FilteredScanner extends DirScanner {
+        private static final long serialVersionUID = 1L;
+
+        private final DirScanner scanner;
+        private final PathFilter filter;
+
+        FilteredScanner(DirScanner scanner, PathFilter filter) {
+            this.scanner = scanner;
+            this.filter = filter;
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            scanner.scan(dir, filter(visitor, filter));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage;
+
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches relative paths against the comma separated Ant style includes and excludes used by {@link ObjectPath} so
+ * that implementations can tell which stored files a copy covers without scanning a directory.
+ *
+ * @author Peter Hayes
+ */
+public final class PathPatterns {
+    private final List<String> included;
+    private final List<String> excluded;
+
+    public PathPatterns(String includes, String excludes) {
+        this.included = patterns(includes);
+        this.excluded = patterns(excludes);
+    }
+
+    /**
+     * @param path The relative path using forward slashes
+     * @return true if the path matches the includes, or there are none, and does not match the excludes
+     */
+    public boolean matches(String path) {
+        return (included.isEmpty() || matches(included, path)) && !matches(excluded, path);
+    }
+
+    private static List<String> patterns(String patterns) {
+        List<String> result = new ArrayList<>();
+        if (patterns == null) return result;
+
+        for (String pattern : patterns.split(",")) {
+            pattern = pattern.trim().replace('\\', '/');
+            if (pattern.isEmpty()) continue;
+
+            // Same as Ant, a trailing slash means everything beneath
+            result.add(pattern.endsWith("/") ? pattern + "**" : pattern);
+        }
+        return result;
+    }
+
+    private static boolean matches(List<String> patterns, String path) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, path)) return true;
+        }
+        return false;
+    }
+}
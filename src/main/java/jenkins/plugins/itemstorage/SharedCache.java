@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Failure;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A named cache in item storage that is not owned by any single item.  When a writer is configured only that item may
+ * save the cache, otherwise any item may save it as long as its build is newer than the one that saved it last.
+ *
+ * @author Peter Hayes
+ */
+public class SharedCache extends AbstractDescribableImpl<SharedCache> {
+    private final String name;
+    private final String writer;
+
+    @DataBoundConstructor
+    public SharedCache(String name, String writer) {
+        this.name = name;
+        this.writer = Util.fixEmptyAndTrim(writer);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The full name of the only item allowed to save this cache, or null if any item may save it
+     */
+    public String getWriter() {
+        return writer;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<SharedCache> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.SharedCache_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckName(@QueryParameter String value) {
+            try {
+                Jenkins.checkGoodName(value);
+                return FormValidation.ok();
+            } catch (Failure e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage;
+
+import hudson.FilePath;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies caches between storages for storages made of other storages.  A cache is restored into a staging directory
+ * on the master and saved from there into each target, which only transfer what changed.
+ *
+ * @author Peter Hayes
+ */
+public final class StorageCopier {
+    private static final Logger LOGGER = Logger.getLogger(StorageCopier.class.getName());
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "StorageCopier"));
+
+    // Tasks waiting to run, so that a burst of saves of the same cache only queues one
+    private static final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private StorageCopier() {}
+
+    /**
+     * Work done in the background
+     */
+    public interface Task {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Run a task in the background unless a task with the same key is already waiting to run
+     *
+     * @param key What the task copies, used to skip duplicates and in logs
+     * @param task The task
+     */
+    public static void submit(final String key, final Task task) {
+        if (!pending.add(key)) {
+            return;
+        }
+
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // Changes from now on need another run
+                pending.remove(key);
+
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to copy cache " + key, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Make the targets mirror the source, doing nothing if the source does not exist
+     *
+     * @param source The path to copy from
+     * @param targets The paths to copy to
+     */
+    public static void copy(ObjectPath source, List<? extends ObjectPath> targets) throws IOException, InterruptedException {
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        FilePath staging = stage(source);
+        if (staging == null) {
+            return;
+        }
+        try {
+            publish(staging, targets);
+        } finally {
+            staging.deleteRecursive();
+        }
+    }
+
+    /**
+     * Restore a cache into a staging directory, for callers that read the source and write the targets under
+     * different locks
+     *
+     * @param source The path to copy from
+     * @return The staging directory, which the caller has to delete, or null if the source does not exist
+     */
+    public static FilePath stage(ObjectPath source) throws IOException, InterruptedException {
+        if (!source.exists()) {
+            return null;
+        }
+
+        FilePath staging = new FilePath(Files.createTempDirectory("jobcacher-copy").toFile());
+        try {
+            source.copyRecursiveTo("**/*", null, staging);
+            return staging;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            staging.deleteRecursive();
+            throw e;
+        }
+    }
+
+    /**
+     * Make the targets mirror a staging directory
+     *
+     * @param staging The directory from {@link #stage(ObjectPath)}
+     * @param targets The paths to copy to
+     */
+    public static void publish(FilePath staging, List<? extends ObjectPath> targets) throws IOException, InterruptedException {
+        for (ObjectPath target : targets) {
+            target.copyRecursiveFrom("**/*", null, staging, true);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A limit on the bandwidth cache transfers may use.  Without a label the limit is shared by all transfers of this
+ * instance, otherwise every node matching the label gets a budget of its own.  Restores and saves are budgeted
+ * separately so background saves do not delay restores that builds are waiting on.
+ *
+ * @author Peter Hayes
+ */
+public class TransferLimit extends AbstractDescribableImpl<TransferLimit> {
+    private final String label;
+    private final long restoreLimit;
+    private final long saveLimit;
+
+    @DataBoundConstructor
+    public TransferLimit(String label, long restoreLimit, long saveLimit) {
+        this.label = Util.fixEmptyAndTrim(label);
+        this.restoreLimit = Math.max(0, restoreLimit);
+        this.saveLimit = Math.max(0, saveLimit);
+    }
+
+    /**
+     * @return The label expression selecting the nodes limited individually, or null if the limit is global
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return The maximum restore bandwidth in megabytes per second or 0 if restores are not limited
+     */
+    public long getRestoreLimit() {
+        return restoreLimit;
+    }
+
+    /**
+     * @return The maximum save bandwidth in megabytes per second or 0 if saves are not limited
+     */
+    public long getSaveLimit() {
+        return saveLimit;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<TransferLimit> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.TransferLimit_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckLabel(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.ok();
+            }
+
+            try {
+                Label.parseExpression(value);
+                return FormValidation.ok();
+            } catch (ANTLRException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a single {@link ObjectPath} copy operation.  Implementations fill in whatever they can measure and
+ * results of several operations may be merged with {@link #add(TransferResult)}.
+ *
+ * @author Peter Hayes
+ */
+@ExportedBean(defaultVisibility = 2)
+public class TransferResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long filesScanned;
+    private long filesTransferred;
+    private long filesSkipped;
+    private long filesDeleted;
+    private long pathsUpToDate;
+    private long bytesTransferred;
+    private long scanNanos;
+    private long listNanos;
+    private long transferNanos;
+    private long lockWaitNanos;
+    private long queueWaitNanos;
+
+    public TransferResult() {}
+
+    /**
+     * Record a file that matched the scan but was already up to date on the other side
+     */
+    public void fileSkipped() {
+        filesScanned++;
+        filesSkipped++;
+    }
+
+    /**
+     * Record a file that matched the scan and was copied
+     *
+     * @param length The number of bytes copied
+     */
+    public void fileTransferred(long length) {
+        filesScanned++;
+        filesTransferred++;
+        bytesTransferred += length;
+    }
+
+    /**
+     * Record a file removed from the target as it no longer exists in the source
+     */
+    public void fileDeleted() {
+        filesDeleted++;
+    }
+
+    /**
+     * Record a whole path that was not copied at all as the target was stamped with the generation of the source
+     */
+    public void pathUpToDate() {
+        pathsUpToDate++;
+    }
+
+    public void addScanNanos(long nanos) {
+        scanNanos += nanos;
+    }
+
+    public void addListNanos(long nanos) {
+        listNanos += nanos;
+    }
+
+    public void addTransferNanos(long nanos) {
+        transferNanos += nanos;
+    }
+
+    public void addLockWaitNanos(long nanos) {
+        lockWaitNanos += nanos;
+    }
+
+    public void addQueueWaitNanos(long nanos) {
+        queueWaitNanos += nanos;
+    }
+
+    /**
+     * Merge the passed result into this one
+     *
+     * @param other The result to add
+     * @return this
+     */
+    public TransferResult add(TransferResult other) {
+        if (other != null) {
+            filesScanned += other.filesScanned;
+            filesTransferred += other.filesTransferred;
+            filesSkipped += other.filesSkipped;
+            filesDeleted += other.filesDeleted;
+            pathsUpToDate += other.pathsUpToDate;
+            bytesTransferred += other.bytesTransferred;
+            scanNanos += other.scanNanos;
+            listNanos += other.listNanos;
+            transferNanos += other.transferNanos;
+            lockWaitNanos += other.lockWaitNanos;
+            queueWaitNanos += other.queueWaitNanos;
+        }
+        return this;
+    }
+
+    @Exported
+    public long getFilesScanned() {
+        return filesScanned;
+    }
+
+    @Exported
+    public long getFilesTransferred() {
+        return filesTransferred;
+    }
+
+    @Exported
+    public long getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    @Exported
+    public long getFilesDeleted() {
+        return filesDeleted;
+    }
+
+    /**
+     * @return The number of paths left untouched as they were already up to date with the other side
+     */
+    @Exported
+    public long getPathsUpToDate() {
+        return pathsUpToDate;
+    }
+
+    @Exported
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * @return Time spent walking the source tree and comparing against the target
+     */
+    @Exported
+    public long getScanMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(scanNanos);
+    }
+
+    public long getScanNanos() {
+        return scanNanos;
+    }
+
+    public long getTransferNanos() {
+        return transferNanos;
+    }
+
+    /**
+     * @return Time spent listing the remote storage, if the implementation needs to
+     */
+    @Exported
+    public long getListMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(listNanos);
+    }
+
+    /**
+     * @return Time spent actually moving bytes
+     */
+    @Exported
+    public long getTransferMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(transferNanos);
+    }
+
+    /**
+     * @return Time spent waiting for the job's cache lock before the operation could start
+     */
+    @Exported
+    public long getLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lockWaitNanos);
+    }
+
+    /**
+     * @return Time spent waiting for a turn in the {@link TransferScheduler} before the operation could start
+     */
+    @Exported
+    public long getQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(queueWaitNanos);
+    }
+
+    @Override
+    public String toString() {
+        return filesTransferred + " of " + filesScanned + " files (" + bytesTransferred / 1024 + "K)" +
+                (filesDeleted > 0 ? ", " + filesDeleted + " deleted," : "") +
+                (pathsUpToDate > 0 ? ", " + pathsUpToDate + " paths up to date," : "") + " in " +
+                TimeUnit.NANOSECONDS.toMillis(scanNanos + listNanos + transferNanos) + "ms [scan " + getScanMillis() +
+                "ms, list " + getListMillis() + "ms, transfer " + getTransferMillis() + "ms, lock wait " +
+                getLockWaitMillis() + "ms, queue wait " + getQueueWaitMillis() + "ms]";
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of cache transfers that read or write the master's disk at the same time.  Waiting restores go
+ * before waiting saves since builds are blocked on them, and among equal requests the owner with the fewest running
+ * transfers, then the one served least recently, goes first so that a storm of builds from one job cannot starve every
+ * other job.  Saves that waited longer than {@link #SAVE_PROMOTION_SECONDS} compete with restores so they are delayed
+ * but never starved.
+ *
+ * @author Peter Hayes
+ */
+public final class TransferScheduler {
+    /**
+     * How long a save may wait before it is treated like a restore
+     */
+    static final long SAVE_PROMOTION_SECONDS = Long.getLong(TransferScheduler.class.getName() + ".savePromotionSeconds", 300L);
+
+    private static final Object LOCK = new Object();
+    private static final List<Permit> QUEUE = new ArrayList<>();
+    private static final Map<String, Integer> RUNNING = new HashMap<>();
+    private static final Map<String, Long> SERVED = new HashMap<>();
+    private static int running;
+    private static long sequence;
+    private static long grants;
+
+    private TransferScheduler() {}
+
+    /**
+     * Wait for a turn to transfer
+     *
+     * @param owner The item or shared cache the transfer is for
+     * @param save True for a save, false for a restore
+     * @return The permit to release once the transfer is done
+     * @throws InterruptedException If interrupted while waiting, the transfer must not start then
+     */
+    public static Permit acquire(String owner, boolean save) throws InterruptedException {
+        Permit permit;
+        synchronized (LOCK) {
+            permit = new Permit(owner, save, sequence++);
+            QUEUE.add(permit);
+            try {
+                // Wake up now and then as waiting saves are promoted over time
+                while (!isNext(permit)) {
+                    LOCK.wait(TimeUnit.SECONDS.toMillis(1));
+                }
+            } finally {
+                QUEUE.remove(permit);
+                // Whoever is next may have been waiting on this permit
+                LOCK.notifyAll();
+            }
+
+            running++;
+            Integer count = RUNNING.get(owner);
+            RUNNING.put(owner, count == null ? 1 : count + 1);
+            SERVED.put(owner, grants++);
+            forgetIdleOwners();
+        }
+        permit.waitNanos = System.nanoTime() - permit.queued;
+        return permit;
+    }
+
+    /**
+     * Wake up waiting transfers so a changed limit takes effect
+     */
+    static void limitChanged() {
+        synchronized (LOCK) {
+            LOCK.notifyAll();
+        }
+    }
+
+    /**
+     * @return The number of transfers waiting for their turn
+     */
+    public static int getQueueDepth() {
+        synchronized (LOCK) {
+            return QUEUE.size();
+        }
+    }
+
+    /**
+     * @return The number of transfers currently running
+     */
+    public static int getRunning() {
+        synchronized (LOCK) {
+            return running;
+        }
+    }
+
+    private static boolean isNext(Permit permit) {
+        int limit = getLimit();
+        if (limit > 0 && running >= limit) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        Permit next = null;
+        for (Permit candidate : QUEUE) {
+            if (next == null || compare(candidate, next, now) < 0) {
+                next = candidate;
+            }
+        }
+        return next == permit;
+    }
+
+    private static int compare(Permit a, Permit b, long now) {
+        boolean aUrgent = a.isUrgent(now);
+        if (aUrgent != b.isUrgent(now)) {
+            return aUrgent ? -1 : 1;
+        }
+
+        int aRunning = getRunning(a.owner);
+        int bRunning = getRunning(b.owner);
+        if (aRunning != bRunning) {
+            return aRunning < bRunning ? -1 : 1;
+        }
+
+        long aServed = getServed(a.owner);
+        long bServed = getServed(b.owner);
+        if (aServed != bServed) {
+            return aServed < bServed ? -1 : 1;
+        }
+
+        return a.sequence < b.sequence ? -1 : 1;
+    }
+
+    private static long getServed(String owner) {
+        Long served = SERVED.get(owner);
+        return served == null ? -1L : served;
+    }
+
+    /**
+     * Owners with transfers running or waiting must remember when they were served last, and so must idle owners
+     * served more recently than any of those, or they would look never served and cut in ahead of them on their next
+     * transfer.  Any other owner is forgotten so that the map does not grow with every item ever transferred.
+     */
+    private static void forgetIdleOwners() {
+        Set<String> busy = new HashSet<>(RUNNING.keySet());
+        for (Permit permit : QUEUE) {
+            busy.add(permit.owner);
+        }
+
+        long oldest = Long.MAX_VALUE;
+        for (String owner : busy) {
+            Long served = SERVED.get(owner);
+            if (served != null) {
+                oldest = Math.min(oldest, served);
+            }
+        }
+
+        for (Iterator<Map.Entry<String, Long>> entries = SERVED.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<String, Long> entry = entries.next();
+            if (!busy.contains(entry.getKey()) && entry.getValue() < oldest) {
+                entries.remove();
+            }
+        }
+    }
+
+    private static int getRunning(String owner) {
+        Integer count = RUNNING.get(owner);
+        return count == null ? 0 : count;
+    }
+
+    private static int getLimit() {
+        GlobalItemStorage config = GlobalItemStorage.get();
+        return config == null ? 0 : config.getMaxConcurrentTransfers();
+    }
+
+    /**
+     * A turn to transfer, released once the transfer is done
+     */
+    public static final class Permit {
+        private final String owner;
+        private final boolean save;
+        private final long sequence;
+        private final long queued = System.nanoTime();
+        private long waitNanos;
+        private boolean released;
+
+        private Permit(String owner, boolean save, long sequence) {
+            this.owner = owner;
+            this.save = save;
+            this.sequence = sequence;
+        }
+
+        private boolean isUrgent(long now) {
+            return !save || now - queued > TimeUnit.SECONDS.toNanos(SAVE_PROMOTION_SECONDS);
+        }
+
+        /**
+         * @return The time spent waiting for this permit
+         */
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        public void release() {
+            synchronized (LOCK) {
+                if (released) return;
+                released = true;
+
+                running--;
+                int count = getRunning(owner) - 1;
+                if (count > 0) {
+                    RUNNING.put(owner, count);
+                } else {
+                    RUNNING.remove(owner);
+                }
+                forgetIdleOwners();
+                LOCK.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the configured transfer limits to cache transfers.  The token buckets backing the limits live on the master
+ * and are exported over the channel of the node running the transfer, which draws from them in batches so that
+ * pacing a transfer does not cost a round trip per file.
+ *
+ * @author Peter Hayes
+ */
+public final class TransferThrottles {
+    private static final long BATCH_SIZE = 1024 * 1024;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static final ConcurrentMap<String, TokenBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    // Throttles of background transfers by the node name and path of the directory they fill
+    private static final ConcurrentMap<String, Throttle> DIRECTORIES = new ConcurrentHashMap<>();
+
+    private TransferThrottles() {
+    }
+
+    /**
+     * Get the throttle for transfers between item storage and a node
+     *
+     * @param node A path on the node exchanging data with item storage
+     * @param save True if data is saved to item storage, false if it is restored from it
+     * @param side A path on the side of the transfer that will pace it
+     * @return The throttle usable on the side of the transfer or null if no limit applies
+     */
+    public static Throttle get(FilePath node, boolean save, FilePath side) {
+        // No limits are configured outside of a running Jenkins
+        if (Jenkins.getInstance() == null) {
+            return null;
+        }
+
+        Throttle extra = getDirectoryThrottle(node);
+        GlobalItemStorage config = GlobalItemStorage.get();
+        if (extra == null && (config == null || config.getTransferLimits().isEmpty())) {
+            return null;
+        }
+
+        Node target = toNode(node);
+        String direction = save ? "save" : "restore";
+        List<TokenBucket> buckets = new ArrayList<>();
+        for (TransferLimit limit : config == null ? Collections.<TransferLimit>emptyList() : config.getTransferLimits()) {
+            long rate = (save ? limit.getSaveLimit() : limit.getRestoreLimit()) * MEGABYTE;
+            if (rate <= 0) {
+                continue;
+            }
+
+            String key;
+            if (limit.getLabel() == null) {
+                key = "|" + direction + "|" + rate;
+            } else if (target != null && matches(limit.getLabel(), target)) {
+                key = limit.getLabel() + "|" + target.getNodeName() + "|" + direction + "|" + rate;
+            } else {
+                continue;
+            }
+
+            TokenBucket bucket = BUCKETS.get(key);
+            if (bucket == null) {
+                BUCKETS.putIfAbsent(key, new TokenBucket(rate));
+                bucket = BUCKETS.get(key);
+            }
+            buckets.add(bucket);
+        }
+
+        if (buckets.isEmpty() && extra == null) {
+            return null;
+        }
+
+        return new BatchingThrottle(side.getChannel().export(Throttle.class, new AllBuckets(buckets, extra)));
+    }
+
+    /**
+     * Pace every transfer to or from a directory with another throttle on top of the configured limits, until the
+     * directory is released.  Background transfers use it to be paced per file whichever storage they go through.
+     *
+     * @param dir The directory filled or read by the transfer
+     * @param throttle The throttle, running on the master
+     */
+    public static void register(FilePath dir, Throttle throttle) {
+        DIRECTORIES.put(toKey(dir), throttle);
+    }
+
+    /**
+     * Stop pacing the transfers of a directory passed to {@link #register(FilePath, Throttle)}
+     *
+     * @param dir The directory filled or read by the transfer
+     */
+    public static void release(FilePath dir) {
+        DIRECTORIES.remove(toKey(dir));
+    }
+
+    /**
+     * Wrap a scanner so the files it visits are paced by a throttle
+     *
+     * @param scanner The scanner selecting the files to transfer
+     * @param throttle The throttle or null if the transfer is not limited
+     * @return The throttled scanner
+     */
+    public static DirScanner throttle(DirScanner scanner, Throttle throttle) {
+        return throttle == null ? scanner : new ThrottledScanner(scanner, throttle);
+    }
+
+    /**
+     * Forget the state of all token buckets so changed limits take effect immediately
+     */
+    static void reset() {
+        BUCKETS.clear();
+    }
+
+    private static Throttle getDirectoryThrottle(FilePath path) {
+        if (DIRECTORIES.isEmpty()) {
+            return null;
+        }
+
+        String key = toKey(path);
+        for (Map.Entry<String, Throttle> dir : DIRECTORIES.entrySet()) {
+            String prefix = dir.getKey();
+            if (key.equals(prefix) || key.startsWith(prefix) && (key.charAt(prefix.length()) == '/' || key.charAt(prefix.length()) == '\\')) {
+                return dir.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String toKey(FilePath path) {
+        Node node = toNode(path);
+        return (node == null ? "" : node.getNodeName()) + "|" + path.getRemote();
+    }
+
+    private static Node toNode(FilePath path) {
+        Computer computer = path.toComputer();
+        return computer == null ? null : computer.getNode();
+    }
+
+    private static boolean matches(String expression, Node node) {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return false;
+        }
+
+        Label label = jenkins.getLabel(expression);
+        return label != null && label.contains(node);
+    }
+
+    private static void sleep(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    /**
+     * A token bucket holding up to one second worth of bytes.  Transfers reserve their bytes up front, going into debt
+     * when the bucket is empty, and then wait until that debt is paid off.
+     */
+    private static final class TokenBucket {
+        private final double rate;
+        private double tokens;
+        private long updated = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        /**
+         * @return The time in nanoseconds to wait before transferring the reserved bytes
+         */
+        synchronized long reserve(long bytes) {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - updated) * rate / TimeUnit.SECONDS.toNanos(1));
+            updated = now;
+            tokens -= bytes;
+
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Draws from every applicable bucket and waits for the most constrained one, then for the throttle of the directory
+     * being transferred if any
+     */
+    private static final class AllBuckets implements Throttle {
+        private final List<TokenBucket> buckets;
+        private final Throttle extra;
+
+        AllBuckets(List<TokenBucket> buckets, Throttle extra) {
+            this.buckets = buckets;
+            this.extra = extra;
+        }
+
+        @Override
+        public void acquire(long bytes) throws InterruptedException {
+            long wait = 0;
+            for (TokenBucket bucket : buckets) {
+                wait = Math.max(wait, bucket.reserve(bytes));
+            }
+            sleep(wait);
+
+            if (extra != null) {
+                extra.acquire(bytes);
+            }
+        }
+    }
+
+    /**
+     * Acquires from the exported throttle in batches of at least a megabyte
+     */
+    private static final class BatchingThrottle implements Throttle, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Throttle delegate;
+        private transient long credit;
+
+        BatchingThrottle(Throttle delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void acquire(long bytes) throws InterruptedException {
+            if (bytes > credit) {
+                long batch = Math.max(bytes - credit, BATCH_SIZE);
+                delegate.acquire(batch);
+                credit += batch;
+            }
+            credit -= bytes;
+        }
+    }
+
+    /**
+     * Acquires the size of each file the wrapped scanner passes on before it is transferred
+     */
+    private static final class ThrottledScanner extends DirScanner {
+        private static final long serialVersionUID = 1L;
+
+        private final DirScanner scanner;
+        private final Throttle throttle;
+
+        ThrottledScanner(DirScanner scanner, Throttle throttle) {
+            this.scanner = scanner;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public void scan(File dir, final FileVisitor visitor) throws IOException {
+            scanner.scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.isFile()) {
+                        try {
+                            throttle.acquire(f.length());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while throttling " + relativePath);
+                        }
+                    }
+                    visitor.visit(f, relativePath);
+                }
+
+                @Override
+                public void visitSymlink(File link, String target, String relativePath) throws IOException {
+                    visitor.visitSymlink(link, target, relativePath);
+                }
+
+                @Override
+                public boolean understandsSymlink() {
+                    return visitor.understandsSymlink();
+                }
+            });
+        }
+    }
+}
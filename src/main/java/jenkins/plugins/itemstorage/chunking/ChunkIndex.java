@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.chunking;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The list of chunks a large cached file is made of.  It is stored in place of the file as a small text document:
+ *
+ * <pre>
+ * jobcacher-chunks 1
+ * &lt;file length&gt; &lt;last modified&gt;
+ * &lt;sha-256&gt; &lt;length&gt;
+ * ...
+ * </pre>
+ *
+ * @author Peter Hayes
+ */
+public class ChunkIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final String HEADER = "jobcacher-chunks 1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long length;
+    private final long lastModified;
+    private final List<Chunk> chunks;
+
+    public ChunkIndex(long length, long lastModified, List<Chunk> chunks) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.chunks = chunks;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public List<Chunk> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    public byte[] encode() {
+        StringBuilder out = new StringBuilder(HEADER).append('\n');
+        out.append(length).append(' ').append(lastModified).append('\n');
+        for (Chunk chunk : chunks) {
+            out.append(chunk.getHash()).append(' ').append(chunk.getLength()).append('\n');
+        }
+        return out.toString().getBytes(UTF8);
+    }
+
+    public static ChunkIndex decode(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+
+        if (!HEADER.equals(reader.readLine())) {
+            throw new IOException("Not a chunk index");
+        }
+
+        String[] header = reader.readLine().split(" ");
+        long length = Long.parseLong(header[0]);
+        long lastModified = Long.parseLong(header[1]);
+
+        List<Chunk> chunks = new ArrayList<>();
+        long offset = 0L;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+
+            String[] fields = line.split(" ");
+            int chunkLength = Integer.parseInt(fields[1]);
+            chunks.add(new Chunk(fields[0], offset, chunkLength));
+            offset += chunkLength;
+        }
+
+        if (offset != length) {
+            throw new IOException("Chunk index is corrupt, chunks cover " + offset + " of " + length + " bytes");
+        }
+
+        return new ChunkIndex(length, lastModified, chunks);
+    }
+
+    public static ChunkIndex decode(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return decode(in);
+        }
+    }
+}
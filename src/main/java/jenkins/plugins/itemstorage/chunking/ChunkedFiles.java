@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.chunking;
+
+import hudson.Util;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Large files are not stored whole.  They are cut into content defined chunks which are stored once, addressed by
+ * their hash, next to an index describing how to put the file back together.  Both live under a reserved directory
+ * of the cache path:
+ *
+ * <pre>
+ * .jobcacher/index/&lt;relative path of the file&gt;
+ * .jobcacher/chunks/&lt;first two hex digits&gt;/&lt;sha-256&gt;
+ * </pre>
+ *
+ * A partially changed file then only needs its changed chunks moved in either direction.
+ *
+ * @author Peter Hayes
+ */
+public final class ChunkedFiles {
+    public static final String RESERVED_DIR = ".jobcacher";
+    public static final String INDEX_DIR = RESERVED_DIR + "/index";
+    public static final String CHUNK_DIR = RESERVED_DIR + "/chunks";
+
+    private static final long DEFAULT_THRESHOLD = 32L * 1024 * 1024;
+
+    private ChunkedFiles() {}
+
+    /**
+     * @return Size in bytes above which files are chunked, negative when chunking is disabled
+     */
+    public static long getThreshold() {
+        return Long.getLong(ChunkedFiles.class.getName() + ".threshold", DEFAULT_THRESHOLD);
+    }
+
+    public static boolean isChunked(File file, long threshold) {
+        return threshold >= 0 && file.isFile() && file.length() > threshold;
+    }
+
+    /**
+     * @return The given excludes with the reserved directory added so it never ends up in a workspace
+     */
+    public static String excludeReserved(String excludes) {
+        String reserved = RESERVED_DIR + "/**";
+        return excludes == null || excludes.trim().isEmpty() ? reserved : excludes + "," + reserved;
+    }
+
+    /**
+     * @return The path of a chunk relative to the chunk directory
+     */
+    public static String chunkPath(String hash) {
+        return hash.substring(0, 2) + "/" + hash;
+    }
+
+    public static File createStagingDir() throws IOException {
+        return Files.createTempDirectory("jobcacher-chunks").toFile();
+    }
+
+    /**
+     * Copy the given chunks of a file into a staging directory laid out like the chunk directory
+     */
+    public static void stage(File file, Collection<Chunk> chunks, File stagingDir) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[64 * 1024];
+
+            for (Chunk chunk : chunks) {
+                File staged = new File(stagingDir, chunkPath(chunk.getHash()));
+                FileUtils.forceMkdir(staged.getParentFile());
+
+                in.seek(chunk.getOffset());
+                try (OutputStream out = new FileOutputStream(staged)) {
+                    copy(in, out, chunk.getLength(), buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Chunk an existing copy of a file to find which of the chunks wanted by the index it already holds
+     *
+     * @return Offsets into the existing file keyed by chunk hash
+     */
+    public static Map<String, Long> localChunks(File existing, ChunkIndex wanted) throws IOException {
+        Map<String, Long> local = new HashMap<>();
+
+        if (!existing.isFile()) return local;
+
+        Set<String> hashes = new HashSet<>();
+        for (Chunk chunk : wanted.getChunks()) {
+            hashes.add(chunk.getHash());
+        }
+
+        for (Chunk chunk : new FastCdc().chunk(existing)) {
+            if (hashes.contains(chunk.getHash()) && !local.containsKey(chunk.getHash())) {
+                local.put(chunk.getHash(), chunk.getOffset());
+            }
+        }
+
+        return local;
+    }
+
+    /**
+     * @return The hashes the index needs which are neither in the existing file nor already wanted
+     */
+    public static Set<String> missingChunks(ChunkIndex index, Map<String, Long> local) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (Chunk chunk : index.getChunks()) {
+            if (!local.containsKey(chunk.getHash())) {
+                missing.add(chunk.getHash());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Rebuild a file from chunks of its existing copy and chunks in the staging directory.  Each chunk is verified
+     * against its hash and the target is only replaced once the whole file has been written.
+     */
+    public static void assemble(File target, ChunkIndex index, Map<String, Long> local, File stagingDir, long lastModified) throws IOException {
+        FileUtils.forceMkdir(target.getParentFile());
+        File temp = new File(target.getParentFile(), "." + target.getName() + ".jobcacher-tmp");
+
+        byte[] buffer = new byte[64 * 1024];
+        MessageDigest digest = FastCdc.sha256();
+
+        try (RandomAccessFile existing = local.isEmpty() ? null : new RandomAccessFile(target, "r");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            for (Chunk chunk : index.getChunks()) {
+                // Not closed, the underlying stream is shared by all chunks
+                DigestOutputStream verified = new DigestOutputStream(out, digest);
+
+                Long offset = local.get(chunk.getHash());
+                if (offset != null) {
+                    existing.seek(offset);
+                    copy(existing, verified, chunk.getLength(), buffer);
+                } else {
+                    try (InputStream in = new FileInputStream(new File(stagingDir, chunkPath(chunk.getHash())))) {
+                        if (IOUtils.copyLarge(in, verified, 0, chunk.getLength(), buffer) != chunk.getLength()) {
+                            throw new IOException("Chunk " + chunk.getHash() + " of " + target + " is truncated");
+                        }
+                    }
+                }
+
+                if (!chunk.getHash().equals(Util.toHexString(digest.digest()))) {
+                    throw new IOException("Chunk " + chunk.getHash() + " of " + target + " is corrupt");
+                }
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(temp);
+            throw e;
+        }
+
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (!target.setLastModified(lastModified)) {
+            throw new IOException("Could not set last modified time on " + target);
+        }
+    }
+
+    private static void copy(RandomAccessFile in, OutputStream out, int length, byte[] buffer) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (read < 0) throw new EOFException();
+
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
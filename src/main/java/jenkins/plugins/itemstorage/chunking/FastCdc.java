@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.chunking;
+
+import hudson.Util;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content defined chunking following FastCDC: a gear rolling hash with normalized chunking, i.e. a stricter cut mask
+ * before the average chunk size and a looser one after it, so that an edit only changes the chunks around it.
+ *
+ * @author Peter Hayes
+ */
+public class FastCdc implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed so every JVM cuts at the same points
+        long seed = 0x6A09E667F3BCC908L;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            GEAR[i] = seed;
+        }
+    }
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+
+    public FastCdc() {
+        this(1024 * 1024);
+    }
+
+    /**
+     * @param averageSize The desired average chunk size, rounded down to a power of two
+     */
+    public FastCdc(int averageSize) {
+        this.averageSize = Integer.highestOneBit(Math.max(averageSize, 64));
+        this.minSize = this.averageSize / 4;
+        this.maxSize = this.averageSize * 8;
+    }
+
+    public List<Chunk> chunk(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return chunk(in);
+        }
+    }
+
+    public List<Chunk> chunk(InputStream in) throws IOException {
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        long strictMask = topBits(bits + 1);
+        long looseMask = topBits(bits - 1);
+
+        List<Chunk> chunks = new ArrayList<>();
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+
+        long offset = 0L;
+        int length = 0;
+        long hash = 0L;
+        int read;
+
+        while ((read = in.read(buffer)) >= 0) {
+            int segmentStart = 0;
+
+            for (int i = 0; i < read; i++) {
+                length++;
+
+                if (length <= minSize) continue;
+
+                hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+
+                long mask = length < averageSize ? strictMask : looseMask;
+                if ((hash & mask) == 0 || length >= maxSize) {
+                    digest.update(buffer, segmentStart, i + 1 - segmentStart);
+                    chunks.add(new Chunk(Util.toHexString(digest.digest()), offset, length));
+
+                    offset += length;
+                    length = 0;
+                    hash = 0L;
+                    segmentStart = i + 1;
+                }
+            }
+
+            digest.update(buffer, segmentStart, read - segmentStart);
+        }
+
+        if (length > 0) {
+            chunks.add(new Chunk(Util.toHexString(digest.digest()), offset, length));
+        }
+
+        return chunks;
+    }
+
+    private static long topBits(int count) {
+        return count <= 0 ? 0L : -1L << (64 - count);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
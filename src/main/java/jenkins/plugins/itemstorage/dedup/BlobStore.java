@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.dedup;
+
+import hudson.Util;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Content addressed blob store on the master shared by the caches of every item.  Each blob counts the manifests
+ * referring to it and is deleted as soon as the last one lets go.  Counts are rebuilt from the manifests the first
+ * time the store is used, sweeping blobs left behind by an interrupted save.
+ *
+ * <pre>
+ * blobs/&lt;first two hex digits&gt;/&lt;sha-256&gt;
+ * manifests/&lt;item full name&gt;/&lt;path&gt;/.manifest
+ * staging/
+ * </pre>
+ *
+ * @author Peter Hayes
+ */
+public final class BlobStore {
+    private static final Logger LOGGER = Logger.getLogger(BlobStore.class.getName());
+
+    private static final ConcurrentMap<File, BlobStore> STORES = new ConcurrentHashMap<>();
+
+    private final File root;
+    private Map<String, Integer> references;
+
+    private BlobStore(File root) {
+        this.root = root;
+    }
+
+    public static BlobStore get(File root) {
+        BlobStore store = STORES.get(root);
+        if (store == null) {
+            BlobStore created = new BlobStore(root);
+            store = STORES.putIfAbsent(root, created);
+            if (store == null) store = created;
+        }
+        return store;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The blob path relative to the store root
+     */
+    public static String blobPath(String hash) {
+        return "blobs/" + hash.substring(0, 2) + "/" + hash;
+    }
+
+    public File getManifestDir(String fullName) {
+        return new File(new File(root, "manifests"), fullName);
+    }
+
+    public File createStagingDir() throws IOException {
+        File staging = new File(root, "staging");
+        FileUtils.forceMkdir(staging);
+        return Files.createTempDirectory(staging.toPath(), "save").toFile();
+    }
+
+    /**
+     * Take a reference on each blob before it is written to a manifest so a concurrent release can not delete it
+     *
+     * @return The blobs that are not in the store yet and have to be uploaded
+     */
+    public synchronized Set<String> retain(Collection<String> hashes) throws IOException {
+        load();
+
+        Set<String> missing = new HashSet<>();
+        for (String hash : hashes) {
+            Integer count = references.get(hash);
+            references.put(hash, count == null ? 1 : count + 1);
+
+            if (!new File(root, blobPath(hash)).isFile()) {
+                missing.add(hash);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Drop a reference on each blob deleting the ones no manifest refers to any more
+     */
+    public synchronized void release(Collection<String> hashes) throws IOException {
+        load();
+
+        for (String hash : hashes) {
+            Integer count = references.get(hash);
+            if (count == null || count <= 1) {
+                references.remove(hash);
+                FileUtils.deleteQuietly(new File(root, blobPath(hash)));
+            } else {
+                references.put(hash, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Move an uploaded file into the store after checking it really has the content it claims
+     */
+    public void add(String hash, File staged) throws IOException {
+        String actual = hash(staged);
+        if (!hash.equals(actual)) {
+            throw new IOException("Uploaded content for " + hash + " hashes to " + actual + ", was the file modified during the save?");
+        }
+
+        File blob = new File(root, blobPath(hash));
+        if (blob.isFile()) {
+            // Someone else uploaded the same content meanwhile
+            FileUtils.deleteQuietly(staged);
+            return;
+        }
+
+        FileUtils.forceMkdir(blob.getParentFile());
+        Files.move(staged.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Release every manifest beneath the given directory and remove it
+     */
+    public void deleteManifests(File dir) throws IOException {
+        for (File manifest : findManifests(dir)) {
+            release(Manifest.read(manifest).getHashes());
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    public void moveManifests(File from, File to) throws IOException {
+        if (!from.exists()) return;
+
+        FileUtils.forceMkdir(to.getParentFile());
+        Files.move(from.toPath(), to.toPath());
+    }
+
+    private List<File> findManifests(File dir) throws IOException {
+        final List<File> manifests = new ArrayList<>();
+
+        if (dir.isDirectory()) {
+            new DirScanner.Full().scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.getName().equals(Manifest.FILE_NAME)) {
+                        manifests.add(f);
+                    }
+                }
+            });
+        }
+
+        return manifests;
+    }
+
+    private void load() throws IOException {
+        if (references != null) return;
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (File manifest : findManifests(new File(root, "manifests"))) {
+            for (String hash : Manifest.read(manifest).getHashes()) {
+                Integer count = counts.get(hash);
+                counts.put(hash, count == null ? 1 : count + 1);
+            }
+        }
+
+        // Nothing can be mid save before the counts exist so anything unreferenced is garbage
+        final Set<String> referenced = counts.keySet();
+        final int[] swept = new int[1];
+        File blobs = new File(root, "blobs");
+        if (blobs.isDirectory()) {
+            new DirScanner.Full().scan(blobs, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (!referenced.contains(f.getName())) {
+                        FileUtils.deleteQuietly(f);
+                        swept[0]++;
+                    }
+                }
+            });
+        }
+        FileUtils.deleteQuietly(new File(root, "staging"));
+
+        if (swept[0] > 0) {
+            LOGGER.info("Removed " + swept[0] + " unreferenced blobs from " + root);
+        }
+
+        references = counts;
+    }
+
+    static String hash(File file) throws IOException {
+        MessageDigest digest = sha256();
+
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // digest is updated as the stream is read
+            }
+        }
+
+        return Util.toHexString(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.dedup;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.GlobalItemStorage;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of Item Storage that stores data on the Jenkins master in a content addressed store shared by all
+ * items so identical files cached by many jobs are only stored and uploaded once.
+ *
+ * @author Peter Hayes
+ */
+public class DedupItemStorage extends ItemStorage<DedupObjectPath> {
+    private static final Logger LOGGER = Logger.getLogger(DedupItemStorage.class.getName());
+
+    @DataBoundConstructor
+    public DedupItemStorage() {}
+
+    @Override
+    public DedupObjectPath getObjectPath(Item item, String path) {
+        BlobStore store = getStore();
+
+        return new DedupObjectPath(store, new File(store.getManifestDir(item.getFullName()), path), item.getFullName());
+    }
+
+    @Override
+    public boolean supportsSharedCaches() {
+        return true;
+    }
+
+    @Override
+    public DedupObjectPath getSharedObjectPath(String name, String path) {
+        BlobStore store = getStore();
+
+        return new DedupObjectPath(store, new File(store.getManifestDir(CacheLocks.SHARED_PREFIX + name), path), CacheLocks.SHARED_PREFIX + name);
+    }
+
+    private static BlobStore getStore() {
+        return BlobStore.get(new File(Jenkins.getActiveInstance().getRootDir(), "jobcacher-dedup"));
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ItemStorageDescriptor {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.DedupItemStorage_DisplayName();
+        }
+    }
+
+    @Extension
+    public static final class DedupItemListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            if (GlobalItemStorage.get().getStorages(DedupItemStorage.class).isEmpty()) return;
+
+            BlobStore store = getStore();
+            try {
+                store.deleteManifests(store.getManifestDir(item.getFullName()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete the caches of " + item.getFullName(), e);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (GlobalItemStorage.get().getStorages(DedupItemStorage.class).isEmpty()) return;
+
+            BlobStore store = getStore();
+            try {
+                store.moveManifests(store.getManifestDir(oldFullName), store.getManifestDir(newFullName));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to move the caches of " + oldFullName + " to " + newFullName, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.dedup;
+
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferScheduler;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletException;
+import java.io.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * An object path whose content is a manifest of blobs in the shared {@link BlobStore}.  Saving only hashes files
+ * that changed since the last save and only uploads content the store has never seen from any item.
+ *
+ * @author Peter Hayes
+ */
+public class DedupObjectPath extends ObjectPath {
+    private static final Logger LOGGER = Logger.getLogger(DedupObjectPath.class.getName());
+
+    private final BlobStore store;
+    private final File dir;
+    private final String owner;
+
+    public DedupObjectPath(BlobStore store, File dir) {
+        this(store, dir, dir.getPath());
+    }
+
+    /**
+     * @param owner The item or shared cache the path belongs to, transfers are scheduled fairly between owners
+     */
+    public DedupObjectPath(BlobStore store, File dir, String owner) {
+        this.store = store;
+        this.dir = dir;
+        this.owner = owner;
+    }
+
+    @Override
+    public ObjectPath child(String path) throws IOException, InterruptedException {
+        return new DedupObjectPath(store, new File(dir, path), owner);
+    }
+
+    private File getManifestFile() {
+        return new File(dir, Manifest.FILE_NAME);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        TransferScheduler.Permit permit = TransferScheduler.acquire(owner, false);
+        try {
+            TransferResult result = restore(fileMask, excludes, target);
+            result.addQueueWaitNanos(permit.getWaitNanos());
+            return result;
+        } finally {
+            permit.release();
+        }
+    }
+
+    private TransferResult restore(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        LOGGER.info("Copying from " + dir + " to " + target);
+        TransferResult result = new TransferResult();
+
+        List<Manifest.Entry> entries = Manifest.read(getManifestFile()).select(fileMask, excludes);
+        if (entries.isEmpty()) return result;
+
+        long start = System.nanoTime();
+        HashMap<String, Long> times = new HashMap<>();
+        for (Manifest.Entry entry : entries) {
+            times.put(entry.getPath(), entry.getLastModified());
+        }
+        HashSet<String> stale = target.act(new FindStale(times));
+        result.addScanNanos(System.nanoTime() - start);
+
+        HashMap<String, String> blobs = new HashMap<>();
+        for (Manifest.Entry entry : entries) {
+            if (stale.contains(entry.getPath())) {
+                blobs.put(entry.getPath(), BlobStore.blobPath(entry.getHash()));
+                result.fileTransferred(entry.getLength());
+            } else {
+                result.fileSkipped();
+            }
+        }
+
+        if (!blobs.isEmpty()) {
+            start = System.nanoTime();
+            // Blobs are named after their workspace path as they are written to the archive, several paths may
+            // share a blob
+            FilePath root = new FilePath(store.getRoot());
+            Throttle throttle = TransferThrottles.get(target, false, root);
+            root.copyRecursiveTo(TransferThrottles.throttle(new RenamingScanner(blobs), throttle), target, "cache");
+
+            HashMap<String, Long> touch = new HashMap<>();
+            for (String path : blobs.keySet()) {
+                touch.put(path, times.get(path));
+            }
+            target.act(new Touch(touch));
+            result.addTransferNanos(System.nanoTime() - start);
+        }
+
+        return result;
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        TransferScheduler.Permit permit = TransferScheduler.acquire(owner, true);
+        try {
+            TransferResult result = save(fileMask, excludes, filter, source, deleteMissing);
+            result.addQueueWaitNanos(permit.getWaitNanos());
+            return result;
+        } finally {
+            permit.release();
+        }
+    }
+
+    private TransferResult save(String fileMask, String excludes, PathFilter filter, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        LOGGER.info("Copying from " + source + " to " + dir);
+        TransferResult result = new TransferResult();
+
+        Manifest previous = Manifest.read(getManifestFile());
+
+        long start = System.nanoTime();
+        ArrayList<Manifest.Entry> scanned = source.act(new HashFiles(fileMask, excludes, filter, previous.toMap()));
+        result.addScanNanos(System.nanoTime() - start);
+
+        // Dropped blobs are released once the new manifest is committed
+        Manifest next = previous.update(scanned, fileMask, deleteMissing);
+        if (deleteMissing) {
+            Map<String, Manifest.Entry> kept = next.toMap();
+            for (Manifest.Entry entry : previous.getEntries()) {
+                if (!kept.containsKey(entry.getPath())) {
+                    result.fileDeleted();
+                }
+            }
+        }
+
+        // One existence check for the whole save which also pins every blob the new manifest needs
+        start = System.nanoTime();
+        Set<String> missing = store.retain(next.getHashes());
+        result.addListNanos(System.nanoTime() - start);
+
+        boolean committed = false;
+        try {
+            // A carried over entry whose blob has gone missing can not be uploaded again as the file is not in the
+            // workspace, drop it rather than commit a manifest restores can not follow
+            Set<String> uploadable = new HashSet<>();
+            for (Manifest.Entry entry : scanned) {
+                uploadable.add(entry.getHash());
+            }
+            Manifest restorable = new Manifest();
+            for (Manifest.Entry entry : next.getEntries()) {
+                if (missing.contains(entry.getHash()) && !uploadable.contains(entry.getHash())) {
+                    LOGGER.warning("Dropping " + entry.getPath() + " from " + dir + " as its blob " + entry.getHash() + " is missing");
+                    result.fileDeleted();
+                } else {
+                    restorable.put(entry);
+                }
+            }
+            if (restorable.getEntries().size() < next.getEntries().size()) {
+                Set<String> dropped = next.getHashes();
+                dropped.removeAll(restorable.getHashes());
+                store.release(dropped);
+                next = restorable;
+            }
+
+            // Keyed by blob so content shared by several files is uploaded once
+            HashMap<String, String> uploads = new HashMap<>();
+            for (Manifest.Entry entry : scanned) {
+                if (missing.contains(entry.getHash()) && !uploads.containsKey(entry.getHash())) {
+                    uploads.put(entry.getHash(), entry.getPath());
+                    result.fileTransferred(entry.getLength());
+                } else {
+                    result.fileSkipped();
+                }
+            }
+
+            if (!uploads.isEmpty()) {
+                start = System.nanoTime();
+                File staging = store.createStagingDir();
+                try {
+                    Throttle throttle = TransferThrottles.get(source, true, source);
+                    source.copyRecursiveTo(TransferThrottles.throttle(new RenamingScanner(uploads), throttle), new FilePath(staging), "cache");
+
+                    for (String hash : uploads.keySet()) {
+                        store.add(hash, new File(staging, hash));
+                    }
+                } finally {
+                    FileUtils.deleteQuietly(staging);
+                }
+                result.addTransferNanos(System.nanoTime() - start);
+            }
+
+            next.write(getManifestFile());
+            committed = true;
+        } finally {
+            store.release(committed ? previous.getHashes() : next.getHashes());
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        return dir.exists();
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        store.deleteManifests(dir);
+    }
+
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+        final Manifest manifest = Manifest.read(getManifestFile());
+
+        return new HttpResponse() {
+            @Override
+            public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+                rsp.setContentType("text/plain;charset=UTF-8");
+
+                PrintWriter writer = rsp.getWriter();
+                for (Manifest.Entry entry : manifest.getEntries()) {
+                    writer.println(entry.getPath() + " (" + entry.getLength() + " bytes)");
+                }
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * Scanner visiting the given files under another name
+     */
+    private static class RenamingScanner extends DirScanner {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, String> sources;
+
+        /**
+         * @param sources The path of each file relative to the scanned directory keyed by the name to give it
+         */
+        RenamingScanner(HashMap<String, String> sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                visitor.visit(new File(dir, source.getValue()), source.getKey());
+            }
+        }
+    }
+
+    /**
+     * Hashes the files to save, reusing the previous hash of files whose size and modification time are unchanged
+     */
+    private static class HashFiles extends MasterToSlaveFileCallable<ArrayList<Manifest.Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final String excludes;
+        private final PathFilter filter;
+        private final HashMap<String, Manifest.Entry> previous;
+
+        HashFiles(String fileMask, String excludes, PathFilter filter, HashMap<String, Manifest.Entry> previous) {
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+            this.filter = filter;
+            this.previous = previous;
+        }
+
+        @Override
+        public ArrayList<Manifest.Entry> invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            final ArrayList<Manifest.Entry> entries = new ArrayList<>();
+
+            if (!base.exists()) return entries;
+
+            PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter).scan(base, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (!f.isFile()) return;
+
+                    String path = relativePath.replace('\\', '/');
+                    long length = f.length();
+                    long lastModified = f.lastModified();
+
+                    Manifest.Entry known = previous.get(path);
+                    if (known != null && known.getLength() == length && known.getLastModified() == lastModified) {
+                        entries.add(known);
+                        return;
+                    }
+
+                    entries.add(new Manifest.Entry(path, BlobStore.hash(f), length, lastModified));
+                }
+            });
+
+            return entries;
+        }
+    }
+
+    /**
+     * @return The paths that are missing or older in the workspace than in the manifest
+     */
+    private static class FindStale extends MasterToSlaveFileCallable<HashSet<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, Long> times;
+
+        FindStale(HashMap<String, Long> times) {
+            this.times = times;
+        }
+
+        @Override
+        public HashSet<String> invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            HashSet<String> stale = new HashSet<>();
+            for (Map.Entry<String, Long> time : times.entrySet()) {
+                File f = new File(base, time.getKey());
+                if (!f.exists() || f.lastModified() < time.getValue()) {
+                    stale.add(time.getKey());
+                }
+            }
+            return stale;
+        }
+    }
+
+    private static class Touch extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, Long> times;
+
+        Touch(HashMap<String, Long> times) {
+            this.times = times;
+        }
+
+        @Override
+        public Void invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            for (Map.Entry<String, Long> time : times.entrySet()) {
+                File f = new File(base, time.getKey());
+                if (!f.setLastModified(time.getValue())) {
+                    LOGGER.warning("Could not set last modified time on " + f);
+                }
+            }
+            return null;
+        }
+    }
+}
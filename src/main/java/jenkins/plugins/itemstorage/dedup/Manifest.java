@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.dedup;
+
+import jenkins.plugins.itemstorage.PathPatterns;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The list of files in a cache along with the hash of the blob holding each file's content.  Stored as text:
+ *
+ * <pre>
+ * jobcacher-manifest 1
+ * &lt;sha-256&gt; &lt;length&gt; &lt;last modified&gt; &lt;relative path&gt;
+ * ...
+ * </pre>
+ *
+ * @author Peter Hayes
+ */
+public class Manifest {
+    public static final String FILE_NAME = ".manifest";
+
+    private static final String HEADER = "jobcacher-manifest 1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    public void put(Entry entry) {
+        entries.put(entry.getPath(), entry);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * @return The entries keyed by path
+     */
+    public HashMap<String, Entry> toMap() {
+        return new HashMap<>(entries);
+    }
+
+    /**
+     * @return The distinct blobs this manifest refers to
+     */
+    public Set<String> getHashes() {
+        Set<String> hashes = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            hashes.add(entry.getHash());
+        }
+        return hashes;
+    }
+
+    /**
+     * @return The entries whose path matches the comma separated Ant style includes and not the excludes
+     */
+    public List<Entry> select(String includes, String excludes) {
+        PathPatterns patterns = new PathPatterns(includes, excludes);
+
+        List<Entry> selected = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (patterns.matches(entry.getPath())) {
+                selected.add(entry);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Apply a save to this manifest.  Files that have gone from the workspace stay cached unless asked to delete them,
+     * then only the entries the mask does not select are carried over.
+     *
+     * @param scanned The entries of the files the save found in the workspace
+     * @param fileMask The comma separated Ant style includes the save scanned
+     * @param deleteMissing Whether the files the save did not find are dropped
+     * @return The manifest of the cache after the save
+     */
+    public Manifest update(Collection<Entry> scanned, String fileMask, boolean deleteMissing) {
+        Manifest next = new Manifest();
+        PathPatterns covered = new PathPatterns(fileMask, null);
+        for (Entry entry : entries.values()) {
+            if (!deleteMissing || !covered.matches(entry.getPath())) {
+                next.put(entry);
+            }
+        }
+        for (Entry entry : scanned) {
+            next.put(entry);
+        }
+        return next;
+    }
+
+    public static Manifest read(File file) throws IOException {
+        Manifest manifest = new Manifest();
+
+        if (!file.isFile()) return manifest;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Not a cache manifest: " + file);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+
+                String[] fields = line.split(" ", 4);
+                manifest.put(new Entry(fields[3], fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Replace the manifest file in one step so readers never see a partial manifest
+     */
+    public void write(File file) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Entry entry : entries.values()) {
+                writer.write(entry.getHash() + " " + entry.getLength() + " " + entry.getLastModified() + " " + entry.getPath() + "\n");
+            }
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final String hash;
+        private final long length;
+        private final long lastModified;
+
+        public Entry(String path, String hash, long length, long lastModified) {
+            this.path = path;
+            this.hash = hash;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return The path relative to the cache root using forward slashes
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.local;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves files between a workspace on an agent and on master storage through the {@link HttpTransferEndpoint}, using
+ * several connections at once and splitting large downloads into byte ranges.  The master only lists what it stores,
+ * the agent works out what is out of date and transfers it.  When the master cannot be reached over HTTP, or the
+ * transfer fails part way, the caller falls back to the remoting channel, which picks up whatever is still out of
+ * date.  Symbolic links are only preserved by the remoting channel so caches containing any are left to it.
+ *
+ * @author Peter Hayes
+ */
+final class HttpTransfer {
+    private static final Logger LOGGER = Logger.getLogger(HttpTransfer.class.getName());
+
+    /**
+     * The number of connections an agent transfers over at the same time, 0 to always use the remoting channel
+     */
+    static final int CONNECTIONS = Integer.getInteger(HttpTransfer.class.getName() + ".connections", 4);
+
+    /**
+     * The size of the byte ranges large files are downloaded in
+     */
+    static final long PART_SIZE = Long.getLong(HttpTransfer.class.getName() + ".partSize", 8L * 1024 * 1024);
+
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 60 * 1000;
+    private static final int ATTEMPTS = 3;
+
+    private HttpTransfer() {}
+
+    /**
+     * @return The result or null if the restore has to go through the remoting channel
+     */
+    static TransferResult restore(FilePath store, FilePath target, String fileMask, String excludes) throws IOException, InterruptedException {
+        String url = getUrl(target);
+        if (url == null) return null;
+
+        long start = System.nanoTime();
+        HashMap<String, long[]> stored = store.act(new ListStore(fileMask, ChunkedFiles.excludeReserved(excludes)));
+        if (stored == null) return null;
+        long scanned = System.nanoTime() - start;
+
+        String token = HttpTransferEndpoint.grant(new File(store.getRemote()), false);
+        try {
+            // Downloads are paced on the agent, unlike a restore through the remoting channel
+            Throttle throttle = TransferThrottles.get(target, false, target);
+            TransferResult result = target.act(new Download(url, token, stored, throttle));
+            if (result != null) {
+                result.addScanNanos(scanned);
+            }
+            return result;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to restore " + store + " over HTTP, falling back to the remoting channel", e);
+            return null;
+        } finally {
+            HttpTransferEndpoint.revoke(token);
+        }
+    }
+
+    /**
+     * @param filter Which of the matching files to copy, null for all of them
+     * @param threshold Files larger than this are left to the chunked transfer, negative to copy everything
+     * @return The result or null if the save has to go through the remoting channel
+     */
+    static TransferResult save(FilePath source, FilePath store, String fileMask, String excludes, PathFilter filter, long threshold, Throttle throttle) throws IOException, InterruptedException {
+        String url = getUrl(source);
+        if (url == null) return null;
+
+        long start = System.nanoTime();
+        HashMap<String, long[]> stored = store.act(new ListStore(fileMask, ChunkedFiles.excludeReserved(excludes)));
+        if (stored == null) return null;
+        long scanned = System.nanoTime() - start;
+
+        String token = HttpTransferEndpoint.grant(new File(store.getRemote()), true);
+        try {
+            TransferResult result = source.act(new Upload(url, token, fileMask, excludes, filter, threshold, stored, throttle));
+            if (result != null) {
+                result.addScanNanos(scanned);
+            }
+            return result;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + store + " over HTTP, falling back to the remoting channel", e);
+            return null;
+        } finally {
+            HttpTransferEndpoint.revoke(token);
+        }
+    }
+
+    /**
+     * @return The URL of the endpoint or null if the node should use the remoting channel
+     */
+    private static String getUrl(FilePath node) {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (CONNECTIONS <= 0 || !node.isRemote() || jenkins == null) {
+            return null;
+        }
+
+        String rootUrl = jenkins.getRootUrl();
+        return rootUrl == null ? null : rootUrl + HttpTransferEndpoint.URL_NAME + "/";
+    }
+
+    private static HttpURLConnection open(String url, String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestProperty(HttpTransferEndpoint.TOKEN_HEADER, token);
+        return connection;
+    }
+
+    private static String fileUrl(String url, String path) throws IOException {
+        return url + "file?path=" + URLEncoder.encode(path, "UTF-8");
+    }
+
+    private static void expect(HttpURLConnection connection, int status) throws IOException {
+        int code = connection.getResponseCode();
+        if (code != status) {
+            throw new IOException(connection.getRequestMethod() + " " + connection.getURL() + " returned " + code);
+        }
+    }
+
+    /**
+     * @return True if the agent can reach the endpoint
+     */
+    private static boolean ping(String url, String token) {
+        try {
+            HttpURLConnection connection = open(url + "ping", token);
+            try {
+                return connection.getResponseCode() == HttpURLConnection.HTTP_NO_CONTENT;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cache endpoint " + url + " is not reachable", e);
+            return false;
+        }
+    }
+
+    private static void throttle(Throttle throttle, long bytes) throws IOException {
+        if (throttle == null) return;
+
+        try {
+            throttle.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling transfer");
+        }
+    }
+
+    /**
+     * Run an idempotent request a few times before giving up, as streamed requests are not retried by the JDK when
+     * they happen to go out on a kept alive connection that the server has closed meanwhile
+     */
+    private static void retry(Callable<Void> request) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                request.call();
+                return;
+            } catch (IOException e) {
+                if (attempt >= ATTEMPTS) throw e;
+                LOGGER.log(Level.FINE, "Retrying cache transfer request", e);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Wait for all transfers, rethrowing the first failure
+     */
+    private static void await(List<Future<Void>> transfers) throws IOException, InterruptedException {
+        for (Future<Void> transfer : transfers) {
+            try {
+                transfer.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Lists the length and modification time of the stored files matching the mask, or null if any of them is a
+     * symbolic link
+     */
+    private static class ListStore extends MasterToSlaveFileCallable<HashMap<String, long[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final String excludes;
+
+        ListStore(String fileMask, String excludes) {
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public HashMap<String, long[]> invoke(File store, VirtualChannel channel) throws IOException {
+            final HashMap<String, long[]> files = new HashMap<>();
+            if (!store.isDirectory()) return files;
+
+            final boolean[] links = new boolean[1];
+            new DirScanner.Glob(fileMask, excludes + "," + HttpTransferEndpoint.TEMP_EXCLUDES).scan(store, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (Files.isSymbolicLink(f.toPath())) {
+                        links[0] = true;
+                    } else if (f.isFile()) {
+                        files.put(LocalChunkedTransfer.normalize(relativePath), new long[] {f.length(), f.lastModified()});
+                    }
+                }
+            });
+            return links[0] ? null : files;
+        }
+    }
+
+    /**
+     * Downloads the stored files that are missing or older in the workspace
+     */
+    private static class Download extends MasterToSlaveFileCallable<TransferResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final String url;
+        private final String token;
+        private final HashMap<String, long[]> stored;
+        private final Throttle throttle;
+        private final int connections = CONNECTIONS;
+        private final long partSize = PART_SIZE;
+
+        Download(String url, String token, HashMap<String, long[]> stored, Throttle throttle) {
+            this.url = url;
+            this.token = token;
+            this.stored = stored;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public TransferResult invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!ping(url, token)) return null;
+
+            TransferResult result = new TransferResult();
+            long start = System.nanoTime();
+            Map<String, File> targets = new LinkedHashMap<>();
+            for (Map.Entry<String, long[]> entry : stored.entrySet()) {
+                File target = new File(workspace, entry.getKey());
+                if (target.exists() && target.lastModified() >= entry.getValue()[1]) {
+                    result.fileSkipped();
+                } else {
+                    targets.put(entry.getKey(), target);
+                    result.fileTransferred(entry.getValue()[0]);
+                }
+            }
+            long scanned = System.nanoTime();
+            result.addScanNanos(scanned - start);
+
+            Map<String, File> temps = new HashMap<>();
+            ExecutorService executor = Executors.newFixedThreadPool(connections);
+            try {
+                List<Future<Void>> parts = new ArrayList<>();
+                for (Map.Entry<String, File> entry : targets.entrySet()) {
+                    File dir = entry.getValue().getParentFile();
+                    Files.createDirectories(dir.toPath());
+                    File temp = Files.createTempFile(dir.toPath(), ".jobcacher-", ".tmp").toFile();
+                    temps.put(entry.getKey(), temp);
+
+                    long length = stored.get(entry.getKey())[0];
+                    for (long offset = 0; offset < length; offset += partSize) {
+                        long end = Math.min(offset + partSize, length) - 1;
+                        throttle(throttle, end - offset + 1);
+                        parts.add(executor.submit(new Part(fileUrl(url, entry.getKey()), temp, offset, end)));
+                    }
+                }
+                await(parts);
+
+                // Only move files into place once every part arrived
+                for (Map.Entry<String, File> entry : targets.entrySet()) {
+                    File target = entry.getValue();
+                    Files.move(temps.remove(entry.getKey()).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    target.setLastModified(stored.get(entry.getKey())[1]);
+                }
+            } finally {
+                executor.shutdownNow();
+                for (File temp : temps.values()) {
+                    Files.deleteIfExists(temp.toPath());
+                }
+            }
+            result.addTransferNanos(System.nanoTime() - scanned);
+
+            return result;
+        }
+
+        /**
+         * Downloads one byte range of a file into its place in the temporary file
+         */
+        private class Part implements Callable<Void> {
+            private final String fileUrl;
+            private final File temp;
+            private final long offset;
+            private final long end;
+
+            Part(String fileUrl, File temp, long offset, long end) {
+                this.fileUrl = fileUrl;
+                this.temp = temp;
+                this.offset = offset;
+                this.end = end;
+            }
+
+            @Override
+            public Void call() throws IOException {
+                retry(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        download();
+                        return null;
+                    }
+                });
+                return null;
+            }
+
+            private void download() throws IOException {
+                HttpURLConnection connection = open(fileUrl, token);
+                connection.setRequestProperty("Range", "bytes=" + offset + "-" + end);
+                try {
+                    expect(connection, HttpURLConnection.HTTP_PARTIAL);
+
+                    long remaining = end - offset + 1;
+                    try (InputStream in = connection.getInputStream(); RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+                        out.seek(offset);
+                        byte[] buffer = new byte[64 * 1024];
+                        while (remaining > 0) {
+                            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (read < 0) break;
+                            out.write(buffer, 0, read);
+                            remaining -= read;
+                        }
+                    }
+                    if (remaining > 0) {
+                        throw new IOException("Download of " + fileUrl + " ended " + remaining + " bytes early");
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Uploads the workspace files that are missing or older in the store
+     */
+    private static class Upload extends MasterToSlaveFileCallable<TransferResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final String url;
+        private final String token;
+        private final String fileMask;
+        private final String excludes;
+        private final PathFilter filter;
+        private final long threshold;
+        private final HashMap<String, long[]> stored;
+        private final Throttle throttle;
+        private final int connections = CONNECTIONS;
+
+        Upload(String url, String token, String fileMask, String excludes, PathFilter filter, long threshold, HashMap<String, long[]> stored, Throttle throttle) {
+            this.url = url;
+            this.token = token;
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+            this.filter = filter;
+            this.threshold = threshold;
+            this.stored = stored;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public TransferResult invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            if (!ping(url, token)) return null;
+
+            final TransferResult result = new TransferResult();
+            if (!workspace.isDirectory()) return result;
+
+            long start = System.nanoTime();
+            final Map<String, File> sources = new LinkedHashMap<>();
+            final boolean[] links = new boolean[1];
+            PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter).scan(workspace, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (Files.isSymbolicLink(f.toPath())) {
+                        links[0] = true;
+                    } else if (f.isFile() && !ChunkedFiles.isChunked(f, threshold)) {
+                        String path = LocalChunkedTransfer.normalize(relativePath);
+                        long[] previous = stored.get(path);
+                        if (previous != null && previous[1] >= f.lastModified()) {
+                            result.fileSkipped();
+                        } else {
+                            sources.put(path, f);
+                            result.fileTransferred(f.length());
+                        }
+                    }
+                }
+            });
+            if (links[0]) return null;
+
+            long scanned = System.nanoTime();
+            result.addScanNanos(scanned - start);
+
+            ExecutorService executor = Executors.newFixedThreadPool(connections);
+            try {
+                List<Future<Void>> uploads = new ArrayList<>();
+                for (final Map.Entry<String, File> entry : sources.entrySet()) {
+                    throttle(throttle, entry.getValue().length());
+                    final String fileUrl = fileUrl(url, entry.getKey());
+                    uploads.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            retry(new Callable<Void>() {
+                                @Override
+                                public Void call() throws IOException {
+                                    put(fileUrl, entry.getValue());
+                                    return null;
+                                }
+                            });
+                            return null;
+                        }
+                    }));
+                }
+                await(uploads);
+            } finally {
+                executor.shutdownNow();
+            }
+            result.addTransferNanos(System.nanoTime() - scanned);
+
+            return result;
+        }
+
+        private void put(String fileUrl, File file) throws IOException {
+            HttpURLConnection connection = open(fileUrl, token);
+            try {
+                connection.setRequestMethod("PUT");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(file.length());
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                connection.setRequestProperty(HttpTransferEndpoint.LAST_MODIFIED_HEADER, Long.toString(file.lastModified()));
+
+                try (OutputStream out = connection.getOutputStream()) {
+                    Files.copy(file.toPath(), out);
+                }
+                expect(connection, HttpURLConnection.HTTP_NO_CONTENT);
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.local;
+
+import hudson.Extension;
+import hudson.model.UnprotectedRootAction;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the content of on master caches over HTTP so agents can transfer them over several connections of their own
+ * instead of the remoting channel.  Requests are not authenticated as a user, instead every transfer is granted a
+ * random token that gives access to the one cache directory it is for, in one direction, until the transfer is over.
+ *
+ * @author Peter Hayes
+ */
+@Extension
+public class HttpTransferEndpoint implements UnprotectedRootAction {
+    static final String URL_NAME = "jobcacher-transfer";
+    static final String TOKEN_HEADER = "X-Jobcacher-Token";
+    static final String LAST_MODIFIED_HEADER = "X-Jobcacher-Last-Modified";
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final String TEMP_PREFIX = ".jobcacher-";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Matches the files of uploads in progress
+     */
+    static final String TEMP_EXCLUDES = "**/" + TEMP_PREFIX + "*" + TEMP_SUFFIX;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ConcurrentMap<String, Grant> GRANTS = new ConcurrentHashMap<>();
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * Allow a transfer to access a cache directory until revoked
+     *
+     * @param dir The cache directory
+     * @param write True to allow uploading into the directory, false to allow downloading from it
+     * @return The token the transfer authenticates with
+     */
+    static String grant(File dir, boolean write) {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b & 0xff));
+        }
+        GRANTS.put(token.toString(), new Grant(dir, write));
+        return token.toString();
+    }
+
+    static void revoke(String token) {
+        GRANTS.remove(token);
+    }
+
+    /**
+     * Lets agents check that the endpoint is reachable with their token before transferring anything
+     */
+    @SuppressWarnings("unused")
+    public void doPing(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (lookup(req, rsp) != null) {
+            rsp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+
+    /**
+     * Download a file with GET, optionally a single byte range of it, or upload one with PUT
+     */
+    @SuppressWarnings("unused")
+    public void doFile(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Grant grant = lookup(req, rsp);
+        if (grant == null) return;
+
+        File file = grant.resolve(req.getParameter("path"));
+        if (file == null) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid path");
+        } else if ("GET".equals(req.getMethod()) && !grant.write) {
+            download(file, req, rsp);
+        } else if ("PUT".equals(req.getMethod()) && grant.write) {
+            upload(file, req, rsp);
+        } else {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        }
+    }
+
+    private static Grant lookup(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String token = req.getHeader(TOKEN_HEADER);
+        Grant grant = token == null ? null : GRANTS.get(token);
+        if (grant == null) {
+            rsp.sendError(HttpServletResponse.SC_FORBIDDEN);
+        }
+        return grant;
+    }
+
+    private static void download(File file, StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (!file.isFile()) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long length = file.length();
+        long start = 0;
+        long end = length - 1;
+
+        String range = req.getHeader("Range");
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range);
+            start = matcher.matches() ? parseLong(matcher.group(1)) : -1;
+            end = matcher.matches() ? parseLong(matcher.group(2)) : -1;
+            if (start < 0 || end < start || end >= length) {
+                rsp.setHeader("Content-Range", "bytes */" + length);
+                rsp.sendError(416);
+                return;
+            }
+            rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            rsp.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        } else {
+            rsp.setStatus(HttpServletResponse.SC_OK);
+        }
+
+        rsp.setContentType("application/octet-stream");
+        rsp.setHeader("Accept-Ranges", "bytes");
+        rsp.setHeader("Content-Length", Long.toString(end - start + 1));
+        rsp.setHeader(LAST_MODIFIED_HEADER, Long.toString(file.lastModified()));
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(start);
+            OutputStream out = rsp.getOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = end - start + 1;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) break;
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void upload(File file, StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String lastModified = req.getHeader(LAST_MODIFIED_HEADER);
+        long modified = lastModified == null ? 0 : parseLong(lastModified);
+        if (modified < 0) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid " + LAST_MODIFIED_HEADER);
+            return;
+        }
+
+        Path dir = file.getParentFile().toPath();
+        Files.createDirectories(dir);
+
+        // Readers of the cache only ever see complete files
+        Path temp = Files.createTempFile(dir, TEMP_PREFIX, TEMP_SUFFIX);
+        try {
+            try (InputStream in = req.getInputStream()) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (lastModified != null) {
+                temp.toFile().setLastModified(modified);
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        rsp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * @return The non-negative number or -1 if the value is not one
+     */
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Grant {
+        private final File dir;
+        private final boolean write;
+
+        Grant(File dir, boolean write) {
+            this.dir = dir;
+            this.write = write;
+        }
+
+        /**
+         * @return The file at the relative path or null if the path leads outside the cache directory
+         */
+        File resolve(String path) throws IOException {
+            if (path == null || path.isEmpty()) return null;
+
+            File file = new File(dir, path);
+            String root = dir.getCanonicalPath() + File.separator;
+            return file.getCanonicalPath().startsWith(root) ? file : null;
+        }
+    }
+}
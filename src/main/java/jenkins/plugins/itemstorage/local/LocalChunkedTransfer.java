@@ -0,0 +1,526 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.itemstorage.local;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.PathPatterns;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import jenkins.plugins.itemstorage.chunking.Chunk;
+import jenkins.plugins.itemstorage.chunking.ChunkIndex;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
+import jenkins.plugins.itemstorage.chunking.FastCdc;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Moves files above the chunking threshold between a workspace and on master storage one changed chunk at a time.
+ * Chunks are cut and reassembled on the workspace side and travel in a single archive stream in either direction.
+ *
+ * @author Peter Hayes
+ */
+final class LocalChunkedTransfer {
+    private LocalChunkedTransfer() {}
+
+    static TransferResult save(FilePath source, FilePath store, String fileMask, String excludes, PathFilter filter, long threshold, Throttle throttle) throws IOException, InterruptedException {
+        TransferResult result = new TransferResult();
+
+        long start = System.nanoTime();
+        HashMap<String, Long> stored = store.child(ChunkedFiles.INDEX_DIR).act(new ReadIndexTimes());
+        ArrayList<ChunkedFile> files = source.act(new ChunkLargeFiles(fileMask, excludes, filter, threshold, stored));
+        result.addScanNanos(System.nanoTime() - start);
+
+        // Work out which chunks are not stored yet, each is only sent once however many files share it
+        Map<String, Chunk> wanted = new LinkedHashMap<>();
+        for (ChunkedFile file : files) {
+            if (file.index == null) continue;
+
+            for (Chunk chunk : file.index.getChunks()) {
+                wanted.put(chunk.getHash(), chunk);
+            }
+        }
+        HashSet<String> missing = store.child(ChunkedFiles.CHUNK_DIR).act(new FindMissingChunks(new HashSet<>(wanted.keySet())));
+
+        start = System.nanoTime();
+        HashMap<String, ArrayList<Chunk>> toStage = new HashMap<>();
+        Set<String> claimed = new HashSet<>();
+        for (ChunkedFile file : files) {
+            if (file.index == null) {
+                result.fileSkipped();
+                continue;
+            }
+
+            ArrayList<Chunk> chunks = new ArrayList<>();
+            long bytes = 0L;
+            for (Chunk chunk : file.index.getChunks()) {
+                if (missing.contains(chunk.getHash()) && claimed.add(chunk.getHash())) {
+                    chunks.add(chunk);
+                    bytes += chunk.getLength();
+                }
+            }
+            toStage.put(file.relativePath, chunks);
+            result.fileTransferred(bytes);
+        }
+
+        if (!missing.isEmpty()) {
+            FilePath staging = new FilePath(source.getChannel(), source.act(new StageChunks(toStage)));
+            try {
+                staging.copyRecursiveTo(TransferThrottles.throttle(new ListedFiles(missing), throttle), store.child(ChunkedFiles.CHUNK_DIR), "chunks");
+            } finally {
+                staging.deleteRecursive();
+            }
+        }
+
+        // Only publish the indexes once every chunk they refer to is stored
+        for (ChunkedFile file : files) {
+            if (file.index == null) continue;
+
+            FilePath index = store.child(ChunkedFiles.INDEX_DIR).child(file.relativePath);
+            index.getParent().mkdirs();
+            index.write(new String(file.index.encode(), "UTF-8"), "UTF-8");
+            index.touch(file.index.getLastModified());
+
+            // A copy of the whole file from before it crossed the threshold is superseded
+            FilePath whole = store.child(file.relativePath);
+            if (whole.exists()) {
+                whole.delete();
+            }
+        }
+
+        if (!toStage.isEmpty()) {
+            store.act(new PruneChunks());
+        }
+        result.addTransferNanos(System.nanoTime() - start);
+
+        return result;
+    }
+
+    /**
+     * Delete the stored indexes of files that were just saved whole, because they shrank below the threshold or
+     * chunking is disabled, so that a restore does not reassemble their old content over the newer copy
+     */
+    static void dropSuperseded(FilePath source, FilePath store, String fileMask, String excludes, PathFilter filter, long threshold) throws IOException, InterruptedException {
+        FilePath indexDir = store.child(ChunkedFiles.INDEX_DIR);
+        if (!indexDir.exists()) return;
+
+        HashMap<String, Long> stored = indexDir.act(new ReadIndexTimes());
+        if (stored.isEmpty()) return;
+
+        HashSet<String> whole = source.act(new FindSavedWhole(fileMask, excludes, filter, threshold, new HashSet<>(stored.keySet())));
+        if (whole.isEmpty()) return;
+
+        for (String path : whole) {
+            indexDir.child(path).delete();
+        }
+        store.act(new PruneChunks());
+    }
+
+    static TransferResult restore(FilePath store, FilePath target, String fileMask, String excludes, Throttle throttle) throws IOException, InterruptedException {
+        TransferResult result = new TransferResult();
+
+        long start = System.nanoTime();
+        HashMap<String, ChunkIndex> indexes = store.child(ChunkedFiles.INDEX_DIR).act(new ReadIndexes(fileMask, excludes));
+        if (indexes.isEmpty()) return result;
+
+        RestorePlan plan = target.act(new PlanRestore(indexes));
+        result.addScanNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (Map.Entry<String, ChunkIndex> entry : indexes.entrySet()) {
+            if (plan.upToDate.contains(entry.getKey())) {
+                result.fileSkipped();
+            } else {
+                long bytes = 0L;
+                for (Chunk chunk : entry.getValue().getChunks()) {
+                    if (!plan.local.get(entry.getKey()).containsKey(chunk.getHash())) {
+                        bytes += chunk.getLength();
+                    }
+                }
+                result.fileTransferred(bytes);
+            }
+        }
+
+        if (indexes.size() > plan.upToDate.size()) {
+            FilePath staging = new FilePath(target.getChannel(), target.act(new CreateStagingDir()));
+            try {
+                store.child(ChunkedFiles.CHUNK_DIR).copyRecursiveTo(TransferThrottles.throttle(new ListedFiles(plan.missing), throttle), staging, "chunks");
+                target.act(new Reassemble(indexes, plan, staging.getRemote()));
+            } finally {
+                staging.deleteRecursive();
+            }
+        }
+        result.addTransferNanos(System.nanoTime() - start);
+
+        return result;
+    }
+
+    /**
+     * Relative paths are compared across nodes so always use forward slashes
+     */
+    static String normalize(String relativePath) {
+        return relativePath.replace('\\', '/');
+    }
+
+    /**
+     * A large file in the workspace along with its chunks, or no index when the stored copy is up to date
+     */
+    private static class ChunkedFile implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String relativePath;
+        private final ChunkIndex index;
+
+        ChunkedFile(String relativePath, ChunkIndex index) {
+            this.relativePath = relativePath;
+            this.index = index;
+        }
+    }
+
+    private static class RestorePlan implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final HashSet<String> upToDate = new HashSet<>();
+        private final HashMap<String, Map<String, Long>> local = new HashMap<>();
+        private final HashSet<String> missing = new HashSet<>();
+    }
+
+    /**
+     * Scanner visiting exactly the chunks it was given
+     */
+    private static class ListedFiles extends DirScanner {
+        private static final long serialVersionUID = 1L;
+
+        private final HashSet<String> hashes;
+
+        ListedFiles(Set<String> hashes) {
+            this.hashes = new HashSet<>(hashes);
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            for (String hash : hashes) {
+                String path = ChunkedFiles.chunkPath(hash);
+                File f = new File(dir, path);
+                if (!f.isFile()) {
+                    throw new IOException("Chunk " + hash + " is missing from " + dir);
+                }
+                visitor.visit(f, path);
+            }
+        }
+    }
+
+    private static class ReadIndexTimes extends MasterToSlaveFileCallable<HashMap<String, Long>> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public HashMap<String, Long> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final HashMap<String, Long> times = new HashMap<>();
+
+            if (dir.isDirectory()) {
+                new DirScanner.Full().scan(dir, new FileVisitor() {
+                    @Override
+                    public void visit(File f, String relativePath) throws IOException {
+                        times.put(normalize(relativePath), f.lastModified());
+                    }
+                });
+            }
+
+            return times;
+        }
+    }
+
+    private static class ReadIndexes extends MasterToSlaveFileCallable<HashMap<String, ChunkIndex>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final String excludes;
+
+        ReadIndexes(String fileMask, String excludes) {
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public HashMap<String, ChunkIndex> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            final HashMap<String, ChunkIndex> indexes = new HashMap<>();
+
+            if (dir.isDirectory()) {
+                new DirScanner.Glob(fileMask, excludes).scan(dir, new FileVisitor() {
+                    @Override
+                    public void visit(File f, String relativePath) throws IOException {
+                        ChunkIndex index = ChunkIndex.decode(f);
+                        // The index carries the stored time of the file, the workspace comparison is made against it
+                        indexes.put(normalize(relativePath), new ChunkIndex(index.getLength(), f.lastModified(), index.getChunks()));
+                    }
+                });
+            }
+
+            return indexes;
+        }
+    }
+
+    private static class ChunkLargeFiles extends MasterToSlaveFileCallable<ArrayList<ChunkedFile>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final String excludes;
+        private final PathFilter filter;
+        private final long threshold;
+        private final HashMap<String, Long> stored;
+
+        ChunkLargeFiles(String fileMask, String excludes, PathFilter filter, long threshold, HashMap<String, Long> stored) {
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+            this.filter = filter;
+            this.threshold = threshold;
+            this.stored = stored;
+        }
+
+        @Override
+        public ArrayList<ChunkedFile> invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            final ArrayList<ChunkedFile> files = new ArrayList<>();
+
+            if (!base.exists()) return files;
+
+            final FastCdc cdc = new FastCdc();
+            PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter).scan(base, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (!ChunkedFiles.isChunked(f, threshold)) return;
+
+                    String path = normalize(relativePath);
+                    Long storedTime = stored.get(path);
+                    if (storedTime != null && f.lastModified() <= storedTime) {
+                        files.add(new ChunkedFile(path, null));
+                    } else {
+                        files.add(new ChunkedFile(path, new ChunkIndex(f.length(), f.lastModified(), cdc.chunk(f))));
+                    }
+                }
+            });
+
+            return files;
+        }
+    }
+
+    /**
+     * Finds which of the indexed paths are files in the workspace that the save copies whole
+     */
+    private static class FindSavedWhole extends MasterToSlaveFileCallable<HashSet<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final String excludes;
+        private final PathFilter filter;
+        private final long threshold;
+        private final HashSet<String> indexed;
+
+        FindSavedWhole(String fileMask, String excludes, PathFilter filter, long threshold, HashSet<String> indexed) {
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+            this.filter = filter;
+            this.threshold = threshold;
+            this.indexed = indexed;
+        }
+
+        @Override
+        public HashSet<String> invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            HashSet<String> whole = new HashSet<>();
+            PathPatterns saved = new PathPatterns(fileMask, excludes);
+
+            for (String path : indexed) {
+                File f = new File(base, path);
+                if (f.isFile() && !ChunkedFiles.isChunked(f, threshold) && saved.matches(path) &&
+                        PathFilter.accepts(filter, path)) {
+                    whole.add(path);
+                }
+            }
+
+            return whole;
+        }
+    }
+
+    private static class FindMissingChunks extends MasterToSlaveFileCallable<HashSet<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashSet<String> hashes;
+
+        FindMissingChunks(HashSet<String> hashes) {
+            this.hashes = hashes;
+        }
+
+        @Override
+        public HashSet<String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            HashSet<String> missing = new HashSet<>();
+            for (String hash : hashes) {
+                if (!new File(dir, ChunkedFiles.chunkPath(hash)).isFile()) {
+                    missing.add(hash);
+                }
+            }
+            return missing;
+        }
+    }
+
+    private static class StageChunks extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, ArrayList<Chunk>> chunks;
+
+        StageChunks(HashMap<String, ArrayList<Chunk>> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public String invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            File staging = ChunkedFiles.createStagingDir();
+
+            try {
+                for (Map.Entry<String, ArrayList<Chunk>> entry : chunks.entrySet()) {
+                    ChunkedFiles.stage(new File(base, entry.getKey()), entry.getValue(), staging);
+                }
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(staging);
+                throw e;
+            }
+
+            return staging.getAbsolutePath();
+        }
+    }
+
+    private static class CreateStagingDir extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            return ChunkedFiles.createStagingDir().getAbsolutePath();
+        }
+    }
+
+    private static class PlanRestore extends MasterToSlaveFileCallable<RestorePlan> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, ChunkIndex> indexes;
+
+        PlanRestore(HashMap<String, ChunkIndex> indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public RestorePlan invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            RestorePlan plan = new RestorePlan();
+
+            for (Map.Entry<String, ChunkIndex> entry : indexes.entrySet()) {
+                File target = new File(base, entry.getKey());
+
+                if (target.isFile() && target.lastModified() >= entry.getValue().getLastModified()) {
+                    plan.upToDate.add(entry.getKey());
+                } else {
+                    Map<String, Long> local = ChunkedFiles.localChunks(target, entry.getValue());
+                    plan.local.put(entry.getKey(), local);
+                    plan.missing.addAll(ChunkedFiles.missingChunks(entry.getValue(), local));
+                }
+            }
+
+            return plan;
+        }
+    }
+
+    private static class Reassemble extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, ChunkIndex> indexes;
+        private final RestorePlan plan;
+        private final String stagingDir;
+
+        Reassemble(HashMap<String, ChunkIndex> indexes, RestorePlan plan, String stagingDir) {
+            this.indexes = indexes;
+            this.plan = plan;
+            this.stagingDir = stagingDir;
+        }
+
+        @Override
+        public Void invoke(File base, VirtualChannel channel) throws IOException, InterruptedException {
+            for (Map.Entry<String, Map<String, Long>> entry : plan.local.entrySet()) {
+                ChunkIndex index = indexes.get(entry.getKey());
+
+                ChunkedFiles.assemble(new File(base, entry.getKey()), index, entry.getValue(), new File(stagingDir), index.getLastModified());
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Removes stored chunks no index refers to any more
+     */
+    private static class PruneChunks extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Void invoke(File store, VirtualChannel channel) throws IOException, InterruptedException {
+            pruneChunks(store);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the chunks no index in the store refers to, must run where the store lives
+     */
+    static void pruneChunks(File store) throws IOException {
+        File indexDir = new File(store, ChunkedFiles.INDEX_DIR);
+        File chunkDir = new File(store, ChunkedFiles.CHUNK_DIR);
+
+        final Set<String> referenced = new HashSet<>();
+        if (indexDir.isDirectory()) {
+            new DirScanner.Full().scan(indexDir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    for (Chunk chunk : ChunkIndex.decode(f).getChunks()) {
+                        referenced.add(ChunkedFiles.chunkPath(chunk.getHash()));
+                    }
+                }
+            });
+        }
+
+        if (chunkDir.isDirectory()) {
+            new DirScanner.Full().scan(chunkDir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (!referenced.contains(normalize(relativePath))) {
+                        FileUtils.deleteQuietly(f);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.local;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies files that are missing or out of date between two directories of the master's own file system, used when a
+ * build runs on the built-in node.  Files are copied directly and several at a time rather than archived into a tar
+ * stream and extracted again.  Copies are real copies: hard links would let a build that edits a restored file in
+ * place change the cache as well.
+ *
+ * @author Peter Hayes
+ */
+final class LocalFastCopy {
+    /**
+     * The number of files copied at the same time
+     */
+    static final int THREADS = Integer.getInteger(LocalFastCopy.class.getName() + ".threads", 4);
+
+    private LocalFastCopy() {}
+
+    /**
+     * @param filter Which of the matching files to copy, null for all of them
+     * @param threshold Files larger than this are left to the chunked transfer, negative to copy everything
+     * @param throttle Paces the copied files, null if the copy is not limited
+     */
+    static TransferResult copy(File from, final File to, String fileMask, String excludes, PathFilter filter, final long threshold, final Throttle throttle) throws IOException, InterruptedException {
+        final TransferResult result = new TransferResult();
+        if (!from.isDirectory()) return result;
+
+        final List<Future<Void>> copies = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter).scan(from, new FileVisitor() {
+                @Override
+                public void visit(final File f, String relativePath) throws IOException {
+                    if (ChunkedFiles.isChunked(f, threshold)) return;
+
+                    final File target = new File(to, relativePath);
+                    if (target.exists() && target.lastModified() >= f.lastModified()) {
+                        result.fileSkipped();
+                        return;
+                    }
+
+                    if (throttle != null) {
+                        try {
+                            throttle.acquire(f.length());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while throttling " + relativePath);
+                        }
+                    }
+                    result.fileTransferred(f.length());
+                    copies.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            copyFile(f, target);
+                            return null;
+                        }
+                    }));
+                }
+            });
+            long scanned = System.nanoTime();
+            result.addScanNanos(scanned - start);
+
+            for (Future<Void> copy : copies) {
+                try {
+                    copy.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+            result.addTransferNanos(System.nanoTime() - scanned);
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static void copyFile(File source, File target) throws IOException {
+        Path dir = target.getParentFile().toPath();
+        Files.createDirectories(dir);
+
+        // Links are copied as links, like the archive stream does
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+    }
+}
@@ -26,27 +26,129 @@ package jenkins.plugins.itemstorage.local;
 
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
+import hudson.model.listeners.ItemListener;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.GlobalItemStorage;
 import jenkins.plugins.itemstorage.ItemStorage;
 import jenkins.plugins.itemstorage.ItemStorageDescriptor;
 import jenkins.plugins.itemstorage.Messages;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Implementation of Item Storage that stores data on the Jenkins master within the existing job folder.
+ * Implementation of Item Storage that stores data on the Jenkins master, either within the existing job folder or
+ * under a separate storage root.  Under a storage root each job gets a directory named by the hash of its full name,
+ * spread over two levels of sub directories so no single directory grows too large to list.
  *
  * @author Peter Hayes
  */
 public class LocalItemStorage extends ItemStorage<LocalObjectPath> {
+    private static final Logger LOGGER = Logger.getLogger(LocalItemStorage.class.getName());
+
+    static final String ITEMS_DIR = "items";
+    static final String SHARED_DIR = "shared";
+
+    private String root;
 
     @DataBoundConstructor
     public LocalItemStorage() {}
 
+    /**
+     * @return The directory caches are stored under, null to store them in the job folders
+     */
+    @SuppressWarnings("unused")
+    public String getRoot() {
+        return root;
+    }
+
+    @DataBoundSetter
+    public void setRoot(String root) {
+        this.root = Util.fixEmptyAndTrim(root);
+    }
+
     @Override
     public LocalObjectPath getObjectPath(Item item, String path) {
-        return new LocalObjectPath(new FilePath(item.getRootDir()).child(path));
+        FilePath dir = getItemDir(item).child(path);
+        if (root != null) {
+            migrate(new File(item.getRootDir(), path), dir);
+        }
+        return new LocalObjectPath(dir, item.getFullName());
+    }
+
+    @Override
+    public boolean supportsSharedCaches() {
+        return true;
+    }
+
+    @Override
+    public LocalObjectPath getSharedObjectPath(String name, String path) {
+        File legacy = new File(new File(new File(Jenkins.getActiveInstance().getRootDir(), "jobcacher-shared"), name), path);
+        if (root == null) {
+            return new LocalObjectPath(new FilePath(legacy), name);
+        }
+
+        FilePath dir = new FilePath(new File(root, SHARED_DIR)).child(name).child(path);
+        migrate(legacy, dir);
+        return new LocalObjectPath(dir, name);
+    }
+
+    private FilePath getItemDir(Item item) {
+        return root == null ? new FilePath(item.getRootDir()) : getItemDir(item.getFullName());
+    }
+
+    /**
+     * Move a cache saved before the storage root was set from where it was stored to under the root the first time
+     * it is used, so that setting a root neither starts every job from an empty cache nor leaves the old caches behind
+     * in the job folders.  Once the cache exists under the root the old copy is out of date and only removed.
+     *
+     * @param legacy The directory the cache was stored in without a storage root
+     * @param dir The directory of the cache under the storage root
+     */
+    private static synchronized void migrate(File legacy, FilePath dir) {
+        if (!legacy.isDirectory()) return;
+
+        FilePath from = new FilePath(legacy);
+        try {
+            if (dir.exists()) {
+                from.deleteRecursive();
+                return;
+            }
+
+            dir.getParent().mkdirs();
+            if (!legacy.renameTo(new File(dir.getRemote()))) {
+                // The storage root is on another file system
+                from.copyRecursiveTo(dir);
+                from.deleteRecursive();
+            }
+            LOGGER.info("Moved the cache " + legacy + " to " + dir);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to move the cache " + legacy + " to " + dir, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.WARNING, "Interrupted while moving the cache " + legacy + " to " + dir, e);
+        }
+    }
+
+    /**
+     * @return The directory of a job under the storage root, items/ab/cd/abcd... for the hash abcd...
+     */
+    private FilePath getItemDir(String fullName) {
+        String hash = Util.getDigestOf(fullName);
+        return new FilePath(new File(root, ITEMS_DIR)).child(hash.substring(0, 2)).child(hash.substring(2, 4)).child(hash);
     }
 
     @Extension
@@ -61,5 +163,75 @@ public class LocalItemStorage extends ItemStorage<LocalObjectPath> {
         public String getHelpFile() {
             return super.getHelpFile();
         }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckRoot(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.ok();
+            }
+            File dir = new File(value.trim());
+            if (!dir.isAbsolute()) {
+                return FormValidation.error("The storage root must be an absolute path");
+            }
+            if (!dir.isDirectory()) {
+                return FormValidation.warning("The directory does not exist yet and will be created");
+            }
+            return FormValidation.ok();
+        }
+    }
+
+    /**
+     * Jobs under a storage root are not moved or deleted along with their job folder so follow them here
+     */
+    @Extension
+    public static final class LocalItemListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            for (LocalItemStorage storage : lookupStorages()) {
+                delete(storage, item);
+
+                // Hashed directories are not nested like the jobs of a folder are
+                if (item instanceof ItemGroup) {
+                    for (Item child : Items.getAllItems((ItemGroup<?>) item, Item.class)) {
+                        delete(storage, child);
+                    }
+                }
+            }
+        }
+
+        private void delete(LocalItemStorage storage, Item item) {
+            try {
+                storage.getItemDir(item.getFullName()).deleteRecursive();
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete the caches of " + item.getFullName(), e);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            for (LocalItemStorage storage : lookupStorages()) {
+                try {
+                    FilePath from = storage.getItemDir(oldFullName);
+                    if (from.exists()) {
+                        FilePath to = storage.getItemDir(newFullName);
+                        to.deleteRecursive();
+                        to.getParent().mkdirs();
+                        from.renameTo(to);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Failed to move the caches of " + oldFullName + " to " + newFullName, e);
+                }
+            }
+        }
+
+        private List<LocalItemStorage> lookupStorages() {
+            List<LocalItemStorage> storages = new ArrayList<>();
+            for (LocalItemStorage storage : GlobalItemStorage.get().getStorages(LocalItemStorage.class)) {
+                if (storage.root != null) {
+                    storages.add(storage);
+                }
+            }
+            return storages;
+        }
     }
 }
@@ -30,8 +30,16 @@ import hudson.model.Job;
 import hudson.remoting.VirtualChannel;
 import hudson.util.DirScanner;
 import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
 import jenkins.SlaveToMasterFileCallable;
 import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.PathPatterns;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferScheduler;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
 import jenkins.security.SlaveToMasterCallable;
 import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.stapler.HttpResponse;
@@ -39,7 +47,9 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -52,26 +62,126 @@ public class LocalObjectPath extends ObjectPath {
     private static final Logger LOGGER = Logger.getLogger(LocalObjectPath.class.getName());
 
     private FilePath file;
+    private final String owner;
 
     public LocalObjectPath(FilePath file) {
+        this(file, file.getRemote());
+    }
+
+    /**
+     * @param owner The item or shared cache the path belongs to, transfers are scheduled fairly between owners
+     */
+    public LocalObjectPath(FilePath file, String owner) {
         this.file = file;
+        this.owner = owner;
     }
 
     @Override
     public ObjectPath child(String path) throws IOException, InterruptedException {
-        return new LocalObjectPath(file.child(path));
+        return new LocalObjectPath(file.child(path), owner);
     }
 
     @Override
-    public int copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        TransferScheduler.Permit permit = TransferScheduler.acquire(owner, false);
+        try {
+            TransferResult result = restore(fileMask, excludes, target);
+            result.addQueueWaitNanos(permit.getWaitNanos());
+            return result;
+        } finally {
+            permit.release();
+        }
+    }
+
+    private TransferResult restore(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
         LOGGER.info("Copying from " + file + " to " + target);
-        return file.copyRecursiveTo(new IsModifiedGlob(fileMask, excludes, target), target, fileMask);
+        Throttle throttle = TransferThrottles.get(target, false, file);
+        TransferResult result;
+        if (!target.isRemote()) {
+            // A build on the master node can copy straight out of the cache
+            result = LocalFastCopy.copy(new File(file.getRemote()), new File(target.getRemote()), fileMask, ChunkedFiles.excludeReserved(excludes), null, -1L, throttle);
+        } else {
+            result = HttpTransfer.restore(file, target, fileMask, excludes);
+        }
+        if (result == null) {
+            result = copy(file, target, fileMask, ChunkedFiles.excludeReserved(excludes), null, -1L, throttle);
+        }
+        return result.add(LocalChunkedTransfer.restore(file, target, fileMask, excludes, throttle));
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
     }
 
     @Override
-    public int copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        TransferScheduler.Permit permit = TransferScheduler.acquire(owner, true);
+        try {
+            TransferResult result = save(fileMask, excludes, filter, source, deleteMissing);
+            result.addQueueWaitNanos(permit.getWaitNanos());
+            return result;
+        } finally {
+            permit.release();
+        }
+    }
+
+    private TransferResult save(String fileMask, String excludes, PathFilter filter, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
         LOGGER.info("Copying from " + source + " to " + file);
-        return source.copyRecursiveTo(new IsModifiedGlob(fileMask, excludes, file), file, fileMask);
+        long threshold = ChunkedFiles.getThreshold();
+        Throttle throttle = TransferThrottles.get(source, true, source);
+        TransferResult result;
+        if (!source.isRemote()) {
+            result = LocalFastCopy.copy(new File(source.getRemote()), new File(file.getRemote()), fileMask, excludes, filter, threshold, throttle);
+        } else {
+            result = HttpTransfer.save(source, file, fileMask, excludes, filter, threshold, throttle);
+        }
+        if (result == null) {
+            result = copy(source, file, fileMask, excludes, filter, threshold, throttle);
+        }
+        LocalChunkedTransfer.dropSuperseded(source, file, fileMask, excludes, filter, threshold);
+        if (threshold >= 0) {
+            result.add(LocalChunkedTransfer.save(source, file, fileMask, excludes, filter, threshold, throttle));
+        }
+
+        // A missing source is more likely a build that did not get that far than one that removed everything
+        if (deleteMissing && source.exists()) {
+            long start = System.nanoTime();
+            HashSet<String> present = source.act(new ListFiles(fileMask, excludes, filter));
+            result.addScanNanos(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            result.add(file.act(new DeleteMissing(fileMask, present)));
+            result.addTransferNanos(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * @param filter Which of the matching files to copy, null for all of them
+     * @param threshold Files larger than this are left to the chunked transfer, negative to copy everything
+     * @param throttle Paces the copied files on the side of from, null if the copy is not limited
+     */
+    private static TransferResult copy(FilePath from, FilePath to, String fileMask, String excludes, PathFilter filter, long threshold, Throttle throttle) throws IOException, InterruptedException {
+        TransferResult result = new TransferResult();
+
+        // The scan runs wherever the source lives so hand it a collector it can report back through
+        ResultCollector collector = from.getChannel().export(ResultCollector.class, new ResultCollectorImpl(result));
+
+        long start = System.nanoTime();
+        DirScanner scanner = TransferThrottles.throttle(new IsModifiedGlob(fileMask, excludes, filter, to, collector, threshold), throttle);
+        from.copyRecursiveTo(scanner, to, fileMask);
+        long elapsed = System.nanoTime() - start;
+
+        // Whatever time was not spent comparing files was spent moving them
+        result.addTransferNanos(Math.max(0L, elapsed - result.getScanNanos()));
+
+        return result;
     }
 
     @Override
@@ -93,16 +203,168 @@ public class LocalObjectPath extends ObjectPath {
      * Scanner that filters out files that are up to date
      */
     private static class IsModifiedGlob extends DirScanner.Glob {
+        private final PathFilter filter;
         private final FilePath toCompare;
+        private final ResultCollector collector;
+        private final long threshold;
 
-        public IsModifiedGlob(String includes, String excludes, FilePath toCompare) {
+        public IsModifiedGlob(String includes, String excludes, PathFilter filter, FilePath toCompare, ResultCollector collector, long threshold) {
             super(includes, excludes);
+            this.filter = filter;
             this.toCompare = toCompare;
+            this.collector = collector;
+            this.threshold = threshold;
         }
 
         @Override
         public void scan(File dir, final FileVisitor visitor) throws IOException {
-            super.scan(dir, new IsNotThereOrOlderVisitor(toCompare, visitor));
+            TransferResult result = new TransferResult();
+            final FileVisitor compare = new IsNotThereOrOlderVisitor(toCompare, visitor, result);
+
+            try {
+                super.scan(dir, PathFilter.filter(new FileVisitor() {
+                    @Override
+                    public void visit(File f, String relativePath) throws IOException {
+                        if (!ChunkedFiles.isChunked(f, threshold)) {
+                            compare.visit(f, relativePath);
+                        }
+                    }
+                }, filter));
+            } finally {
+                collector.collect(result);
+            }
+        }
+    }
+
+    /**
+     * Lists the relative path of every file in the source matching the mask
+     */
+    private static class ListFiles extends MasterToSlaveFileCallable<HashSet<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final String excludes;
+        private final PathFilter filter;
+
+        ListFiles(String fileMask, String excludes, PathFilter filter) {
+            this.fileMask = fileMask;
+            this.excludes = excludes;
+            this.filter = filter;
+        }
+
+        @Override
+        public HashSet<String> invoke(File dir, VirtualChannel channel) throws IOException {
+            final HashSet<String> present = new HashSet<>();
+            PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter).scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.isFile()) {
+                        present.add(LocalChunkedTransfer.normalize(relativePath));
+                    }
+                }
+            });
+            return present;
+        }
+    }
+
+    /**
+     * Deletes the stored files and chunk indexes matching the mask that were not copied from the source, because
+     * they are gone or excluded, then the chunks and directories left unused
+     */
+    private static class DeleteMissing extends MasterToSlaveFileCallable<TransferResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileMask;
+        private final HashSet<String> present;
+
+        DeleteMissing(String fileMask, HashSet<String> present) {
+            this.fileMask = fileMask;
+            this.present = present;
+        }
+
+        @Override
+        public TransferResult invoke(File store, VirtualChannel channel) throws IOException {
+            TransferResult result = new TransferResult();
+            if (!store.isDirectory()) return result;
+
+            final List<File> missing = new ArrayList<>();
+            new DirScanner.Glob(fileMask, ChunkedFiles.excludeReserved(null)).scan(store, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.isFile() && !present.contains(LocalChunkedTransfer.normalize(relativePath))) {
+                        missing.add(f);
+                    }
+                }
+            });
+
+            final List<File> missingIndexes = new ArrayList<>();
+            File indexDir = new File(store, ChunkedFiles.INDEX_DIR);
+            if (indexDir.isDirectory()) {
+                final PathPatterns covered = new PathPatterns(fileMask, null);
+                new DirScanner.Full().scan(indexDir, new FileVisitor() {
+                    @Override
+                    public void visit(File f, String relativePath) throws IOException {
+                        String path = LocalChunkedTransfer.normalize(relativePath);
+                        if (covered.matches(path) && !present.contains(path)) {
+                            missingIndexes.add(f);
+                        }
+                    }
+                });
+            }
+
+            for (File f : missing) {
+                if (f.delete()) {
+                    result.fileDeleted();
+                }
+            }
+            for (File f : missingIndexes) {
+                if (f.delete()) {
+                    result.fileDeleted();
+                }
+            }
+            if (!missingIndexes.isEmpty()) {
+                LocalChunkedTransfer.pruneChunks(store);
+            }
+
+            deleteEmptyDirectories(store, store);
+            return result;
+        }
+
+        private static void deleteEmptyDirectories(File dir, File store) {
+            File[] children = dir.listFiles();
+            if (children == null) return;
+
+            for (File child : children) {
+                // Never follow a stored link out of the store
+                if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                    deleteEmptyDirectories(child, store);
+                }
+            }
+
+            String[] remaining = dir.list();
+            if (!dir.equals(store) && remaining != null && remaining.length == 0) {
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * Receives the statistics of a scan which may have happened on the other side of the channel
+     */
+    public interface ResultCollector {
+        void collect(TransferResult result);
+    }
+
+    private static class ResultCollectorImpl implements ResultCollector {
+        private final TransferResult result;
+
+        public ResultCollectorImpl(TransferResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public synchronized void collect(TransferResult scanResult) {
+            result.add(scanResult);
         }
     }
 
@@ -113,24 +375,37 @@ public class LocalObjectPath extends ObjectPath {
     public static class IsNotThereOrOlderVisitor extends FileVisitor implements Serializable {
         private FilePath toCompare;
         private FileVisitor delegate;
+        private TransferResult result;
 
         public IsNotThereOrOlderVisitor(FilePath toCompare, FileVisitor delegate) {
+            this(toCompare, delegate, new TransferResult());
+        }
+
+        public IsNotThereOrOlderVisitor(FilePath toCompare, FileVisitor delegate, TransferResult result) {
             this.toCompare = toCompare;
             this.delegate = delegate;
+            this.result = result;
         }
 
         @Override
         public void visit(File f, final String relativePath) throws IOException {
             // check if file is more recent than base one
             try {
+                long start = System.nanoTime();
                 FilePath targetFile = toCompare.child(relativePath);
-                if (!targetFile.exists() || f.lastModified() > targetFile.lastModified()) {
+                boolean modified = !targetFile.exists() || f.lastModified() > targetFile.lastModified();
+                result.addScanNanos(System.nanoTime() - start);
+
+                if (modified) {
                     delegate.visit(f, relativePath);
+                    result.fileTransferred(f.length());
 
                     // Only set modification date if the file ended up being copied - pretty chatty!
                     if (targetFile.exists()) {
                         targetFile.touch(f.lastModified());
                     }
+                } else {
+                    result.fileSkipped();
                 }
             } catch (InterruptedException ie) {
                 LOGGER.info("Interrupted while checking file [" + f + "] skipping and reinterrupting");
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.routing;
+
+import hudson.Extension;
+import hudson.model.Item;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import jenkins.plugins.itemstorage.ObjectPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of Item Storage that keeps the caches of builds on different nodes in different storages, so that
+ * for example builds on agents in a cloud use storage in that cloud and builds on the master's network use storage
+ * on that network.  The storage is picked for each transfer by the node of the workspace, and the caches can
+ * optionally be replicated to the other storages in the background after every save.
+ *
+ * @author Peter Hayes
+ */
+public class RoutedItemStorage extends ItemStorage<RoutedObjectPath> {
+    private static final long serialVersionUID = 1L;
+
+    private final ItemStorage<?> defaultStorage;
+    private List<StorageRoute> routes = new ArrayList<>();
+    private boolean replicate;
+
+    @DataBoundConstructor
+    public RoutedItemStorage(ItemStorage<?> defaultStorage) {
+        this.defaultStorage = defaultStorage;
+    }
+
+    /**
+     * @return The storage of builds on nodes that match no route
+     */
+    public ItemStorage<?> getDefaultStorage() {
+        return defaultStorage;
+    }
+
+    public List<StorageRoute> getRoutes() {
+        return routes == null ? Collections.<StorageRoute>emptyList() : Collections.unmodifiableList(routes);
+    }
+
+    @DataBoundSetter
+    public void setRoutes(List<StorageRoute> routes) {
+        this.routes = routes == null ? new ArrayList<StorageRoute>() : new ArrayList<>(routes);
+    }
+
+    /**
+     * @return True if saved caches are copied to the other storages in the background
+     */
+    public boolean isReplicate() {
+        return replicate;
+    }
+
+    @DataBoundSetter
+    public void setReplicate(boolean replicate) {
+        this.replicate = replicate;
+    }
+
+    @Override
+    public RoutedObjectPath getObjectPath(Item item, String path) {
+        Map<StorageRoute, ObjectPath> paths = new LinkedHashMap<>();
+        for (StorageRoute route : getValidRoutes()) {
+            paths.put(route, route.getStorage().getObjectPath(item, path));
+        }
+        return new RoutedObjectPath(item.getFullName(), item.getFullName() + "/" + path, defaultStorage.getObjectPath(item, path), paths, replicate);
+    }
+
+    @Override
+    public RoutedObjectPath getSharedObjectPath(String name, String path) {
+        Map<StorageRoute, ObjectPath> paths = new LinkedHashMap<>();
+        for (StorageRoute route : getValidRoutes()) {
+            paths.put(route, route.getStorage().getSharedObjectPath(name, path));
+        }
+        return new RoutedObjectPath(CacheLocks.SHARED_PREFIX + name, CacheLocks.SHARED_PREFIX + name + "/" + path, defaultStorage.getSharedObjectPath(name, path), paths, replicate);
+    }
+
+    @Override
+    public List<ItemStorage<?>> getComponents() {
+        List<ItemStorage<?>> storages = new ArrayList<>();
+        storages.add(defaultStorage);
+        for (StorageRoute route : getValidRoutes()) {
+            storages.add(route.getStorage());
+        }
+        return storages;
+    }
+
+    private List<StorageRoute> getValidRoutes() {
+        List<StorageRoute> valid = new ArrayList<>();
+        for (StorageRoute route : getRoutes()) {
+            if (route.getLabel() != null && route.getStorage() != null) {
+                valid.add(route);
+            }
+        }
+        return valid;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ItemStorageDescriptor {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.RoutedItemStorage_DisplayName();
+        }
+
+        @Override
+        public boolean isComposite() {
+            return true;
+        }
+
+        @SuppressWarnings("unused")
+        public List<ItemStorageDescriptor> getStorageDescriptors() {
+            return ItemStorageDescriptor.getComponentDescriptors();
+        }
+    }
+}
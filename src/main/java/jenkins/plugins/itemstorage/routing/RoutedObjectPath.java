@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.routing;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Node;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.StorageCopier;
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Object path that transfers to and from the storage routed to the node of the workspace
+ *
+ * @author Peter Hayes
+ */
+public class RoutedObjectPath extends ObjectPath {
+    // The last save of each path, a new instance for every save
+    private static final ConcurrentMap<String, Save> saves = new ConcurrentHashMap<>();
+
+    private final String owner;
+    private final String key;
+    private final ObjectPath defaultPath;
+    private final Map<StorageRoute, ObjectPath> routedPaths;
+    private final boolean replicate;
+
+    /**
+     * @param owner The key of the lock of the cache, see {@link CacheLocks}
+     * @param key The path including the owner
+     */
+    RoutedObjectPath(String owner, String key, ObjectPath defaultPath, Map<StorageRoute, ObjectPath> routedPaths, boolean replicate) {
+        this.owner = owner;
+        this.key = key;
+        this.defaultPath = defaultPath;
+        this.routedPaths = routedPaths;
+        this.replicate = replicate;
+    }
+
+    @Override
+    public RoutedObjectPath child(String path) throws IOException, InterruptedException {
+        Map<StorageRoute, ObjectPath> children = new LinkedHashMap<>();
+        for (Map.Entry<StorageRoute, ObjectPath> entry : routedPaths.entrySet()) {
+            children.put(entry.getKey(), entry.getValue().child(path));
+        }
+        return new RoutedObjectPath(owner, key + "/" + path, defaultPath.child(path), children, replicate);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        ObjectPath routed = route(target);
+        if (!routed.exists()) {
+            // The cache may only exist in another storage when it is not replicated, or not yet
+            routed = findSaved();
+            if (routed == null) {
+                return new TransferResult();
+            }
+        }
+        return routed.copyRecursiveTo(fileMask, excludes, target);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        final ObjectPath routed = route(source);
+        TransferResult result = routed.copyRecursiveFrom(fileMask, excludes, source, deleteMissing, filter);
+
+        List<ObjectPath> paths = getAllPaths();
+        final int index = paths.indexOf(routed);
+        final Save save = new Save(index);
+        saves.put(key, save);
+
+        if (replicate) {
+            final List<ObjectPath> others = new ArrayList<>();
+            for (ObjectPath path : paths) {
+                if (path != routed) {
+                    others.add(path);
+                }
+            }
+            StorageCopier.submit("replicate " + key + " from " + index, new StorageCopier.Task() {
+                @Override
+                public void run() throws IOException, InterruptedException {
+                    ReadWriteLock lock = CacheLocks.get(owner);
+
+                    // The read lock keeps saves out while staging, they would make the copy a mix of two saves
+                    FilePath staging;
+                    lock.readLock().lockInterruptibly();
+                    try {
+                        // A newer save queued its own copy, copying this one would undo it
+                        if (saves.get(key) != save) {
+                            return;
+                        }
+                        staging = StorageCopier.stage(routed);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    if (staging == null) {
+                        return;
+                    }
+
+                    // The write lock keeps restores from the other storages out while they are rewritten
+                    try {
+                        lock.writeLock().lockInterruptibly();
+                        try {
+                            if (saves.get(key) != save) {
+                                return;
+                            }
+                            StorageCopier.publish(staging, others);
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    } finally {
+                        staging.deleteRecursive();
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        for (ObjectPath path : getAllPaths()) {
+            if (path.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        for (ObjectPath path : getAllPaths()) {
+            path.deleteRecursive();
+        }
+    }
+
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+        try {
+            for (ObjectPath path : getAllPaths()) {
+                if (path.exists()) {
+                    return path.browse(request, response, job, name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return defaultPath.browse(request, response, job, name);
+    }
+
+    /**
+     * @param workspace A path on the node of the build
+     * @return The path in the storage of the first route matching the node, or in the default storage
+     */
+    private ObjectPath route(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        if (node != null) {
+            for (Map.Entry<StorageRoute, ObjectPath> entry : routedPaths.entrySet()) {
+                if (entry.getKey().matches(node)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return defaultPath;
+    }
+
+    /**
+     * @return The path in the storage the cache was saved to last if known and it still holds it, otherwise in the
+     * first storage holding it, or null if none does
+     */
+    private ObjectPath findSaved() throws IOException, InterruptedException {
+        List<ObjectPath> paths = getAllPaths();
+        Save last = saves.get(key);
+        if (last != null && last.index >= 0 && last.index < paths.size() && paths.get(last.index).exists()) {
+            return paths.get(last.index);
+        }
+
+        for (ObjectPath path : paths) {
+            if (path.exists()) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private List<ObjectPath> getAllPaths() {
+        List<ObjectPath> paths = new ArrayList<>();
+        paths.add(defaultPath);
+        paths.addAll(routedPaths.values());
+        return paths;
+    }
+
+    private static final class Save {
+        /**
+         * The position of the storage saved to in getAllPaths()
+         */
+        private final int index;
+
+        Save(int index) {
+            this.index = index;
+        }
+    }
+}
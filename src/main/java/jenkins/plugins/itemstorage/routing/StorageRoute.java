@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.routing;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The storage used by builds on the nodes matching a label, such as the nodes of a cloud or a data center.
+ *
+ * @author Peter Hayes
+ */
+public class StorageRoute extends AbstractDescribableImpl<StorageRoute> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String label;
+    private final ItemStorage<?> storage;
+
+    @DataBoundConstructor
+    public StorageRoute(String label, ItemStorage<?> storage) {
+        this.label = Util.fixEmptyAndTrim(label);
+        this.storage = storage;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public ItemStorage<?> getStorage() {
+        return storage;
+    }
+
+    /**
+     * @param node The node to check
+     * @return True if builds on the node use this storage
+     */
+    boolean matches(Node node) {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (label == null || storage == null || jenkins == null) {
+            return false;
+        }
+
+        Label parsed = jenkins.getLabel(label);
+        return parsed != null && parsed.contains(node);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<StorageRoute> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.StorageRoute_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public List<ItemStorageDescriptor> getStorageDescriptors() {
+            return ItemStorageDescriptor.getComponentDescriptors();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckLabel(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.error("A label or node name is required");
+            }
+
+            try {
+                Label.parseExpression(value);
+                return FormValidation.ok();
+            } catch (ANTLRException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.amazonaws.regions.RegionUtils;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 import hudson.ProxyConfiguration;
 
 import java.io.Serializable;
@@ -24,6 +25,7 @@ public class ClientHelper implements Serializable {
     private final String accessKey;
     private final String secretKey;
     private final String region;
+    private final String endpoint;
     private final ProxyConfiguration proxy;
 
     private transient AWSCredentials credentials;
@@ -34,7 +36,15 @@ public class ClientHelper implements Serializable {
     }
 
     public ClientHelper(AWSCredentials credentials, String region, ProxyConfiguration proxy) {
+        this(credentials, region, null, proxy);
+    }
+
+    /**
+     * @param endpoint The endpoint of an S3 compatible service to use instead of AWS, addressed path style
+     */
+    public ClientHelper(AWSCredentials credentials, String region, String endpoint, ProxyConfiguration proxy) {
         this.region = region;
+        this.endpoint = endpoint;
         this.proxy = proxy;
 
         if (credentials != null) {
@@ -56,7 +66,10 @@ public class ClientHelper implements Serializable {
                 client = new AmazonS3Client(getCredentials(), getClientConfiguration(proxy));
             }
 
-            if (region != null) {
+            if (endpoint != null) {
+                client.setEndpoint(endpoint);
+                client.setS3ClientOptions(new S3ClientOptions().withPathStyleAccess(true));
+            } else if (region != null) {
                 client.setRegion(getRegionFromString(region));
             }
         }
@@ -46,7 +46,14 @@ public final class Downloads {
 
     public Downloads() {}
 
-    public void startDownload(TransferManager manager, File base, String pathPrefix, S3ObjectSummary summary) throws AmazonServiceException, IOException {
+    public boolean startDownload(TransferManager manager, File base, String pathPrefix, S3ObjectSummary summary) throws AmazonServiceException, IOException {
+        return startDownload(manager, base, pathPrefix, summary, summary.getKey());
+    }
+
+    /**
+     * @param key The key the object is stored under when it is not the key of the summary
+     */
+    public boolean startDownload(TransferManager manager, File base, String pathPrefix, S3ObjectSummary summary, String key) throws AmazonServiceException, IOException {
         // calculate target file name
         File targetFile = FileUtils.getFile(base, summary.getKey().substring(pathPrefix.length() + 1));
 
@@ -56,11 +63,15 @@ public final class Downloads {
             FileUtils.forceMkdir(targetFile.getParentFile());
 
             // Start the download
-            Download download = manager.download(summary.getBucketName(), summary.getKey(), targetFile);
+            Download download = manager.download(summary.getBucketName(), key, targetFile);
 
             // Keep for later
             startedDownloads.add(new Memo(download, targetFile, summary.getLastModified().getTime()));
+
+            return true;
         }
+
+        return false;
     }
 
     public void finishDownloading() throws InterruptedException {
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.s3;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Finds out the AWS region nodes run in, from the region set on the node or else from the node itself: its AWS
+ * region environment variables or, on EC2, its instance metadata.  What a node reports is remembered until it
+ * reconnects.
+ *
+ * @author Peter Hayes
+ */
+public final class NodeRegions {
+    /**
+     * How long to wait for the instance metadata service, which is not there outside of EC2
+     */
+    static final int TIMEOUT_MILLIS = Integer.getInteger(NodeRegions.class.getName() + ".timeoutMillis", 1000);
+
+    // The empty string for nodes that could not tell
+    private static final ConcurrentMap<String, String> regions = new ConcurrentHashMap<>();
+
+    private NodeRegions() {}
+
+    /**
+     * @param workspace A path on the node
+     * @return The region of the node, null if unknown
+     */
+    static String get(FilePath workspace) throws IOException, InterruptedException {
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        if (node == null) {
+            return null;
+        }
+
+        S3RegionNodeProperty property = node.getNodeProperties().get(S3RegionNodeProperty.class);
+        if (property != null && property.getRegion() != null) {
+            return property.getRegion();
+        }
+
+        String region = regions.get(node.getNodeName());
+        if (region == null) {
+            region = Util.fixNull(workspace.act(new DetectRegion()));
+            regions.put(node.getNodeName(), region);
+        }
+        return Util.fixEmpty(region);
+    }
+
+    private static class DetectRegion extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private static final String METADATA_URL = "http://169.254.169.254/latest/";
+
+        @Override
+        public String call() {
+            String region = Util.fixEmptyAndTrim(System.getenv("AWS_REGION"));
+            if (region == null) {
+                region = Util.fixEmptyAndTrim(System.getenv("AWS_DEFAULT_REGION"));
+            }
+            if (region == null) {
+                region = fromInstanceMetadata();
+            }
+            return region;
+        }
+
+        private static String fromInstanceMetadata() {
+            try {
+                HttpURLConnection token = open("api/token");
+                token.setRequestMethod("PUT");
+                token.setRequestProperty("X-aws-ec2-metadata-token-ttl-seconds", "60");
+
+                HttpURLConnection placement = open("meta-data/placement/region");
+                placement.setRequestProperty("X-aws-ec2-metadata-token", read(token));
+                return Util.fixEmptyAndTrim(read(placement));
+            } catch (IOException e) {
+                // Not on EC2 or the metadata service is turned off
+                return null;
+            }
+        }
+
+        private static HttpURLConnection open(String path) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(METADATA_URL + path).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            return connection;
+        }
+
+        private static String read(HttpURLConnection connection) throws IOException {
+            try (InputStream in = connection.getInputStream()) {
+                return IOUtils.toString(in, "UTF-8");
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class RegionComputerListener extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            // The node may have moved
+            regions.remove(c.getName());
+        }
+    }
+}
@@ -27,10 +27,12 @@ package jenkins.plugins.itemstorage.s3;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.itemstorage.Throttle;
 import org.jenkinsci.remoting.RoleChecker;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 /**
  * Executes a possibly remote S3 operation setting up / tearing down a transfer manager.
@@ -40,11 +42,33 @@ abstract class S3Callable<T> extends MasterToSlaveFileCallable<T> {
     private static final long serialVersionUID = 1L;
 
     private ClientHelper helper;
+    private Throttle throttle;
 
     S3Callable(ClientHelper helper) {
         this.helper = helper;
     }
 
+    /**
+     * @param throttle Paces the objects transferred by this callable, null if transfers are not limited
+     */
+    void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Wait until the passed amount of bytes may be transferred
+     */
+    protected void throttle(long bytes) throws IOException {
+        if (throttle == null) return;
+
+        try {
+            throttle.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling transfer");
+        }
+    }
+
     /**
      * Override this if you don't want a transfer manager
      */
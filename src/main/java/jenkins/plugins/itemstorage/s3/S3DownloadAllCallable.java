@@ -24,32 +24,50 @@
 
 package jenkins.plugins.itemstorage.s3;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.Download;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import hudson.remoting.VirtualChannel;
 import hudson.util.DirScanner;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.chunking.Chunk;
+import jenkins.plugins.itemstorage.chunking.ChunkIndex;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
+import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.*;
 
 /**
  * Copies all objects from the path in S3 to the target base path
  *
  * @author Peter Hayes
  */
-public class S3DownloadAllCallable extends S3Callable<Integer> {
+public class S3DownloadAllCallable extends S3Callable<TransferResult> {
     private static final long serialVersionUID = 1L;
     private String bucketName;
     private String pathPrefix;
+    private final S3Keys keys;
     private final DirScanner.Glob scanner;
 
 
     public S3DownloadAllCallable(ClientHelper helper, String fileMask, String excludes, String bucketName, String pathPrefix) {
+        this(helper, fileMask, excludes, bucketName, new S3Keys(pathPrefix, false));
+    }
+
+    /**
+     * @param keys Where the objects of the cache are stored
+     */
+    S3DownloadAllCallable(ClientHelper helper, String fileMask, String excludes, String bucketName, S3Keys keys) {
         super(helper);
         this.bucketName = bucketName;
-        this.pathPrefix = pathPrefix;
+        this.pathPrefix = keys.getPrefix();
+        this.keys = keys;
 
         scanner = new DirScanner.Glob(fileMask, excludes);
     }
@@ -58,35 +76,147 @@ public class S3DownloadAllCallable extends S3Callable<Integer> {
      * Download to executor
      */
     @Override
-    public Integer invoke(TransferManager transferManager, File base, VirtualChannel channel) throws IOException, InterruptedException {
+    public TransferResult invoke(TransferManager transferManager, File base, VirtualChannel channel) throws IOException, InterruptedException {
         if(!base.exists()) {
             if (!base.mkdirs()) {
                 throw new IOException("Failed to create directory : " + base);
             }
         }
 
-        int totalCount;
+        TransferResult result = new TransferResult();
         Downloads downloads = new Downloads();
+        AmazonS3 s3 = transferManager.getAmazonS3Client();
         ObjectListing objectListing = null;
 
-        do {
-            objectListing = transferManager.getAmazonS3Client().listObjects(new ListObjectsRequest()
-                    .withBucketName(bucketName)
-                    .withPrefix(pathPrefix)
-                    .withMarker(objectListing != null ? objectListing.getNextMarker() : null));
+        String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
+        List<S3ObjectSummary> indexes = new ArrayList<>();
 
-            for (S3ObjectSummary summary : objectListing.getObjectSummaries()) {
-                downloads.startDownload(transferManager, base, pathPrefix, summary);
-            }
+        // Spread keys are listed by the manifest of the cache in one request
+        if (keys.isSpread()) {
+            long start = System.nanoTime();
+            Collection<S3ObjectSummary> summaries = keys.list(s3, bucketName).values();
+            result.addListNanos(System.nanoTime() - start);
 
-        } while (objectListing.getNextMarker() != null);
+            start = System.nanoTime();
+            startDownloads(transferManager, base, downloads, summaries, indexes, result);
+            result.addScanNanos(System.nanoTime() - start);
+        } else {
+            do {
+                // NextMarker is only returned for delimited listings so page with the client instead
+                long start = System.nanoTime();
+                objectListing = objectListing == null ?
+                        s3.listObjects(new ListObjectsRequest().withBucketName(bucketName).withPrefix(pathPrefix)) :
+                        s3.listNextBatchOfObjects(objectListing);
+                result.addListNanos(System.nanoTime() - start);
 
-        // Grab # of files copied
-        totalCount = downloads.count();
+                start = System.nanoTime();
+                startDownloads(transferManager, base, downloads, objectListing.getObjectSummaries(), indexes, result);
+                result.addScanNanos(System.nanoTime() - start);
+            } while (objectListing.isTruncated());
+        }
 
         // Finish the asynchronous downloading process
+        long start = System.nanoTime();
         downloads.finishDownloading();
+        result.addTransferNanos(System.nanoTime() - start);
+
+        if (!indexes.isEmpty()) {
+            downloadChunked(transferManager, base, indexes, indexPrefix, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Start downloading the listed files newer than the copies in the target, collecting the chunk indexes of large
+     * files to rebuild them later
+     */
+    private void startDownloads(TransferManager transferManager, File base, Downloads downloads, Collection<S3ObjectSummary> summaries, List<S3ObjectSummary> indexes, TransferResult result) throws IOException {
+        String reservedPrefix = pathPrefix + "/" + ChunkedFiles.RESERVED_DIR + "/";
+        String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
+
+        for (S3ObjectSummary summary : summaries) {
+            if (summary.getKey().startsWith(reservedPrefix)) {
+                if (summary.getKey().startsWith(indexPrefix)) {
+                    indexes.add(summary);
+                }
+            } else if (downloads.startDownload(transferManager, base, pathPrefix, summary, keys.toObjectKey(summary.getKey()))) {
+                result.fileTransferred(summary.getSize());
+                // Downloads run in the background so holding back the next one paces the transfer
+                throttle(summary.getSize());
+            } else {
+                result.fileSkipped();
+            }
+        }
+    }
+
+    /**
+     * Rebuild large files from the chunks they already hold plus the chunks fetched from S3
+     */
+    private void downloadChunked(TransferManager transferManager, File base, List<S3ObjectSummary> indexes, String indexPrefix, TransferResult result) throws IOException, InterruptedException {
+        AmazonS3 s3 = transferManager.getAmazonS3Client();
+        String chunkPrefix = pathPrefix + "/" + ChunkedFiles.CHUNK_DIR + "/";
 
-        return totalCount;
+        Map<S3ObjectSummary, ChunkIndex> wanted = new LinkedHashMap<>();
+        Map<S3ObjectSummary, Map<String, Long>> local = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+
+        long start = System.nanoTime();
+        for (S3ObjectSummary summary : indexes) {
+            File target = FileUtils.getFile(base, summary.getKey().substring(indexPrefix.length()));
+
+            if (target.lastModified() >= summary.getLastModified().getTime()) {
+                result.fileSkipped();
+                continue;
+            }
+
+            ChunkIndex index;
+            try (S3Object object = s3.getObject(bucketName, keys.toObjectKey(summary.getKey()))) {
+                index = ChunkIndex.decode(object.getObjectContent());
+            }
+
+            Map<String, Long> present = ChunkedFiles.localChunks(target, index);
+            Set<String> needed = ChunkedFiles.missingChunks(index, present);
+
+            long bytes = 0L;
+            for (Chunk chunk : index.getChunks()) {
+                if (needed.contains(chunk.getHash()) && missing.add(chunk.getHash())) {
+                    bytes += chunk.getLength();
+                }
+            }
+
+            wanted.put(summary, index);
+            local.put(summary, present);
+            result.fileTransferred(bytes);
+            throttle(bytes);
+        }
+        result.addScanNanos(System.nanoTime() - start);
+
+        if (wanted.isEmpty()) return;
+
+        File staging = ChunkedFiles.createStagingDir();
+        try {
+            start = System.nanoTime();
+            List<Download> downloads = new ArrayList<>();
+            for (String hash : missing) {
+                File staged = new File(staging, ChunkedFiles.chunkPath(hash));
+                FileUtils.forceMkdir(staged.getParentFile());
+
+                downloads.add(transferManager.download(bucketName, keys.toObjectKey(chunkPrefix + ChunkedFiles.chunkPath(hash)), staged));
+            }
+            for (Download download : downloads) {
+                download.waitForCompletion();
+            }
+
+            for (Map.Entry<S3ObjectSummary, ChunkIndex> entry : wanted.entrySet()) {
+                S3ObjectSummary summary = entry.getKey();
+                File target = FileUtils.getFile(base, summary.getKey().substring(indexPrefix.length()));
+
+                ChunkedFiles.assemble(target, entry.getValue(), local.get(summary), staging, summary.getLastModified().getTime());
+            }
+            result.addTransferNanos(System.nanoTime() - start);
+        } finally {
+            FileUtils.deleteQuietly(staging);
+        }
     }
 }
\ No newline at end of file
@@ -32,20 +32,28 @@ import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import hudson.Extension;
 import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
 import hudson.model.listeners.ItemListener;
 import hudson.security.ACL;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
 import jenkins.plugins.itemstorage.GlobalItemStorage;
+import jenkins.plugins.itemstorage.CacheLocks;
 import jenkins.plugins.itemstorage.ItemStorage;
 import jenkins.plugins.itemstorage.ItemStorageDescriptor;
 import jenkins.plugins.itemstorage.Messages;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * S3 implementation of the Item Storage extension point.
@@ -53,9 +61,13 @@ import java.util.List;
  * @author Peter Hayes
  */
 public class S3ItemStorage extends ItemStorage<S3ObjectPath> {
+    private static final Logger LOGGER = Logger.getLogger(S3ItemStorage.class.getName());
+
     private String credentialsId;
     private String bucketName;
     private String region;
+    private List<S3Replica> replicas = new ArrayList<>();
+    private boolean hashedKeys;
 
     @DataBoundConstructor
     public S3ItemStorage(String credentialsId, String bucketName, String region) {
@@ -79,11 +91,72 @@ public class S3ItemStorage extends ItemStorage<S3ObjectPath> {
         return credentialsId;
     }
 
+    /**
+     * @return The buckets in other regions caches are replicated to
+     */
+    @SuppressWarnings("unused")
+    public List<S3Replica> getReplicas() {
+        return replicas == null ? Collections.<S3Replica>emptyList() : Collections.unmodifiableList(replicas);
+    }
+
+    @DataBoundSetter
+    public void setReplicas(List<S3Replica> replicas) {
+        this.replicas = replicas == null ? new ArrayList<S3Replica>() : new ArrayList<>(replicas);
+    }
+
+    /**
+     * @return Whether the keys of a job start with the hash of its full name to spread them over the bucket
+     */
+    @SuppressWarnings("unused")
+    public boolean isHashedKeys() {
+        return hashedKeys;
+    }
+
+    @DataBoundSetter
+    public void setHashedKeys(boolean hashedKeys) {
+        this.hashedKeys = hashedKeys;
+        S3ObjectPath.forgetMigrations();
+    }
+
     @Override
     public S3ObjectPath getObjectPath(Item item, String path) {
-        S3Profile profile = new S3Profile(lookupCredentials(), 5, 5L);
+        return getObjectPath(item.getFullName(), path);
+    }
 
-        return new S3ObjectPath(profile, bucketName, region, item.getFullName(), path);
+    @Override
+    public boolean supportsSharedCaches() {
+        return true;
+    }
+
+    @Override
+    public S3ObjectPath getSharedObjectPath(String name, String path) {
+        // '@' is not allowed in item names so shared locations never collide with an item's keys
+        return getObjectPath(CacheLocks.SHARED_PREFIX + name, path);
+    }
+
+    private S3ObjectPath getObjectPath(String fullName, String path) {
+        if (getReplicas().isEmpty()) {
+            S3Profile profile = new S3Profile(lookupCredentials(), 5, 5L);
+
+            return new S3ObjectPath(profile, bucketName, region, fullName, path, Collections.<S3ObjectPath>emptyList(), hashedKeys);
+        }
+
+        // Copies between buckets have to be sent to the region of the bucket copied to
+        AmazonWebServicesCredentials credentials = lookupCredentials();
+        List<S3ObjectPath> replicaPaths = new ArrayList<>();
+        for (S3Replica replica : getReplicas()) {
+            S3Profile profile = new S3Profile(credentials, replica.getRegion(), 5, 5L);
+            replicaPaths.add(new S3ObjectPath(profile, replica.getBucketName(), replica.getRegion(), fullName, path, Collections.<S3ObjectPath>emptyList(), hashedKeys));
+        }
+        return new S3ObjectPath(new S3Profile(credentials, region, 5, 5L), bucketName, region, fullName, path, replicaPaths, hashedKeys);
+    }
+
+    static ListBoxModel regionItems() {
+        final ListBoxModel model = new ListBoxModel();
+        for (Regions r : Regions.values()) {
+            model.add(r.getName(), r.getName());
+        }
+        return model;
     }
 
     private AmazonWebServicesCredentials lookupCredentials() {
@@ -118,11 +191,7 @@ public class S3ItemStorage extends ItemStorage<S3ObjectPath> {
 
         @SuppressWarnings("unused")
         public ListBoxModel doFillRegionItems() {
-            final ListBoxModel model = new ListBoxModel();
-            for (Regions r : Regions.values()) {
-                model.add(r.getName(), r.getName());
-            }
-            return model;
+            return regionItems();
         }
     }
 
@@ -130,31 +199,62 @@ public class S3ItemStorage extends ItemStorage<S3ObjectPath> {
     public static final class S3ItemListener extends ItemListener {
         @Override
         public void onDeleted(Item item) {
-            S3ItemStorage s3Storage = lookupS3Storage();
+            for (S3ItemStorage s3Storage : GlobalItemStorage.get().getStorages(S3ItemStorage.class)) {
+                S3Profile profile = new S3Profile(s3Storage.lookupCredentials(), 5, 5L);
+                delete(s3Storage, profile, s3Storage.bucketName, item);
 
-            if (s3Storage == null) return;
+                for (S3Replica replica : s3Storage.getReplicas()) {
+                    profile = new S3Profile(s3Storage.lookupCredentials(), replica.getRegion(), 5, 5L);
+                    delete(s3Storage, profile, replica.getBucketName(), item);
+                }
+            }
+        }
+
+        private void delete(S3ItemStorage s3Storage, S3Profile profile, String bucketName, Item item) {
+            profile.delete(bucketName, item.getFullName());
+            if (!s3Storage.hashedKeys) {
+                return;
+            }
 
-            S3Profile profile = new S3Profile(s3Storage.lookupCredentials(), 5, 5L);
-            profile.delete(s3Storage.bucketName, item.getFullName());
+            // Hashed keys are not nested like the jobs of a folder are
+            try {
+                profile.delete(bucketName, new S3Keys(S3ObjectPath.getItemPrefix(item.getFullName(), true), true));
+                if (item instanceof ItemGroup) {
+                    for (Item child : Items.getAllItems((ItemGroup<?>) item, Item.class)) {
+                        profile.delete(bucketName, new S3Keys(S3ObjectPath.getItemPrefix(child.getFullName(), true), true));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete the caches of " + item.getFullName(), e);
+            }
         }
 
         @Override
         public void onLocationChanged(Item item, String oldFullName, String newFullName) {
-            S3ItemStorage s3Storage = lookupS3Storage();
+            for (S3ItemStorage s3Storage : GlobalItemStorage.get().getStorages(S3ItemStorage.class)) {
+                S3Profile profile = new S3Profile(s3Storage.lookupCredentials(), 5, 5L);
+                rename(s3Storage, profile, s3Storage.bucketName, oldFullName, newFullName);
 
-            if (s3Storage == null) return;
-
-            S3Profile profile = new S3Profile(s3Storage.lookupCredentials(), 5, 5L);
-            profile.rename(s3Storage.bucketName, oldFullName, newFullName);
+                for (S3Replica replica : s3Storage.getReplicas()) {
+                    profile = new S3Profile(s3Storage.lookupCredentials(), replica.getRegion(), 5, 5L);
+                    rename(s3Storage, profile, replica.getBucketName(), oldFullName, newFullName);
+                }
+            }
         }
 
-        private S3ItemStorage lookupS3Storage() {
-            ItemStorage storage = GlobalItemStorage.get().getStorage();
+        private void rename(S3ItemStorage s3Storage, S3Profile profile, String bucketName, String oldFullName, String newFullName) {
+            // Caches not saved since keys were hashed are still under the full name
+            profile.rename(bucketName, oldFullName, newFullName);
+
+            // The jobs of a renamed folder are moved when the change of their own location is reported
+            if (!s3Storage.hashedKeys) {
+                return;
+            }
 
-            if (storage instanceof S3ItemStorage) {
-                return (S3ItemStorage) storage;
-            } else {
-                return null;
+            try {
+                profile.rename(bucketName, new S3Keys(S3ObjectPath.getItemPrefix(oldFullName, true), true), new S3Keys(S3ObjectPath.getItemPrefix(newFullName, true), true));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to move the caches of " + oldFullName + " to " + newFullName, e);
             }
         }
     }
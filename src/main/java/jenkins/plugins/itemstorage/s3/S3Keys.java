@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import hudson.Util;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The keys of the objects of a cache in a bucket.  Each object has a plain key, the prefix of the cache followed by
+ * the relative path of the object.  Plain keys are also the keys the objects are stored under, so listing the prefix
+ * finds them.  Spread keys store each object under a short hash of its plain key followed by the plain key instead,
+ * so that even the objects of a single busy cache are spread over many prefixes S3 scales independently.  As no
+ * prefix covers them any more, a manifest stored under the prefix of the cache lists its objects:
+ *
+ * <pre>
+ * jobcacher-manifest 1
+ * &lt;size&gt; &lt;last modified&gt; &lt;relative path&gt;
+ * ...
+ * </pre>
+ *
+ * @author Peter Hayes
+ */
+final class S3Keys implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final String MANIFEST = ChunkedFiles.RESERVED_DIR + "/manifest";
+    private static final String HEADER = "jobcacher-manifest 1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // 65536 prefixes, far more than the busiest cache needs to stay below the request rate of a prefix
+    private static final int SPREAD_DIGITS = 4;
+
+    private final String prefix;
+    private final boolean spread;
+
+    /**
+     * @param prefix The prefix of the plain keys of the cache
+     * @param spread Whether objects are stored under spread keys listed in a manifest
+     */
+    S3Keys(String prefix, boolean spread) {
+        this.prefix = prefix;
+        this.spread = spread;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    boolean isSpread() {
+        return spread;
+    }
+
+    /**
+     * @param key The plain key of an object
+     * @return The key the object is stored under
+     */
+    String toObjectKey(String key) {
+        return spread ? Util.getDigestOf(key).substring(0, SPREAD_DIGITS) + "/" + key : key;
+    }
+
+    /**
+     * @return The objects of the cache by plain key, read from the manifest when keys are spread
+     */
+    Map<String, S3ObjectSummary> list(AmazonS3 s3, String bucketName) throws IOException {
+        Map<String, S3ObjectSummary> summaries = new LinkedHashMap<>();
+        if (!spread) {
+            ObjectListing listing = null;
+            do {
+                listing = listing == null ? s3.listObjects(bucketName, prefix + "/") : s3.listNextBatchOfObjects(listing);
+                for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                    summaries.put(summary.getKey(), summary);
+                }
+            } while (listing.isTruncated());
+            return summaries;
+        }
+
+        S3Object manifest;
+        try {
+            manifest = s3.getObject(bucketName, getManifestKey());
+        } catch (AmazonS3Exception e) {
+            // Nothing was saved yet
+            if (e.getStatusCode() == 404) return summaries;
+            throw e;
+        }
+
+        try (S3Object object = manifest) {
+            return decode(bucketName, object.getObjectContent());
+        }
+    }
+
+    /**
+     * Record the objects the cache holds once they are stored, which only spread keys need.  A cache without objects
+     * drops its manifest.
+     */
+    void commit(AmazonS3 s3, String bucketName, Collection<S3ObjectSummary> summaries) {
+        if (!spread) return;
+
+        if (summaries.isEmpty()) {
+            s3.deleteObject(bucketName, getManifestKey());
+            return;
+        }
+
+        byte[] encoded = encode(summaries);
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain");
+        metadata.setContentLength(encoded.length);
+        s3.putObject(bucketName, getManifestKey(), new ByteArrayInputStream(encoded), metadata);
+    }
+
+    /**
+     * @return The manifest listing the objects
+     */
+    byte[] encode(Collection<S3ObjectSummary> summaries) {
+        StringBuilder out = new StringBuilder(HEADER).append('\n');
+        for (S3ObjectSummary summary : summaries) {
+            out.append(summary.getSize()).append(' ').append(summary.getLastModified().getTime()).append(' ')
+                    .append(escape(summary.getKey().substring(prefix.length() + 1))).append('\n');
+        }
+        return out.toString().getBytes(UTF8);
+    }
+
+    /**
+     * @return The objects listed by the manifest by plain key
+     */
+    Map<String, S3ObjectSummary> decode(String bucketName, InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        if (!HEADER.equals(reader.readLine())) {
+            throw new IOException("Not a cache manifest: " + getManifestKey());
+        }
+
+        Map<String, S3ObjectSummary> summaries = new LinkedHashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+
+            String[] fields = line.split(" ", 3);
+            S3ObjectSummary summary = summary(bucketName, prefix + "/" + unescape(fields[2]), Long.parseLong(fields[0]), new Date(Long.parseLong(fields[1])));
+            summaries.put(summary.getKey(), summary);
+        }
+        return summaries;
+    }
+
+    /**
+     * @param prefix A prefix of plain keys, such as the hash of a job
+     * @return The spread keys of each cache with a manifest under the prefix
+     */
+    static List<S3Keys> find(AmazonS3 s3, String bucketName, String prefix) {
+        String suffix = "/" + MANIFEST;
+
+        List<S3Keys> caches = new ArrayList<>();
+        ObjectListing listing = null;
+        do {
+            listing = listing == null ? s3.listObjects(bucketName, prefix + "/") : s3.listNextBatchOfObjects(listing);
+            for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                if (summary.getKey().endsWith(suffix)) {
+                    caches.add(new S3Keys(summary.getKey().substring(0, summary.getKey().length() - suffix.length()), true));
+                }
+            }
+        } while (listing.isTruncated());
+        return caches;
+    }
+
+    /**
+     * @return The summary of an object to record in a manifest
+     */
+    static S3ObjectSummary summary(String bucketName, String key, long size, Date lastModified) {
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(bucketName);
+        summary.setKey(key);
+        summary.setSize(size);
+        summary.setLastModified(lastModified);
+        return summary;
+    }
+
+    private String getManifestKey() {
+        return prefix + "/" + MANIFEST;
+    }
+
+    static String escape(String path) {
+        // Line breaks would end the line of the path
+        return path.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String path) {
+        StringBuilder out = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\' && i + 1 < path.length()) {
+                c = path.charAt(++i);
+                c = c == 'n' ? '\n' : c == 'r' ? '\r' : c;
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+}
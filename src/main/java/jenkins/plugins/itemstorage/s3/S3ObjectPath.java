@@ -25,15 +25,23 @@
 package jenkins.plugins.itemstorage.s3;
 
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.Job;
+import jenkins.plugins.itemstorage.CacheLocks;
 import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.TransferResult;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.jelly.RedirectTag;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements ObjectPath API
@@ -41,49 +49,239 @@ import java.util.Collections;
  * @author Peter Hayes
  */
 public class S3ObjectPath extends ObjectPath {
+    // Paths saved before keys were hashed that are known to hold nothing any more, so each is looked for until moved
+    private static final Set<String> migrated = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private final S3Profile profile;
     private final String bucketName;
     private final String region;
     private final String fullName;
     private final String path;
+    private final List<S3ObjectPath> replicas;
+    private final boolean hashedKeys;
 
     public S3ObjectPath(S3Profile profile, String bucketName, String region, String fullName, String path) {
+        this(profile, bucketName, region, fullName, path, Collections.<S3ObjectPath>emptyList(), false);
+    }
+
+    /**
+     * @param replicas The same path in the replica buckets
+     * @param hashedKeys Whether keys start with the hash of the full name rather than the full name itself, and each
+     * object is stored under a short hash of its key ahead of that
+     */
+    S3ObjectPath(S3Profile profile, String bucketName, String region, String fullName, String path, List<S3ObjectPath> replicas, boolean hashedKeys) {
         this.profile = profile;
         this.bucketName = bucketName;
         this.region = region;
         this.fullName = fullName;
         this.path = path;
+        this.replicas = replicas;
+        this.hashedKeys = hashedKeys;
+    }
+
+    /**
+     * @return The key prefix of all paths of a job, the MD5 hash of its full name when keys are hashed so that the
+     * keys of the jobs of a folder do not all share the folder's prefix.  With hashed keys only the manifests of the
+     * caches are stored under it, see {@link S3Keys}.
+     */
+    static String getItemPrefix(String fullName, boolean hashedKeys) {
+        return hashedKeys ? Util.getDigestOf(fullName) : fullName;
     }
 
     @Override
     public S3ObjectPath child(String childPath) throws IOException, InterruptedException {
-        return new S3ObjectPath(profile, bucketName, region, fullName, path + "/" + childPath);
+        List<S3ObjectPath> children = new ArrayList<>();
+        for (S3ObjectPath replica : replicas) {
+            children.add(replica.child(childPath));
+        }
+        return new S3ObjectPath(profile, bucketName, region, fullName, path + "/" + childPath, children, hashedKeys);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        // A replica may not have received the cache yet
+        S3ObjectPath nearest = nearest(target);
+        if (nearest != this && nearest.exists()) {
+            return nearest.copyRecursiveTo(fileMask, excludes, target);
+        }
+
+        // Caches saved before keys were hashed stay under the full name until they are saved again
+        S3Keys keys = hasLegacy() && !profile.exists(bucketName, getPrefix()) ? getLegacyKeys() : getKeys();
+        return profile.download(bucketName, keys, fileMask, excludes, target);
     }
 
     @Override
-    public int copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
-        return profile.download(bucketName, fullName + "/" + path, fileMask, excludes, target);
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
     }
 
     @Override
-    public int copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
-        return profile.upload(bucketName, fullName + "/" + path, fileMask, excludes, source, Collections.EMPTY_MAP, null, false);
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        if (replicas.isEmpty()) {
+            migrate();
+            return profile.upload(bucketName, getKeys(), fileMask, excludes, filter, source, Collections.EMPTY_MAP, null, false, deleteMissing);
+        }
+
+        // Save to the nearest bucket and let the others catch up in the background
+        S3ObjectPath nearest = nearest(source);
+        nearest.migrate();
+        TransferResult result = nearest.profile.upload(nearest.bucketName, getKeys(), fileMask, excludes, filter, source, Collections.EMPTY_MAP, null, false, deleteMissing);
+
+        List<S3ObjectPath> others = new ArrayList<>();
+        for (S3ObjectPath location : getLocations()) {
+            if (location != nearest) {
+                others.add(location);
+            }
+        }
+        S3Replication.propagate(nearest, others);
+
+        return result;
     }
 
     @Override
     public boolean exists() throws IOException, InterruptedException {
-        return profile.exists(bucketName, fullName + "/" + path);
+        for (S3ObjectPath location : getLocations()) {
+            if (location.profile.exists(location.bucketName, getPrefix()) || location.hasLegacy()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public void deleteRecursive() throws IOException, InterruptedException {
-        profile.delete(bucketName, fullName + "/" + path);
+        for (S3ObjectPath location : getLocations()) {
+            location.profile.delete(location.bucketName, getKeys());
+            if (location.hasLegacy()) {
+                location.profile.delete(location.bucketName, getLegacyPrefix());
+                migrated.add(location.getLegacyKey());
+            }
+        }
+    }
+
+    /**
+     * Start making the same path in another bucket match this one, copying what it lacks.  Must be called while
+     * holding the read lock of the cache.
+     *
+     * @return The rest of the mirror, see {@link #finishMirror(S3Profile.Mirror)}
+     */
+    S3Profile.Mirror mirrorTo(S3ObjectPath target) throws IOException, InterruptedException {
+        return profile.mirror(bucketName, getKeys(), target.profile, target.bucketName);
+    }
+
+    /**
+     * Finish mirroring another bucket into this path, deleting what it no longer has along with any cache saved here
+     * before keys were hashed.  Must be called while holding the write lock of the cache.
+     */
+    void finishMirror(S3Profile.Mirror mirror) throws IOException {
+        mirror.finish();
+        migrate();
+    }
+
+    String getKey() {
+        return bucketName + "/" + getPrefix();
+    }
+
+    /**
+     * @return The key of the lock of the cache, see {@link CacheLocks}
+     */
+    String getOwner() {
+        return fullName;
+    }
+
+    String getPrefix() {
+        return getItemPrefix(fullName, hashedKeys) + "/" + path;
+    }
+
+    private S3Keys getKeys() {
+        return new S3Keys(getPrefix(), hashedKeys);
+    }
+
+    private String getLegacyPrefix() {
+        return fullName + "/" + path;
+    }
+
+    private S3Keys getLegacyKeys() {
+        return new S3Keys(getLegacyPrefix(), false);
+    }
+
+    private String getLegacyKey() {
+        return bucketName + "/" + getLegacyPrefix();
+    }
+
+    /**
+     * @return true if keys are hashed and the path still holds a cache saved before, which is only looked up until
+     * the path is found empty or migrated
+     */
+    private boolean hasLegacy() {
+        if (!hashedKeys || migrated.contains(getLegacyKey())) {
+            return false;
+        }
+        if (profile.exists(bucketName, getLegacyPrefix())) {
+            return true;
+        }
+        migrated.add(getLegacyKey());
+        return false;
+    }
+
+    /**
+     * Move a cache saved before keys were hashed to its hashed keys.  S3 copies the objects itself, and the save that
+     * follows then only uploads what changed.  A cache saved with hashed keys since supersedes the old one.
+     */
+    private void migrate() throws IOException {
+        if (!hasLegacy()) {
+            return;
+        }
+
+        if (profile.exists(bucketName, getPrefix())) {
+            profile.delete(bucketName, getLegacyPrefix());
+        } else {
+            profile.rename(bucketName, getLegacyKeys(), getKeys());
+        }
+        migrated.add(getLegacyKey());
+    }
+
+    /**
+     * Look for caches saved before keys were hashed again, as when keys stopped being hashed for a while
+     */
+    static void forgetMigrations() {
+        migrated.clear();
+    }
+
+    /**
+     * @param workspace A path on the node of the build
+     * @return The replica in the region of the node, or this path when there is none
+     */
+    private S3ObjectPath nearest(FilePath workspace) throws IOException, InterruptedException {
+        if (replicas.isEmpty()) {
+            return this;
+        }
+
+        String nodeRegion = NodeRegions.get(workspace);
+        for (S3ObjectPath replica : replicas) {
+            if (replica.region != null && replica.region.equals(nodeRegion) && !replica.region.equals(region)) {
+                return replica;
+            }
+        }
+        return this;
+    }
+
+    private List<S3ObjectPath> getLocations() {
+        List<S3ObjectPath> locations = new ArrayList<>();
+        locations.add(this);
+        locations.addAll(replicas);
+        return locations;
     }
 
     @Override
     public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
         // For now attempt to forward to s3 for browsing
-        response.sendRedirect2("https://console.aws.amazon.com/s3/home?region=" + region + "#&bucket=" + bucketName + "&prefix=" + fullName + "/" + path + "/");
+        response.sendRedirect2("https://console.aws.amazon.com/s3/home?region=" + region + "#&bucket=" + bucketName + "&prefix=" + getPrefix() + "/");
         return null;
     }
 }
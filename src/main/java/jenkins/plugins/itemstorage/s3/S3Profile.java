@@ -24,20 +24,39 @@
 
 package jenkins.plugins.itemstorage.s3;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
 import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Based on same named class in S3 Jenkins Plugin
@@ -47,18 +66,41 @@ import java.util.Map;
  * @author Peter Hayes
  */
 public class S3Profile {
+    /**
+     * The number of objects copied to another bucket at the same time
+     */
+    static final int COPY_THREADS = Integer.getInteger(S3Profile.class.getName() + ".copyThreads", 8);
+
+    // Larger objects can only be copied in parts
+    private static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final long COPY_PART_SIZE = 512L * 1024 * 1024;
+
+    // How far the clocks of S3 and the agents may be ahead of the master's
+    private static final long CLOCK_SKEW = 5L * 60 * 1000;
+
     private final ClientHelper helper;
     private final int maxRetries;
     private final long retryTime;
 
     @DataBoundConstructor
     public S3Profile(AmazonWebServicesCredentials credentials, Integer maxRetries, Long retryTime) {
-        this.helper = new ClientHelper(credentials != null ? credentials.getCredentials() : null, getProxy());
+        this(new ClientHelper(credentials != null ? credentials.getCredentials() : null, getProxy()), maxRetries, retryTime);
+    }
+
+    /**
+     * @param region The region of the buckets accessed, null to let the client find out
+     */
+    public S3Profile(AmazonWebServicesCredentials credentials, String region, Integer maxRetries, Long retryTime) {
+        this(new ClientHelper(credentials != null ? credentials.getCredentials() : null, region, getProxy()), maxRetries, retryTime);
+    }
+
+    public S3Profile(ClientHelper helper, Integer maxRetries, Long retryTime) {
+        this.helper = helper;
         this.maxRetries = maxRetries != null ? maxRetries : 5;
         this.retryTime = retryTime != null ? retryTime : 5L;
     }
 
-    public int upload(final String bucketName,
+    public TransferResult upload(final String bucketName,
                       final String path,
                       final String fileMask,
                       final String excludes,
@@ -66,15 +108,57 @@ public class S3Profile {
                       final Map<String, String> userMetadata,
                       final String storageClass,
                       final boolean useServerSideEncryption) throws IOException, InterruptedException {
-        FilePath.FileCallable<Integer> upload = new S3UploadAllCallable(
+        return upload(bucketName, path, fileMask, excludes, source, userMetadata, storageClass, useServerSideEncryption, false);
+    }
+
+    public TransferResult upload(final String bucketName,
+                      final String path,
+                      final String fileMask,
+                      final String excludes,
+                      final FilePath source,
+                      final Map<String, String> userMetadata,
+                      final String storageClass,
+                      final boolean useServerSideEncryption,
+                      final boolean deleteMissing) throws IOException, InterruptedException {
+        return upload(bucketName, path, fileMask, excludes, null, source, userMetadata, storageClass, useServerSideEncryption, deleteMissing);
+    }
+
+    public TransferResult upload(final String bucketName,
+                      final String path,
+                      final String fileMask,
+                      final String excludes,
+                      final PathFilter filter,
+                      final FilePath source,
+                      final Map<String, String> userMetadata,
+                      final String storageClass,
+                      final boolean useServerSideEncryption,
+                      final boolean deleteMissing) throws IOException, InterruptedException {
+        return upload(bucketName, new S3Keys(path, false), fileMask, excludes, filter, source, userMetadata, storageClass, useServerSideEncryption, deleteMissing);
+    }
+
+    TransferResult upload(final String bucketName,
+                      final S3Keys keys,
+                      final String fileMask,
+                      final String excludes,
+                      final PathFilter filter,
+                      final FilePath source,
+                      final Map<String, String> userMetadata,
+                      final String storageClass,
+                      final boolean useServerSideEncryption,
+                      final boolean deleteMissing) throws IOException, InterruptedException {
+        S3UploadAllCallable upload = new S3UploadAllCallable(
                 helper,
                 fileMask,
                 excludes,
+                filter,
                 bucketName,
-                path,
+                keys,
                 userMetadata,
                 storageClass,
-                useServerSideEncryption);
+                useServerSideEncryption,
+                ChunkedFiles.getThreshold(),
+                deleteMissing);
+        upload.setThrottle(TransferThrottles.get(source, true, source));
 
         return source.act(upload);
     }
@@ -85,8 +169,13 @@ public class S3Profile {
         return !objectListing.getObjectSummaries().isEmpty();
     }
 
-    public int download(String bucketName, String pathPrefix, String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
-        FilePath.FileCallable<Integer> download = new S3DownloadAllCallable(helper, fileMask, excludes, bucketName, pathPrefix);
+    public TransferResult download(String bucketName, String pathPrefix, String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        return download(bucketName, new S3Keys(pathPrefix, false), fileMask, excludes, target);
+    }
+
+    TransferResult download(String bucketName, S3Keys keys, String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        S3DownloadAllCallable download = new S3DownloadAllCallable(helper, fileMask, excludes, bucketName, keys);
+        download.setThrottle(TransferThrottles.get(target, false, target));
 
         return target.act(download);
     }
@@ -104,7 +193,10 @@ public class S3Profile {
             }
             req.withKeys(keys);
 
-            helper.client().deleteObjects(req);
+            // S3 rejects a request without keys
+            if (!keys.isEmpty()) {
+                helper.client().deleteObjects(req);
+            }
         } while (listing.isTruncated());
     }
 
@@ -122,7 +214,188 @@ public class S3Profile {
         } while (listing.isTruncated());
     }
 
-    private ProxyConfiguration getProxy() {
+    /**
+     * Delete the objects of the caches under a prefix.  Spread keys are found through the manifest of each cache.
+     */
+    void delete(String bucketName, S3Keys keys) throws IOException {
+        if (!keys.isSpread()) {
+            delete(bucketName, keys.getPrefix());
+            return;
+        }
+
+        AmazonS3 s3 = helper.client();
+        for (S3Keys cache : S3Keys.find(s3, bucketName, keys.getPrefix())) {
+            List<DeleteObjectsRequest.KeyVersion> objects = new ArrayList<>();
+            for (String key : cache.list(s3, bucketName).keySet()) {
+                objects.add(new DeleteObjectsRequest.KeyVersion(cache.toObjectKey(key)));
+            }
+            deleteObjects(bucketName, objects);
+            cache.commit(s3, bucketName, Collections.<S3ObjectSummary>emptyList());
+        }
+    }
+
+    /**
+     * Move the objects of the caches under a prefix to another prefix, possibly storing them under keys spread
+     * differently.  Spread keys are found through the manifest of each cache.  Plain keys moved to spread keys become
+     * a single cache, as when moving a cache saved before keys were spread.
+     */
+    void rename(String bucketName, S3Keys current, S3Keys renamed) throws IOException {
+        if (!current.isSpread() && !renamed.isSpread()) {
+            rename(bucketName, current.getPrefix(), renamed.getPrefix());
+            return;
+        }
+
+        AmazonS3 s3 = helper.client();
+        List<S3Keys> caches = current.isSpread() ? S3Keys.find(s3, bucketName, current.getPrefix()) : Collections.singletonList(current);
+        for (S3Keys cache : caches) {
+            S3Keys moved = new S3Keys(renamed.getPrefix() + cache.getPrefix().substring(current.getPrefix().length()), renamed.isSpread());
+
+            List<S3ObjectSummary> copies = new ArrayList<>();
+            List<DeleteObjectsRequest.KeyVersion> originals = new ArrayList<>();
+            for (S3ObjectSummary summary : cache.list(s3, bucketName).values()) {
+                String key = moved.getPrefix() + summary.getKey().substring(cache.getPrefix().length());
+                s3.copyObject(bucketName, cache.toObjectKey(summary.getKey()), bucketName, moved.toObjectKey(key));
+
+                copies.add(S3Keys.summary(bucketName, key, summary.getSize(), summary.getLastModified()));
+                originals.add(new DeleteObjectsRequest.KeyVersion(cache.toObjectKey(summary.getKey())));
+            }
+
+            // Record the copies before the originals go so that a move cut short loses nothing
+            moved.commit(s3, bucketName, copies);
+            deleteObjects(bucketName, originals);
+            cache.commit(s3, bucketName, Collections.<S3ObjectSummary>emptyList());
+        }
+    }
+
+    /**
+     * Make the objects of a cache in a bucket of another profile, possibly in another region, the same as the
+     * objects of the cache in a bucket of this profile.  Objects are copied by S3 itself so the data is not
+     * downloaded, and only objects that are missing or older there are copied.  Objects there that the source does
+     * not have are deleted, except any written since the mirror started, which no listing of the source covers.
+     * Deleting them and recording the objects in the manifest of the target is left to the returned mirror, as builds
+     * restoring from the target must not see objects go.
+     *
+     * @return What is left to finish the mirror
+     */
+    Mirror mirror(String bucketName, final S3Keys keys, final S3Profile target, final String targetBucketName) throws IOException, InterruptedException {
+        // Times of objects come from S3 or from the agent that saved them, not from this clock
+        Date listed = new Date(System.currentTimeMillis() - CLOCK_SKEW);
+        Map<String, S3ObjectSummary> existing = keys.list(target.helper.client(), targetBucketName);
+        Map<String, S3ObjectSummary> mirrored = keys.list(helper.client(), bucketName);
+
+        final String sourceBucketName = bucketName;
+        List<Future<?>> copies = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(COPY_THREADS);
+        try {
+            for (final S3ObjectSummary summary : mirrored.values()) {
+                S3ObjectSummary copy = existing.remove(summary.getKey());
+                if (copy != null && copy.getSize() == summary.getSize() && !summary.getLastModified().after(copy.getLastModified())) {
+                    continue;
+                }
+
+                copies.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        target.copy(S3Profile.this, sourceBucketName, keys.toObjectKey(summary.getKey()), summary.getSize(), targetBucketName);
+                    }
+                }));
+            }
+
+            for (Future<?> copy : copies) {
+                try {
+                    copy.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof AmazonClientException ? (AmazonClientException) e.getCause() : new AmazonClientException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Whatever is left was removed from the source, unless it was written after the source was listed
+        List<S3ObjectSummary> kept = new ArrayList<>(mirrored.values());
+        List<DeleteObjectsRequest.KeyVersion> removed = new ArrayList<>();
+        for (S3ObjectSummary summary : existing.values()) {
+            if (summary.getLastModified().after(listed)) {
+                kept.add(summary);
+            } else {
+                removed.add(new DeleteObjectsRequest.KeyVersion(keys.toObjectKey(summary.getKey())));
+            }
+        }
+        return new Mirror(keys, target, targetBucketName, kept, removed);
+    }
+
+    /**
+     * The end of a mirror, deleting the objects of the target the source does not have
+     */
+    static final class Mirror {
+        private final S3Keys keys;
+        private final S3Profile target;
+        private final String targetBucketName;
+        private final List<S3ObjectSummary> kept;
+        private final List<DeleteObjectsRequest.KeyVersion> removed;
+
+        private Mirror(S3Keys keys, S3Profile target, String targetBucketName, List<S3ObjectSummary> kept, List<DeleteObjectsRequest.KeyVersion> removed) {
+            this.keys = keys;
+            this.target = target;
+            this.targetBucketName = targetBucketName;
+            this.kept = kept;
+            this.removed = removed;
+        }
+
+        /**
+         * Must be called while holding the write lock of the cache
+         */
+        void finish() {
+            keys.commit(target.helper.client(), targetBucketName, kept);
+            target.deleteObjects(targetBucketName, removed);
+        }
+    }
+
+    private void deleteObjects(String bucketName, List<DeleteObjectsRequest.KeyVersion> keys) {
+        // Multi object delete takes at most a thousand keys per request
+        for (int i = 0; i < keys.size(); i += 1000) {
+            helper.client().deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(keys.subList(i, Math.min(i + 1000, keys.size()))));
+        }
+    }
+
+    /**
+     * Copy an object of a bucket of the source profile into a bucket of this profile under the same key
+     */
+    private void copy(S3Profile source, String sourceBucketName, String key, long size, String bucketName) {
+        if (size <= MAX_COPY_SIZE) {
+            helper.client().copyObject(new CopyObjectRequest(sourceBucketName, key, bucketName, key));
+            return;
+        }
+
+        // Only the user metadata and content type carry over, the rest describes the source object
+        ObjectMetadata sourceMetadata = source.helper.client().getObjectMetadata(sourceBucketName, key);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setUserMetadata(sourceMetadata.getUserMetadata());
+        metadata.setContentType(sourceMetadata.getContentType());
+
+        String uploadId = helper.client().initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, metadata)).getUploadId();
+        try {
+            List<PartETag> parts = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += COPY_PART_SIZE) {
+                parts.add(helper.client().copyPart(new CopyPartRequest()
+                        .withSourceBucketName(sourceBucketName)
+                        .withSourceKey(key)
+                        .withDestinationBucketName(bucketName)
+                        .withDestinationKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(parts.size() + 1)
+                        .withFirstByte(offset)
+                        .withLastByte(Math.min(offset + COPY_PART_SIZE, size) - 1)).getPartETag());
+            }
+            helper.client().completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, parts));
+        } catch (AmazonClientException e) {
+            helper.client().abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            throw e;
+        }
+    }
+
+    private static ProxyConfiguration getProxy() {
         return Jenkins.getActiveInstance().proxy;
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.s3;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.ListBoxModel;
+import jenkins.plugins.itemstorage.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The AWS region a node runs in, for nodes that cannot tell themselves, so that it uses the S3 replica in that region.
+ *
+ * @author Peter Hayes
+ */
+public class S3RegionNodeProperty extends NodeProperty<Node> {
+    private final String region;
+
+    @DataBoundConstructor
+    public S3RegionNodeProperty(String region) {
+        this.region = Util.fixEmptyAndTrim(region);
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends NodePropertyDescriptor {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.S3RegionNodeProperty_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public ListBoxModel doFillRegionItems() {
+            return S3ItemStorage.regionItems();
+        }
+    }
+}
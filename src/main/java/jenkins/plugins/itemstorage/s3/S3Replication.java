@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.s3;
+
+import com.amazonaws.AmazonClientException;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.plugins.itemstorage.CacheLocks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Propagates saved caches from the bucket they were saved to into the other replica buckets in the background.  A
+ * propagation copies under the read lock of the cache so that no save changes the cache while it is copied, and
+ * deletes what the source no longer has under the write lock, as builds restoring from the replica hold the read
+ * lock too.  It is dropped when the cache was saved again since, as that save propagates the newer cache itself.
+ *
+ * @author Peter Hayes
+ */
+final class S3Replication {
+    private static final Logger LOGGER = Logger.getLogger(S3Replication.class.getName());
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "S3 replication"));
+
+    // Paths waiting to be propagated, so that a burst of saves of the same cache is propagated once
+    private static final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // The last save of each path, a new instance for every save
+    private static final ConcurrentMap<String, Save> saves = new ConcurrentHashMap<>();
+
+    private S3Replication() {}
+
+    /**
+     * Propagate a path just saved to the other buckets, must be called while holding the write lock of the cache
+     *
+     * @param source The path the cache was saved to
+     * @param targets The same path in the other buckets
+     */
+    static void propagate(final S3ObjectPath source, final List<S3ObjectPath> targets) {
+        final String key = source.getKey();
+        saves.put(source.getPrefix(), new Save());
+        if (targets.isEmpty() || !pending.add(key)) {
+            return;
+        }
+
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // Saves from now on need another propagation
+                pending.remove(key);
+                Save save = saves.get(source.getPrefix());
+
+                ReadWriteLock lock = CacheLocks.get(source.getOwner());
+                for (S3ObjectPath target : targets) {
+                    try {
+                        // Mirroring an older save would delete what the newer one added
+                        S3Profile.Mirror mirror;
+                        lock.readLock().lockInterruptibly();
+                        try {
+                            if (saves.get(source.getPrefix()) != save) {
+                                return;
+                            }
+                            mirror = source.mirrorTo(target);
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+
+                        lock.writeLock().lockInterruptibly();
+                        try {
+                            if (saves.get(source.getPrefix()) != save) {
+                                return;
+                            }
+                            target.finishMirror(mirror);
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    } catch (AmazonClientException | IOException e) {
+                        LOGGER.log(Level.WARNING, "Unable to propagate " + key + " to " + target.getKey(), e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks a save, the mirror of a save is dropped once the path was saved again
+     */
+    private static final class Save {
+    }
+}
@@ -25,102 +25,372 @@
 package jenkins.plugins.itemstorage.s3;
 
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import hudson.remoting.VirtualChannel;
 import hudson.util.DirScanner;
 import hudson.util.FileVisitor;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.PathPatterns;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.chunking.Chunk;
+import jenkins.plugins.itemstorage.chunking.ChunkIndex;
+import jenkins.plugins.itemstorage.chunking.ChunkedFiles;
+import jenkins.plugins.itemstorage.chunking.FastCdc;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InterruptedIOException;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by hayep on 12/2/2016.
  */
-public class S3UploadAllCallable extends S3BaseUploadCallable<Integer> {
+public class S3UploadAllCallable extends S3BaseUploadCallable<TransferResult> {
     private static final long serialVersionUID = 1L;
     private String bucketName;
     private String pathPrefix;
-    private final DirScanner.Glob scanner;
+    private final S3Keys keys;
+    private final DirScanner scanner;
+    private final String fileMask;
+    private final long chunkThreshold;
+    private final boolean deleteMissing;
 
 
-    public S3UploadAllCallable(ClientHelper clientHelper, String fileMask, String excludes, String bucketName, String pathPrefix, Map<String, String> userMetadata, String storageClass, boolean useServerSideEncryption) {
+    public S3UploadAllCallable(ClientHelper clientHelper, String fileMask, String excludes, String bucketName, String pathPrefix, Map<String, String> userMetadata, String storageClass, boolean useServerSideEncryption, long chunkThreshold) {
+        this(clientHelper, fileMask, excludes, bucketName, pathPrefix, userMetadata, storageClass, useServerSideEncryption, chunkThreshold, false);
+    }
+
+    public S3UploadAllCallable(ClientHelper clientHelper, String fileMask, String excludes, String bucketName, String pathPrefix, Map<String, String> userMetadata, String storageClass, boolean useServerSideEncryption, long chunkThreshold, boolean deleteMissing) {
+        this(clientHelper, fileMask, excludes, null, bucketName, pathPrefix, userMetadata, storageClass, useServerSideEncryption, chunkThreshold, deleteMissing);
+    }
+
+    /**
+     * @param filter Which of the matching files to upload, null for all of them, the others count as missing
+     */
+    public S3UploadAllCallable(ClientHelper clientHelper, String fileMask, String excludes, PathFilter filter, String bucketName, String pathPrefix, Map<String, String> userMetadata, String storageClass, boolean useServerSideEncryption, long chunkThreshold, boolean deleteMissing) {
+        this(clientHelper, fileMask, excludes, filter, bucketName, new S3Keys(pathPrefix, false), userMetadata, storageClass, useServerSideEncryption, chunkThreshold, deleteMissing);
+    }
+
+    /**
+     * @param keys Where the objects of the cache are stored
+     */
+    S3UploadAllCallable(ClientHelper clientHelper, String fileMask, String excludes, PathFilter filter, String bucketName, S3Keys keys, Map<String, String> userMetadata, String storageClass, boolean useServerSideEncryption, long chunkThreshold, boolean deleteMissing) {
         super(clientHelper, userMetadata, storageClass, useServerSideEncryption);
         this.bucketName = bucketName;
-        this.pathPrefix = pathPrefix;
+        this.pathPrefix = keys.getPrefix();
+        this.keys = keys;
+        this.chunkThreshold = chunkThreshold;
+        this.deleteMissing = deleteMissing;
+        this.fileMask = fileMask;
 
-        scanner = new DirScanner.Glob(fileMask, excludes);
+        scanner = PathFilter.filter(new DirScanner.Glob(fileMask, excludes), filter);
     }
 
     /**
      * Upload from slave
      */
     @Override
-    public Integer invoke(final TransferManager transferManager, File base, VirtualChannel channel) throws IOException, InterruptedException {
-        if(!base.exists())  return 0;
+    public TransferResult invoke(final TransferManager transferManager, File base, VirtualChannel channel) throws IOException, InterruptedException {
+        final TransferResult result = new TransferResult();
+
+        if(!base.exists())  return result;
 
         final AtomicInteger count = new AtomicInteger(0);
         final Uploads uploads = new Uploads();
+        final Map<String, S3ObjectSummary> uploading = new HashMap<>();
+        final Map<String, File> largeFiles = new TreeMap<>();
+        final Set<String> present = new HashSet<>();
+        final Set<String> savedWhole = new HashSet<>();
+        final String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
 
-        final Map<String, S3ObjectSummary> summaries = lookupExistingCacheEntries(transferManager.getAmazonS3Client());
+        long start = System.nanoTime();
+        final Map<String, S3ObjectSummary> summaries = keys.list(transferManager.getAmazonS3Client(), bucketName);
+        result.addListNanos(System.nanoTime() - start);
 
         // Find files to upload that match scan
+        start = System.nanoTime();
         scanner.scan(base, new FileVisitor() {
             @Override
             public void visit(File f, String relativePath) throws IOException {
                 if (f.isFile()) {
-                    String key = pathPrefix + "/" + relativePath;
+                    present.add(relativePath.replace('\\', '/'));
+                }
+
+                if (ChunkedFiles.isChunked(f, chunkThreshold)) {
+                    largeFiles.put(relativePath.replace('\\', '/'), f);
+                } else if (f.isFile()) {
+                    String key = pathPrefix + "/" + relativePath.replace('\\', '/');
+                    if (summaries.containsKey(indexPrefix + relativePath.replace('\\', '/'))) {
+                        savedWhole.add(relativePath.replace('\\', '/'));
+                    }
 
                     S3ObjectSummary summary = summaries.get(key);
                     if (summary == null || f.lastModified() > summary.getLastModified().getTime()) {
                         final ObjectMetadata metadata = buildMetadata(f);
 
-                        uploads.startUploading(transferManager, f, IOUtils.toBufferedInputStream(FileUtils.openInputStream(f)), new Destination(bucketName, key), metadata);
+                        throttle(f.length());
+                        uploading.put(key, S3Keys.summary(bucketName, key, f.length(), new Date()));
+                        uploads.startUploading(transferManager, f, IOUtils.toBufferedInputStream(FileUtils.openInputStream(f)), new Destination(bucketName, keys.toObjectKey(key)), metadata);
+                        result.fileTransferred(f.length());
 
                         if (uploads.count() > 20) {
-                            waitForUploads(count, uploads);
+                            waitForUploads(count, uploads, uploading, summaries, result);
                         }
+                    } else {
+                        result.fileSkipped();
                     }
                 }
             }
         });
+        long scanAndTransfer = System.nanoTime() - start;
 
         // Wait for each file to complete before returning
-        waitForUploads(count, uploads);
+        waitForUploads(count, uploads, uploading, summaries, result);
+
+        // Time not spent waiting on uploads in the scan loop was spent scanning
+        result.addScanNanos(Math.max(0L, scanAndTransfer - result.getTransferNanos()));
+
+        Map<String, ChunkIndex> indexes = largeFiles.isEmpty() ? Collections.<String, ChunkIndex>emptyMap() :
+                uploadChunked(transferManager, largeFiles, summaries, result);
+
+        AmazonS3 s3 = transferManager.getAmazonS3Client();
+        start = System.nanoTime();
+        boolean indexesDeleted = deleteSuperseded(s3, summaries, savedWhole);
+        indexesDeleted |= deleteMissing && deleteMissing(s3, summaries, present, result);
+        if (!indexes.isEmpty() || indexesDeleted) {
+            pruneChunks(s3, summaries, indexes);
+        }
+        keys.commit(s3, bucketName, summaries.values());
+        result.addTransferNanos(System.nanoTime() - start);
+
+        return result;
+    }
+
+    /**
+     * Delete the indexes of files that were uploaded whole, because they shrank below the threshold or chunking is
+     * disabled, so that a download does not reassemble their old content over the newer copy
+     *
+     * @return true if an index was deleted so chunks may have become unreferenced
+     */
+    private boolean deleteSuperseded(AmazonS3 s3, Map<String, S3ObjectSummary> summaries, Set<String> savedWhole) {
+        String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
+
+        List<DeleteObjectsRequest.KeyVersion> superseded = new ArrayList<>();
+        for (String path : savedWhole) {
+            superseded.add(new DeleteObjectsRequest.KeyVersion(indexPrefix + path));
+
+            // Deleted indexes must not keep their chunks referenced when pruning
+            summaries.remove(indexPrefix + path);
+        }
 
-        return uploads.count();
+        deleteObjects(s3, superseded);
+        return !superseded.isEmpty();
     }
 
-    private Map<String,S3ObjectSummary> lookupExistingCacheEntries(AmazonS3 s3) {
-        Map<String,S3ObjectSummary> summaries = new HashMap<>();
+    /**
+     * Batch delete the files and chunk indexes matching the scan that are no longer in the workspace
+     *
+     * @return true if an index was deleted so chunks may have become unreferenced
+     */
+    private boolean deleteMissing(AmazonS3 s3, Map<String, S3ObjectSummary> summaries, Set<String> present, TransferResult result) {
+        String filePrefix = pathPrefix + "/";
+        String reservedPrefix = pathPrefix + "/" + ChunkedFiles.RESERVED_DIR + "/";
+        String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
+        PathPatterns covered = new PathPatterns(fileMask, null);
 
-        ObjectListing listing = s3.listObjects(bucketName, pathPrefix);
-        do {
-            for (S3ObjectSummary summary : listing.getObjectSummaries()) {
-                summaries.put(summary.getKey(), summary);
+        List<DeleteObjectsRequest.KeyVersion> missing = new ArrayList<>();
+        boolean indexesDeleted = false;
+        for (Iterator<String> keys = summaries.keySet().iterator(); keys.hasNext(); ) {
+            String key = keys.next();
+
+            String path;
+            if (key.startsWith(indexPrefix)) {
+                path = key.substring(indexPrefix.length());
+            } else if (key.startsWith(filePrefix) && !key.startsWith(reservedPrefix)) {
+                path = key.substring(filePrefix.length());
+            } else {
+                continue;
             }
-            listing = listing.isTruncated() ? s3.listNextBatchOfObjects(listing) : null;
-        } while (listing != null);
 
-        return summaries;
+            if (covered.matches(path) && !present.contains(path)) {
+                missing.add(new DeleteObjectsRequest.KeyVersion(key));
+                indexesDeleted |= key.startsWith(indexPrefix);
+                result.fileDeleted();
+
+                // Deleted indexes must not keep their chunks referenced when pruning
+                keys.remove();
+            }
+        }
+
+        deleteObjects(s3, missing);
+        return indexesDeleted;
     }
 
-    private void waitForUploads(AtomicInteger count, Uploads uploads) {
+    /**
+     * Upload the chunks of large files that are not in S3 yet followed by the index of each file
+     */
+    private Map<String, ChunkIndex> uploadChunked(TransferManager transferManager, Map<String, File> largeFiles, Map<String, S3ObjectSummary> summaries, TransferResult result) throws IOException {
+        AmazonS3 s3 = transferManager.getAmazonS3Client();
+        String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
+        String chunkPrefix = pathPrefix + "/" + ChunkedFiles.CHUNK_DIR + "/";
+
+        FastCdc cdc = new FastCdc();
+        Map<String, ChunkIndex> indexes = new TreeMap<>();
+        Set<String> uploaded = new HashSet<>();
+        File staging = ChunkedFiles.createStagingDir();
+
+        try {
+            AtomicInteger count = new AtomicInteger(0);
+            Uploads uploads = new Uploads();
+            Map<String, S3ObjectSummary> uploading = new HashMap<>();
+
+            for (Map.Entry<String, File> entry : largeFiles.entrySet()) {
+                File f = entry.getValue();
+
+                long start = System.nanoTime();
+                S3ObjectSummary summary = summaries.get(indexPrefix + entry.getKey());
+                if (summary != null && f.lastModified() <= summary.getLastModified().getTime()) {
+                    result.addScanNanos(System.nanoTime() - start);
+                    result.fileSkipped();
+                    continue;
+                }
+
+                ChunkIndex index = new ChunkIndex(f.length(), f.lastModified(), cdc.chunk(f));
+                indexes.put(entry.getKey(), index);
+
+                List<Chunk> missing = new ArrayList<>();
+                long bytes = 0L;
+                for (Chunk chunk : index.getChunks()) {
+                    if (!summaries.containsKey(chunkPrefix + ChunkedFiles.chunkPath(chunk.getHash())) && uploaded.add(chunk.getHash())) {
+                        missing.add(chunk);
+                        bytes += chunk.getLength();
+                    }
+                }
+                ChunkedFiles.stage(f, missing, staging);
+                result.addScanNanos(System.nanoTime() - start);
+
+                for (Chunk chunk : missing) {
+                    File staged = new File(staging, ChunkedFiles.chunkPath(chunk.getHash()));
+                    ObjectMetadata metadata = buildMetadata(staged);
+                    metadata.setContentType("application/octet-stream");
+
+                    throttle(staged.length());
+                    String key = chunkPrefix + ChunkedFiles.chunkPath(chunk.getHash());
+                    uploading.put(key, S3Keys.summary(bucketName, key, staged.length(), new Date()));
+                    uploads.startUploading(transferManager, staged, IOUtils.toBufferedInputStream(FileUtils.openInputStream(staged)), new Destination(bucketName, keys.toObjectKey(key)), metadata);
+
+                    if (uploads.count() > 20) {
+                        waitForUploads(count, uploads, uploading, summaries, result);
+                    }
+                }
+                result.fileTransferred(bytes);
+            }
+
+            // Only publish the indexes once every chunk they refer to is stored
+            waitForUploads(count, uploads, uploading, summaries, result);
+
+            long start = System.nanoTime();
+            for (Map.Entry<String, ChunkIndex> entry : indexes.entrySet()) {
+                byte[] encoded = entry.getValue().encode();
+
+                ObjectMetadata metadata = buildMetadata(largeFiles.get(entry.getKey()));
+                metadata.setContentType("text/plain");
+                metadata.setContentLength(encoded.length);
+
+                s3.putObject(bucketName, keys.toObjectKey(indexPrefix + entry.getKey()), new ByteArrayInputStream(encoded), metadata);
+                summaries.put(indexPrefix + entry.getKey(), S3Keys.summary(bucketName, indexPrefix + entry.getKey(), encoded.length, new Date()));
+
+                // A copy of the whole file from before it crossed the threshold is superseded
+                if (summaries.remove(pathPrefix + "/" + entry.getKey()) != null) {
+                    s3.deleteObject(bucketName, keys.toObjectKey(pathPrefix + "/" + entry.getKey()));
+                }
+            }
+
+            result.addTransferNanos(System.nanoTime() - start);
+            return indexes;
+        } finally {
+            FileUtils.deleteQuietly(staging);
+        }
+    }
+
+    /**
+     * Delete chunks that neither the new indexes nor the untouched ones refer to
+     */
+    private void pruneChunks(AmazonS3 s3, Map<String, S3ObjectSummary> summaries, Map<String, ChunkIndex> indexes) throws IOException {
+        String indexPrefix = pathPrefix + "/" + ChunkedFiles.INDEX_DIR + "/";
+        String chunkPrefix = pathPrefix + "/" + ChunkedFiles.CHUNK_DIR + "/";
+
+        Set<String> referenced = new HashSet<>();
+        for (ChunkIndex index : indexes.values()) {
+            for (Chunk chunk : index.getChunks()) {
+                referenced.add(chunkPrefix + ChunkedFiles.chunkPath(chunk.getHash()));
+            }
+        }
+
+        for (String key : summaries.keySet()) {
+            if (key.startsWith(indexPrefix) && !indexes.containsKey(key.substring(indexPrefix.length()))) {
+                try (S3Object object = s3.getObject(bucketName, keys.toObjectKey(key))) {
+                    for (Chunk chunk : ChunkIndex.decode(object.getObjectContent()).getChunks()) {
+                        referenced.add(chunkPrefix + ChunkedFiles.chunkPath(chunk.getHash()));
+                    }
+                }
+            }
+        }
+
+        List<DeleteObjectsRequest.KeyVersion> unreferenced = new ArrayList<>();
+        for (Iterator<String> keys = summaries.keySet().iterator(); keys.hasNext(); ) {
+            String key = keys.next();
+            if (key.startsWith(chunkPrefix) && !referenced.contains(key)) {
+                unreferenced.add(new DeleteObjectsRequest.KeyVersion(key));
+                keys.remove();
+            }
+        }
+
+        deleteObjects(s3, unreferenced);
+    }
+
+    /**
+     * @param plainKeys The plain keys of the objects, see {@link S3Keys}
+     */
+    private void deleteObjects(AmazonS3 s3, List<DeleteObjectsRequest.KeyVersion> plainKeys) {
+        List<DeleteObjectsRequest.KeyVersion> objectKeys = new ArrayList<>(plainKeys.size());
+        for (DeleteObjectsRequest.KeyVersion key : plainKeys) {
+            objectKeys.add(new DeleteObjectsRequest.KeyVersion(keys.toObjectKey(key.getKey())));
+        }
+
+        // Multi object delete takes at most a thousand keys per request
+        for (int i = 0; i < objectKeys.size(); i += 1000) {
+            s3.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(objectKeys.subList(i, Math.min(i + 1000, objectKeys.size()))));
+        }
+    }
+
+    /**
+     * @param uploading The summaries of the objects being uploaded, moved into the summaries once they are stored
+     * @throws InterruptedIOException if interrupted before every upload completed
+     */
+    private void waitForUploads(AtomicInteger count, Uploads uploads, Map<String, S3ObjectSummary> uploading, Map<String, S3ObjectSummary> summaries, TransferResult result) throws IOException {
         count.addAndGet(uploads.count());
 
+        long start = System.nanoTime();
         try {
             uploads.finishUploading();
+            summaries.putAll(uploading);
         } catch (InterruptedException ie) {
-            // clean up and bomb out
+            // clean up and bomb out, nothing may refer to objects that were not stored, neither indexes nor the manifest
             uploads.cleanup();
-            Thread.interrupted();
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while uploading to " + bucketName + "/" + pathPrefix).initCause(ie);
+        } finally {
+            uploading.clear();
+            result.addTransferNanos(System.nanoTime() - start);
         }
     }
 }
\ No newline at end of file
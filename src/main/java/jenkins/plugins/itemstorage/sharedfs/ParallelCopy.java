@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.sharedfs;
+
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies the files of a workspace that are missing or out of date between the workspace and the shared file system,
+ * running on the node holding the workspace and copying several files at once.  Files are written to a temporary file
+ * next to their destination and renamed into place so that a reader on another node never sees a partial file.
+ *
+ * @author Peter Hayes
+ */
+class ParallelCopy extends MasterToSlaveFileCallable<TransferResult> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of files copied at the same time
+     */
+    static final int THREADS = Integer.getInteger(ParallelCopy.class.getName() + ".threads", 8);
+
+    private static final String TEMP_PREFIX = ".jobcacher-";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String TEMP_EXCLUDES = "**/" + TEMP_PREFIX + "*" + TEMP_SUFFIX;
+
+    private final String mount;
+    private final String path;
+    private final String fileMask;
+    private final String excludes;
+    private final PathFilter filter;
+    private final boolean save;
+    private final boolean deleteMissing;
+    private final Throttle throttle;
+    private final int threads = THREADS;
+
+    /**
+     * @param mount The path the shared file system is mounted at on the node
+     * @param path The path of the cache relative to the mount
+     * @param filter Which of the matching files to copy, null for all of them
+     * @param save True to copy from the workspace to the file system, false to copy the other way
+     * @param deleteMissing When saving, delete the files matching the mask that are not in the workspace
+     * @param throttle Paces the copied files, null if the copy is not limited
+     */
+    ParallelCopy(String mount, String path, String fileMask, String excludes, PathFilter filter, boolean save, boolean deleteMissing, Throttle throttle) {
+        this.mount = mount;
+        this.path = path;
+        this.fileMask = fileMask;
+        this.excludes = excludes;
+        this.filter = filter;
+        this.save = save;
+        this.deleteMissing = deleteMissing;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public TransferResult invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        // Without this check an unmounted file system would look like an empty cache and saves would fill the node
+        if (!new File(mount).isDirectory()) {
+            throw new IOException("Shared file system " + mount + " is not mounted on this node");
+        }
+
+        File store = new File(mount, path);
+        File from = save ? workspace : store;
+        File to = save ? store : workspace;
+
+        TransferResult result = new TransferResult();
+        if (!from.isDirectory()) return result;
+
+        Set<String> present = copy(from, to, result);
+
+        // A missing workspace is more likely a build that did not get that far than one that removed everything
+        if (save && deleteMissing) {
+            long start = System.nanoTime();
+            deleteMissing(store, present, result);
+            result.addTransferNanos(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * @return The relative path of every file matching the scan
+     */
+    private Set<String> copy(File from, final File to, final TransferResult result) throws IOException, InterruptedException {
+        final Set<String> present = new HashSet<>();
+        final List<Future<Void>> copies = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            DirScanner scanner = new DirScanner.Glob(fileMask, save ? excludes : join(excludes, TEMP_EXCLUDES));
+            PathFilter.filter(scanner, filter).scan(from, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (!f.isFile()) return;
+
+                    present.add(relativePath.replace('\\', '/'));
+                    final File source = f;
+                    final File target = new File(to, relativePath);
+                    if (target.exists() && target.lastModified() >= f.lastModified()) {
+                        result.fileSkipped();
+                        return;
+                    }
+
+                    throttle(f.length(), relativePath);
+                    result.fileTransferred(f.length());
+                    copies.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            copyFile(source, target);
+                            return null;
+                        }
+                    }));
+                }
+            });
+            long scanned = System.nanoTime();
+            result.addScanNanos(scanned - start);
+
+            for (Future<Void> copy : copies) {
+                try {
+                    copy.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+            result.addTransferNanos(System.nanoTime() - scanned);
+        } finally {
+            executor.shutdownNow();
+        }
+        return present;
+    }
+
+    private void throttle(long bytes, String relativePath) throws IOException {
+        if (throttle == null) return;
+
+        try {
+            throttle.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling " + relativePath);
+        }
+    }
+
+    private static void copyFile(File source, File target) throws IOException {
+        Path dir = target.getParentFile().toPath();
+        Files.createDirectories(dir);
+
+        Path temp = Files.createTempFile(dir, TEMP_PREFIX, TEMP_SUFFIX);
+        try {
+            Files.copy(source.toPath(), temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        // Not every file system keeps the time through a copy and it decides what is up to date
+        if (!target.setLastModified(source.lastModified())) {
+            throw new IOException("Failed to set the modification time of " + target);
+        }
+    }
+
+    /**
+     * Delete the stored files matching the mask that were not in the workspace, because they are gone or excluded,
+     * then the directories left empty
+     */
+    private void deleteMissing(File store, final Set<String> present, final TransferResult result) throws IOException {
+        if (!store.isDirectory()) return;
+
+        final List<File> missing = new ArrayList<>();
+        new DirScanner.Glob(fileMask, TEMP_EXCLUDES).scan(store, new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                if (f.isFile() && !present.contains(relativePath.replace('\\', '/'))) {
+                    missing.add(f);
+                }
+            }
+        });
+
+        for (File f : missing) {
+            if (f.delete()) {
+                result.fileDeleted();
+            }
+        }
+        deleteEmptyDirectories(store, store);
+    }
+
+    private static void deleteEmptyDirectories(File dir, File store) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+
+        for (File child : children) {
+            // Never follow a stored link out of the store
+            if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                deleteEmptyDirectories(child, store);
+            }
+        }
+
+        String[] remaining = dir.list();
+        if (!dir.equals(store) && remaining != null && remaining.length == 0) {
+            dir.delete();
+        }
+    }
+
+    private static String join(String excludes, String more) {
+        return excludes == null || excludes.trim().isEmpty() ? more : excludes + "," + more;
+    }
+}
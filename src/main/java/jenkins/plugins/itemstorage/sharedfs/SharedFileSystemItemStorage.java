@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.sharedfs;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.listeners.ItemListener;
+import hudson.util.FormValidation;
+import jenkins.plugins.itemstorage.GlobalItemStorage;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of Item Storage on a file system that the master and all agents mount, such as NFS or CephFS.
+ * Caches are copied between the workspace and the mount on the agent itself so the data never passes through the
+ * master, which only coordinates.
+ *
+ * @author Peter Hayes
+ */
+public class SharedFileSystemItemStorage extends ItemStorage<SharedFileSystemObjectPath> {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(SharedFileSystemItemStorage.class.getName());
+
+    static final String ITEMS_DIR = "items";
+    static final String SHARED_DIR = "shared";
+
+    private final String path;
+    private List<PathMapping> pathMappings = new ArrayList<>();
+
+    @DataBoundConstructor
+    public SharedFileSystemItemStorage(String path) {
+        this.path = Util.fixEmptyAndTrim(path);
+    }
+
+    /**
+     * @return The path the file system is mounted at on the master and on nodes without a mapping
+     */
+    @SuppressWarnings("unused")
+    public String getPath() {
+        return path;
+    }
+
+    @SuppressWarnings("unused")
+    public List<PathMapping> getPathMappings() {
+        return pathMappings == null ? Collections.<PathMapping>emptyList() : Collections.unmodifiableList(pathMappings);
+    }
+
+    @DataBoundSetter
+    public void setPathMappings(List<PathMapping> pathMappings) {
+        this.pathMappings = pathMappings == null ? new ArrayList<PathMapping>() : new ArrayList<>(pathMappings);
+    }
+
+    @Override
+    public SharedFileSystemObjectPath getObjectPath(Item item, String path) {
+        return new SharedFileSystemObjectPath(this, ITEMS_DIR + "/" + item.getFullName() + "/" + path);
+    }
+
+    @Override
+    public boolean supportsSharedCaches() {
+        return true;
+    }
+
+    @Override
+    public SharedFileSystemObjectPath getSharedObjectPath(String name, String path) {
+        return new SharedFileSystemObjectPath(this, SHARED_DIR + "/" + name + "/" + path);
+    }
+
+    /**
+     * @param workspace A path on the node
+     * @return The path the file system is mounted at on that node
+     */
+    String getMountPath(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        if (node != null) {
+            for (PathMapping mapping : getPathMappings()) {
+                if (mapping.matches(node)) {
+                    return mapping.getPath();
+                }
+            }
+        }
+        return path;
+    }
+
+    private FilePath getItemDir(String fullName) {
+        return new FilePath(new File(new File(path, ITEMS_DIR), fullName));
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ItemStorageDescriptor {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.SharedFileSystemItemStorage_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckPath(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.error("The mount path is required");
+            }
+            if (!new File(value.trim()).isDirectory()) {
+                return FormValidation.warning("The path is not a directory on the master");
+            }
+            return FormValidation.ok();
+        }
+    }
+
+    @Extension
+    public static final class SharedFileSystemItemListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            for (SharedFileSystemItemStorage storage : GlobalItemStorage.get().getStorages(SharedFileSystemItemStorage.class)) {
+                try {
+                    storage.getItemDir(item.getFullName()).deleteRecursive();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Failed to delete the caches of " + item.getFullName(), e);
+                }
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            for (SharedFileSystemItemStorage storage : GlobalItemStorage.get().getStorages(SharedFileSystemItemStorage.class)) {
+                try {
+                    FilePath from = storage.getItemDir(oldFullName);
+                    if (from.exists()) {
+                        FilePath to = storage.getItemDir(newFullName);
+                        to.getParent().mkdirs();
+                        from.renameTo(to);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Failed to move the caches of " + oldFullName + " to " + newFullName, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.sharedfs;
+
+import hudson.FilePath;
+import hudson.model.DirectoryBrowserSupport;
+import hudson.model.Job;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * An object path on the shared file system.  Copies run on the node holding the workspace against its own mount of
+ * the file system, the master only touches its mount to check, delete and browse caches.
+ *
+ * @author Peter Hayes
+ */
+public class SharedFileSystemObjectPath extends ObjectPath {
+    private static final Logger LOGGER = Logger.getLogger(SharedFileSystemObjectPath.class.getName());
+
+    private final SharedFileSystemItemStorage storage;
+    private final String path;
+
+    public SharedFileSystemObjectPath(SharedFileSystemItemStorage storage, String path) {
+        this.storage = storage;
+        this.path = path;
+    }
+
+    @Override
+    public ObjectPath child(String path) throws IOException, InterruptedException {
+        return new SharedFileSystemObjectPath(storage, this.path + "/" + path);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        String mount = storage.getMountPath(target);
+        LOGGER.info("Copying from " + mount + "/" + path + " to " + target);
+
+        return target.act(new ParallelCopy(mount, path, fileMask, excludes, null, false, false,
+                TransferThrottles.get(target, false, target)));
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        String mount = storage.getMountPath(source);
+        LOGGER.info("Copying from " + source + " to " + mount + "/" + path);
+
+        return source.act(new ParallelCopy(mount, path, fileMask, excludes, filter, true, deleteMissing,
+                TransferThrottles.get(source, true, source)));
+    }
+
+    private FilePath getFile() {
+        return new FilePath(new File(storage.getPath(), path));
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        return getFile().exists();
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        getFile().deleteRecursive();
+    }
+
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) {
+        return new DirectoryBrowserSupport(job, getFile(), "Cache of " + name, "folder.png", true);
+    }
+}
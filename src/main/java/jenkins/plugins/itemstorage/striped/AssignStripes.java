@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.striped;
+
+import jenkins.plugins.itemstorage.PathFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accepts the files assigned to one stripe, assigning each file to a stripe by rendezvous hashing of its path, so
+ * that adding or removing a stripe only moves the files assigned to that stripe.  The assignment is made on the exact
+ * path wherever the source is scanned, so each stripe saves its share without knowing the files of the others.
+ *
+ * @author Peter Hayes
+ */
+class AssignStripes extends PathFilter {
+    private static final long serialVersionUID = 1L;
+
+    private final String stripe;
+    private final List<String> stripes;
+    private final PathFilter filter;
+
+    /**
+     * @param stripe The name of the stripe to accept the files of
+     * @param stripes The names of the stripes files may be assigned to
+     * @param filter The filter of the save, null to accept everything
+     */
+    AssignStripes(String stripe, List<String> stripes, PathFilter filter) {
+        this.stripe = stripe;
+        this.stripes = new ArrayList<>(stripes);
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean accepts(String path) {
+        return PathFilter.accepts(filter, path) && stripe.equals(assign(path, stripes));
+    }
+
+    static String assign(String path, List<String> stripes) {
+        String assigned = null;
+        long best = 0;
+        for (String stripe : stripes) {
+            long score = score(stripe, path);
+            if (assigned == null || score > best) {
+                assigned = stripe;
+                best = score;
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * 64 bit FNV-1a of the stripe and path, mixed so that every bit depends on every character
+     */
+    private static long score(String stripe, String path) {
+        long hash = 0xcbf29ce484222325L;
+        String key = stripe + '\0' + path;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
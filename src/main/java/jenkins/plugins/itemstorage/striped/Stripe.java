@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.striped;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One of the storages a striped storage spreads the files of caches over.  The name, not the position, decides which
+ * files the stripe holds so that stripes can be reordered, and adding or removing one only moves the files of that
+ * stripe.
+ *
+ * @author Peter Hayes
+ */
+public class Stripe extends AbstractDescribableImpl<Stripe> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final ItemStorage<?> storage;
+    private boolean draining;
+
+    @DataBoundConstructor
+    public Stripe(String name, ItemStorage<?> storage) {
+        this.name = Util.fixEmptyAndTrim(name);
+        this.storage = storage;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ItemStorage<?> getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return True if the stripe is being emptied before it is removed: it is still restored from but saves move its
+     * files to the other stripes
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    @DataBoundSetter
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<Stripe> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.Stripe_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public List<ItemStorageDescriptor> getStorageDescriptors() {
+            return ItemStorageDescriptor.getComponentDescriptors();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckName(@QueryParameter String value) {
+            return FormValidation.validateRequired(value);
+        }
+    }
+}
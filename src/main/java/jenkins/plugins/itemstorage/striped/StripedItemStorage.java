@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.striped;
+
+import hudson.Extension;
+import hudson.model.Item;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import jenkins.plugins.itemstorage.ObjectPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Implementation of Item Storage that spreads the files of every cache over several storages, such as several
+ * buckets or volumes, by a hash of their path, and transfers all of them at the same time so that a restore or save is
+ * not limited by the throughput of a single one.
+ *
+ * @author Peter Hayes
+ */
+public class StripedItemStorage extends ItemStorage<StripedObjectPath> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Stripe> stripes;
+
+    @DataBoundConstructor
+    public StripedItemStorage(List<Stripe> stripes) {
+        this.stripes = stripes == null ? new ArrayList<Stripe>() : new ArrayList<>(stripes);
+    }
+
+    public List<Stripe> getStripes() {
+        return Collections.unmodifiableList(getValidStripes());
+    }
+
+    @Override
+    public StripedObjectPath getObjectPath(Item item, String path) {
+        List<Stripe> valid = getValidStripes();
+        List<ObjectPath> paths = new ArrayList<>();
+        for (Stripe stripe : valid) {
+            paths.add(stripe.getStorage().getObjectPath(item, path));
+        }
+        return new StripedObjectPath(valid, paths);
+    }
+
+    @Override
+    public StripedObjectPath getSharedObjectPath(String name, String path) {
+        List<Stripe> valid = getValidStripes();
+        List<ObjectPath> paths = new ArrayList<>();
+        for (Stripe stripe : valid) {
+            paths.add(stripe.getStorage().getSharedObjectPath(name, path));
+        }
+        return new StripedObjectPath(valid, paths);
+    }
+
+    @Override
+    public List<ItemStorage<?>> getComponents() {
+        List<ItemStorage<?>> storages = new ArrayList<>();
+        for (Stripe stripe : getValidStripes()) {
+            storages.add(stripe.getStorage());
+        }
+        return storages;
+    }
+
+    /**
+     * @return The stripes with a name and a storage, the first of stripes sharing a name
+     */
+    private List<Stripe> getValidStripes() {
+        List<Stripe> valid = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Stripe stripe : stripes) {
+            if (stripe.getName() != null && stripe.getStorage() != null && names.add(stripe.getName())) {
+                valid.add(stripe);
+            }
+        }
+        return valid;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ItemStorageDescriptor {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.StripedItemStorage_DisplayName();
+        }
+
+        @Override
+        public boolean isComposite() {
+            return true;
+        }
+    }
+}
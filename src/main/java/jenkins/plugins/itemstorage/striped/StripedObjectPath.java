@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.striped;
+
+import hudson.FilePath;
+import hudson.model.Job;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Object path that restores from and saves to all the stripes at the same time.  Every save makes each stripe hold
+ * exactly the files assigned to it, so the stripes never hold the same file and can be restored at the same time.
+ *
+ * @author Peter Hayes
+ */
+public class StripedObjectPath extends ObjectPath {
+    private final List<Stripe> stripes;
+    private final List<ObjectPath> paths;
+
+    StripedObjectPath(List<Stripe> stripes, List<ObjectPath> paths) {
+        this.stripes = stripes;
+        this.paths = paths;
+    }
+
+    @Override
+    public StripedObjectPath child(String path) throws IOException, InterruptedException {
+        List<ObjectPath> children = new ArrayList<>();
+        for (ObjectPath stripePath : paths) {
+            children.add(stripePath.child(path));
+        }
+        return new StripedObjectPath(stripes, children);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(final String fileMask, final String excludes, final FilePath target) throws IOException, InterruptedException {
+        List<Callable<TransferResult>> restores = new ArrayList<>();
+        for (final ObjectPath stripePath : paths) {
+            restores.add(new Callable<TransferResult>() {
+                @Override
+                public TransferResult call() throws IOException, InterruptedException {
+                    // Stripes added since the cache was last saved do not hold anything yet
+                    return stripePath.exists() ? stripePath.copyRecursiveTo(fileMask, excludes, target) : new TransferResult();
+                }
+            });
+        }
+        return runAll(restores);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    /**
+     * Stripes always drop the files that are no longer in the source, as if deleteMissing were set, since a file left
+     * in a stripe it is no longer assigned to could be restored over its newer copy in another stripe.
+     */
+    @Override
+    public TransferResult copyRecursiveFrom(final String fileMask, final String excludes, final FilePath source, boolean deleteMissing, final PathFilter filter) throws IOException, InterruptedException {
+        // A missing source is more likely a build that did not get that far than one that removed everything
+        if (paths.isEmpty() || !source.exists()) {
+            return new TransferResult();
+        }
+
+        List<String> active = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            if (!stripe.isDraining()) {
+                active.add(stripe.getName());
+            }
+        }
+        if (active.isEmpty()) {
+            throw new IOException("Every stripe is draining, there is nowhere to save the cache");
+        }
+
+        List<Callable<TransferResult>> saves = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            final ObjectPath stripePath = paths.get(i);
+            final PathFilter stripeFilter = new AssignStripes(stripes.get(i).getName(), active, filter);
+            saves.add(new Callable<TransferResult>() {
+                @Override
+                public TransferResult call() throws IOException, InterruptedException {
+                    return stripePath.copyRecursiveFrom(fileMask, excludes, source, true, stripeFilter);
+                }
+            });
+        }
+        return runAll(saves);
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        for (ObjectPath stripePath : paths) {
+            if (stripePath.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        for (ObjectPath stripePath : paths) {
+            stripePath.deleteRecursive();
+        }
+    }
+
+    /**
+     * Only shows the files of the first stripe holding any
+     */
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+        try {
+            for (ObjectPath stripePath : paths) {
+                if (stripePath.exists()) {
+                    return stripePath.browse(request, response, job, name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return paths.isEmpty() ? null : paths.get(0).browse(request, response, job, name);
+    }
+
+    private static TransferResult runAll(List<Callable<TransferResult>> transfers) throws IOException, InterruptedException {
+        TransferResult result = new TransferResult();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, transfers.size()));
+        try {
+            List<Future<TransferResult>> futures = new ArrayList<>();
+            for (Callable<TransferResult> transfer : transfers) {
+                futures.add(executor.submit(transfer));
+            }
+            for (Future<TransferResult> future : futures) {
+                try {
+                    result.add(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+}
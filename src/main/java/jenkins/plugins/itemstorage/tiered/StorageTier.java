@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.tiered;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One tier of a tiered storage and how many caches it may hold.
+ *
+ * @author Peter Hayes
+ */
+public class StorageTier extends AbstractDescribableImpl<StorageTier> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ItemStorage<?> storage;
+    private int maxCaches;
+
+    @DataBoundConstructor
+    public StorageTier(ItemStorage<?> storage) {
+        this.storage = storage;
+    }
+
+    public ItemStorage<?> getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return The number of caches this tier holds before the least recently used are moved down, 0 for no limit
+     */
+    public int getMaxCaches() {
+        return maxCaches;
+    }
+
+    @DataBoundSetter
+    public void setMaxCaches(int maxCaches) {
+        this.maxCaches = Math.max(0, maxCaches);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<StorageTier> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.StorageTier_DisplayName();
+        }
+
+        @SuppressWarnings("unused")
+        public List<ItemStorageDescriptor> getStorageDescriptors() {
+            return ItemStorageDescriptor.getComponentDescriptors();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxCaches(@QueryParameter int value) {
+            return value < 0 ? FormValidation.error("The number of caches cannot be negative") : FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.tiered;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers, across restarts, which caches each tier holds and when they were last restored or saved, so that the
+ * least recently used caches can be moved down once a tier holds too many.  Caches are keyed by their owner, the item
+ * full name or the shared location, and their path separated by a colon, which item names cannot contain.
+ *
+ * @author Peter Hayes
+ */
+final class TierIndex {
+    private static final Logger LOG = Logger.getLogger(TierIndex.class.getName());
+
+    private static List<TreeMap<String, Long>> tiers;
+
+    private TierIndex() {}
+
+    static String key(String owner, String path) {
+        return owner + ":" + path;
+    }
+
+    static String owner(String key) {
+        return key.substring(0, key.indexOf(':'));
+    }
+
+    static String path(String key) {
+        return key.substring(key.indexOf(':') + 1);
+    }
+
+    /**
+     * Record that a tier holds a cache that was just used
+     */
+    static synchronized void touch(int tier, String key) {
+        get(tier).put(key, System.currentTimeMillis());
+        save();
+    }
+
+    static synchronized void remove(int tier, String key) {
+        get(tier).remove(key);
+        save();
+    }
+
+    /**
+     * @return The least recently used caches of a tier beyond the number it may hold, least recent first
+     */
+    static synchronized List<String> overflow(int tier, int max) {
+        final Map<String, Long> caches = get(tier);
+        if (max <= 0 || caches.size() <= max) {
+            return Collections.emptyList();
+        }
+
+        List<String> keys = new ArrayList<>(caches.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return caches.get(a).compareTo(caches.get(b));
+            }
+        });
+        return keys.subList(0, keys.size() - max);
+    }
+
+    /**
+     * Forget the caches at or below a path in every tier
+     */
+    static synchronized void removeAll(String owner, String path) {
+        String key = key(owner, path);
+        for (int tier = 0; tier < load().size(); tier++) {
+            Iterator<String> keys = get(tier).keySet().iterator();
+            while (keys.hasNext()) {
+                String candidate = keys.next();
+                if (candidate.equals(key) || candidate.startsWith(key + "/")) {
+                    keys.remove();
+                }
+            }
+        }
+        save();
+    }
+
+    /**
+     * Forget the caches of an item and of the items within it in every tier
+     */
+    static synchronized void removeOwner(String fullName) {
+        for (int tier = 0; tier < load().size(); tier++) {
+            Iterator<String> keys = get(tier).keySet().iterator();
+            while (keys.hasNext()) {
+                if (isOwnedBy(owner(keys.next()), fullName)) {
+                    keys.remove();
+                }
+            }
+        }
+        save();
+    }
+
+    /**
+     * Follow an item, and the items within it, to a new full name in every tier
+     */
+    static synchronized void renameOwner(String oldFullName, String newFullName) {
+        for (int tier = 0; tier < load().size(); tier++) {
+            TreeMap<String, Long> caches = get(tier);
+            for (String key : new ArrayList<>(caches.keySet())) {
+                String owner = owner(key);
+                if (isOwnedBy(owner, oldFullName)) {
+                    caches.put(key(newFullName + owner.substring(oldFullName.length()), path(key)), caches.remove(key));
+                }
+            }
+        }
+        save();
+    }
+
+    private static boolean isOwnedBy(String owner, String fullName) {
+        return owner.equals(fullName) || owner.startsWith(fullName + "/");
+    }
+
+    private static TreeMap<String, Long> get(int tier) {
+        List<TreeMap<String, Long>> loaded = load();
+        while (loaded.size() <= tier) {
+            loaded.add(new TreeMap<String, Long>());
+        }
+        return loaded.get(tier);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<TreeMap<String, Long>> load() {
+        if (tiers == null) {
+            tiers = new ArrayList<>();
+
+            Jenkins jenkins = Jenkins.getInstance();
+            XmlFile file = jenkins == null ? null : getFile(jenkins);
+            if (file != null && file.exists()) {
+                try {
+                    tiers.addAll((List<TreeMap<String, Long>>) file.read());
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Unable to read " + file + ", caches already in the tiers will not be moved down", e);
+                }
+            }
+        }
+        return tiers;
+    }
+
+    private static void save() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            try {
+                getFile(jenkins).write(tiers);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to write the tier index", e);
+            }
+        }
+    }
+
+    private static XmlFile getFile(Jenkins jenkins) {
+        return new XmlFile(new File(jenkins.getRootDir(), TierIndex.class.getName() + ".xml"));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.tiered;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.GlobalItemStorage;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ItemStorageDescriptor;
+import jenkins.plugins.itemstorage.Messages;
+import jenkins.plugins.itemstorage.ObjectPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implementation of Item Storage that layers storages as tiers, for example the master's disk as a small and fast
+ * tier in front of S3 as a large and durable one.  Restores read from the first tier holding the cache and move it up
+ * to the first tier in the background.  Saves go to the first tier and either also to the others straight away or to
+ * the others in the background.  Tiers that hold too many caches move the least recently used down to the next tier.
+ *
+ * @author Peter Hayes
+ */
+public class TieredItemStorage extends ItemStorage<TieredObjectPath> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<StorageTier> tiers;
+    private boolean writeBack;
+
+    @DataBoundConstructor
+    public TieredItemStorage(List<StorageTier> tiers) {
+        this.tiers = tiers == null ? new ArrayList<StorageTier>() : new ArrayList<>(tiers);
+    }
+
+    /**
+     * @return The tiers from the fastest to the most durable
+     */
+    public List<StorageTier> getTiers() {
+        return Collections.unmodifiableList(getValidTiers());
+    }
+
+    /**
+     * @return True if saves only go to the first tier and are copied to the others in the background
+     */
+    public boolean isWriteBack() {
+        return writeBack;
+    }
+
+    @DataBoundSetter
+    public void setWriteBack(boolean writeBack) {
+        this.writeBack = writeBack;
+    }
+
+    @Override
+    public TieredObjectPath getObjectPath(Item item, String path) {
+        return new TieredObjectPath(this, item.getFullName(), path);
+    }
+
+    @Override
+    public TieredObjectPath getSharedObjectPath(String name, String path) {
+        return new TieredObjectPath(this, CacheLocks.SHARED_PREFIX + name, path);
+    }
+
+    @Override
+    public List<ItemStorage<?>> getComponents() {
+        List<ItemStorage<?>> storages = new ArrayList<>();
+        for (StorageTier tier : getValidTiers()) {
+            storages.add(tier.getStorage());
+        }
+        return storages;
+    }
+
+    /**
+     * @param owner The item full name or the shared location
+     * @param path The path scoped by the owner
+     * @return The path in every tier, null if the item no longer exists
+     */
+    List<ObjectPath> getTierPaths(String owner, String path) {
+        Item item = null;
+        if (!owner.startsWith(CacheLocks.SHARED_PREFIX)) {
+            item = Jenkins.getActiveInstance().getItemByFullName(owner);
+            if (item == null) {
+                return null;
+            }
+        }
+
+        List<ObjectPath> paths = new ArrayList<>();
+        for (StorageTier tier : getValidTiers()) {
+            paths.add(item == null
+                    ? tier.getStorage().getSharedObjectPath(owner.substring(CacheLocks.SHARED_PREFIX.length()), path)
+                    : tier.getStorage().getObjectPath(item, path));
+        }
+        return paths;
+    }
+
+    /**
+     * @return The number of caches each tier may hold, 0 for no limit and always 0 for the last tier
+     */
+    int[] getMaxCaches() {
+        List<StorageTier> valid = getValidTiers();
+        int[] maxCaches = new int[valid.size()];
+        for (int i = 0; i < valid.size() - 1; i++) {
+            maxCaches[i] = valid.get(i).getMaxCaches();
+        }
+        return maxCaches;
+    }
+
+    private List<StorageTier> getValidTiers() {
+        List<StorageTier> valid = new ArrayList<>();
+        for (StorageTier tier : tiers) {
+            if (tier.getStorage() != null) {
+                valid.add(tier);
+            }
+        }
+        return valid;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ItemStorageDescriptor {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.TieredItemStorage_DisplayName();
+        }
+
+        @Override
+        public boolean isComposite() {
+            return true;
+        }
+    }
+
+    @Extension
+    public static final class TieredItemListener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            if (GlobalItemStorage.get().getStorages(TieredItemStorage.class).isEmpty()) return;
+
+            TierIndex.removeOwner(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (GlobalItemStorage.get().getStorages(TieredItemStorage.class).isEmpty()) return;
+
+            TierIndex.renameOwner(oldFullName, newFullName);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.tiered;
+
+import hudson.FilePath;
+import hudson.model.Job;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.StorageCopier;
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Object path that restores from the first tier holding the cache and saves to the first tier
+ *
+ * @author Peter Hayes
+ */
+public class TieredObjectPath extends ObjectPath {
+    private final TieredItemStorage storage;
+    private final String owner;
+    private final String path;
+    private final List<ObjectPath> tierPaths;
+
+    TieredObjectPath(TieredItemStorage storage, String owner, String path) {
+        this(storage, owner, path, storage.getTierPaths(owner, path));
+    }
+
+    private TieredObjectPath(TieredItemStorage storage, String owner, String path, List<ObjectPath> tierPaths) {
+        this.storage = storage;
+        this.owner = owner;
+        this.path = path;
+        this.tierPaths = tierPaths == null ? Collections.<ObjectPath>emptyList() : tierPaths;
+    }
+
+    @Override
+    public TieredObjectPath child(String child) throws IOException, InterruptedException {
+        return new TieredObjectPath(storage, owner, path + "/" + child);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        for (int tier = 0; tier < tierPaths.size(); tier++) {
+            if (tierPaths.get(tier).exists()) {
+                TransferResult result = tierPaths.get(tier).copyRecursiveTo(fileMask, excludes, target);
+                TierIndex.touch(tier, getKey());
+                if (tier > 0) {
+                    promote(tier);
+                }
+                return result;
+            }
+        }
+        return new TransferResult();
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, false);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return copyRecursiveFrom(fileMask, excludes, source, deleteMissing, null);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        if (tierPaths.isEmpty()) {
+            return new TransferResult();
+        }
+
+        TransferResult result = tierPaths.get(0).copyRecursiveFrom(fileMask, excludes, source, deleteMissing, filter);
+        TierIndex.touch(0, getKey());
+
+        if (storage.isWriteBack()) {
+            StorageCopier.submit("write back " + getKey(), new StorageCopier.Task() {
+                @Override
+                public void run() throws IOException, InterruptedException {
+                    // Keeps saves out so the first tier is not copied half saved
+                    Lock lock = CacheLocks.get(owner).readLock();
+                    lock.lockInterruptibly();
+                    try {
+                        StorageCopier.copy(tierPaths.get(0), tierPaths.subList(1, tierPaths.size()));
+                        for (int tier = 1; tier < tierPaths.size(); tier++) {
+                            TierIndex.touch(tier, getKey());
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        } else {
+            for (int tier = 1; tier < tierPaths.size(); tier++) {
+                result.add(tierPaths.get(tier).copyRecursiveFrom(fileMask, excludes, source, deleteMissing, filter));
+                TierIndex.touch(tier, getKey());
+            }
+        }
+
+        demote();
+        return result;
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        for (ObjectPath tierPath : tierPaths) {
+            if (tierPath.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        for (ObjectPath tierPath : tierPaths) {
+            tierPath.deleteRecursive();
+        }
+        TierIndex.removeAll(owner, path);
+    }
+
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+        try {
+            for (ObjectPath tierPath : tierPaths) {
+                if (tierPath.exists()) {
+                    return tierPath.browse(request, response, job, name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return tierPaths.isEmpty() ? null : tierPaths.get(0).browse(request, response, job, name);
+    }
+
+    private String getKey() {
+        return TierIndex.key(owner, path);
+    }
+
+    /**
+     * Copy the cache up from the tier it was restored from into the first tier in the background.  The copy holds the
+     * write lock of the cache and is dropped if the first tier holds the cache by then, as a save since the restore
+     * put a newer cache there.
+     */
+    private void promote(final int from) {
+        StorageCopier.submit("promote " + getKey(), new StorageCopier.Task() {
+            @Override
+            public void run() throws IOException, InterruptedException {
+                Lock lock = CacheLocks.get(owner).writeLock();
+                lock.lockInterruptibly();
+                try {
+                    if (tierPaths.get(0).exists() || !tierPaths.get(from).exists()) {
+                        return;
+                    }
+                    StorageCopier.copy(tierPaths.get(from), Collections.singletonList(tierPaths.get(0)));
+                    TierIndex.touch(0, getKey());
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        demote();
+    }
+
+    /**
+     * Move the least recently used caches of tiers holding too many down to the next tier in the background.  Each
+     * cache is moved while holding its write lock, so that no save lands in the tier between the copy and the delete,
+     * and only if it is still among the least recently used once the lock is held.
+     */
+    private void demote() {
+        StorageCopier.submit("demote", new StorageCopier.Task() {
+            @Override
+            public void run() throws IOException, InterruptedException {
+                int[] maxCaches = storage.getMaxCaches();
+                for (int tier = 0; tier < maxCaches.length - 1; tier++) {
+                    for (String key : TierIndex.overflow(tier, maxCaches[tier])) {
+                        Lock lock = CacheLocks.get(TierIndex.owner(key)).writeLock();
+                        lock.lockInterruptibly();
+                        try {
+                            if (!TierIndex.overflow(tier, maxCaches[tier]).contains(key)) {
+                                continue;
+                            }
+
+                            List<ObjectPath> paths = storage.getTierPaths(TierIndex.owner(key), TierIndex.path(key));
+                            if (paths != null && paths.size() == maxCaches.length) {
+                                StorageCopier.copy(paths.get(tier), Collections.singletonList(paths.get(tier + 1)));
+                                paths.get(tier).deleteRecursive();
+                                TierIndex.touch(tier + 1, key);
+                            }
+                            TierIndex.remove(tier, key);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.Util;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers, across restarts, how the files of a cached path were used by the builds that tracked access to them:
+ * how many builds in a row did not read a file and how often recent builds did.  Kept in one file per cached path
+ * under a directory per cache key under the Jenkins root, so that the history of a job goes with the job.
+ *
+ * @author Peter Hayes
+ */
+final class AccessHistory {
+    private static final Logger LOG = Logger.getLogger(AccessHistory.class.getName());
+
+    private final XmlFile file;
+    private final Map<String, Usage> usages;
+
+    private AccessHistory(XmlFile file, Map<String, Usage> usages) {
+        this.file = file;
+        this.usages = usages;
+    }
+
+    /**
+     * Record how a build used the files of a cached path
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param path The path of the cache within the cache of the job
+     * @param access The files of the path and whether the build read them
+     * @param window The number of builds over which reads fade, a read loses a little of its weight with every save
+     * @return The updated history
+     * @throws IOException if the history could not be written
+     */
+    static synchronized AccessHistory record(String key, String path, Map<String, AccessTracking.FileAccess> access, int window) throws IOException {
+        AccessHistory history = load(key, path);
+        history.update(access, window);
+        if (history.file != null) {
+            history.file.write(history.usages);
+        }
+        return history;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AccessHistory load(String key, String path) {
+        Map<String, Usage> usages = new TreeMap<>();
+
+        File dir = getDir(key);
+        XmlFile file = dir == null ? null : new XmlFile(new File(dir, Util.getDigestOf(path) + ".xml"));
+        if (file != null && file.exists()) {
+            try {
+                usages.putAll((Map<String, Usage>) file.read());
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to read " + file + ", access to " + path + " is tracked from scratch", e);
+            }
+        }
+        return new AccessHistory(file, usages);
+    }
+
+    /**
+     * Forget the history of the caches of a deleted job
+     *
+     * @param key The job full name
+     * @throws IOException if the history could not be deleted
+     */
+    static synchronized void remove(String key) throws IOException {
+        File dir = getDir(key);
+        if (dir != null && dir.exists()) {
+            Util.deleteRecursive(dir);
+        }
+    }
+
+    /**
+     * Move the history of the caches of a renamed job to its new name
+     *
+     * @param oldKey The old full name of the job
+     * @param newKey The new full name of the job
+     * @throws IOException if the history could not be moved
+     */
+    static synchronized void move(String oldKey, String newKey) throws IOException {
+        File from = getDir(oldKey);
+        File to = getDir(newKey);
+        if (from == null || !from.exists()) return;
+
+        if (to.exists()) {
+            Util.deleteRecursive(to);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("Unable to move " + from + " to " + to);
+        }
+    }
+
+    /**
+     * @return The directory of the histories of the cache key, null without Jenkins
+     */
+    private static File getDir(String key) {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins == null ? null : new File(new File(jenkins.getRootDir(), "jobcacher-access"), Util.getDigestOf(key));
+    }
+
+    /**
+     * Files that are not there any more are forgotten.  The reads of every file decay by a fraction of the window on
+     * each save, like {@link CachePrewarmer} ages its usage, so a file read often long ago ends up below one read
+     * recently instead of saturating at the window for good.
+     */
+    private void update(Map<String, AccessTracking.FileAccess> access, int window) {
+        double decay = 1.0 - 1.0 / Math.max(1, window);
+        for (Iterator<String> files = usages.keySet().iterator(); files.hasNext(); ) {
+            if (!access.containsKey(files.next())) {
+                files.remove();
+            }
+        }
+
+        for (Map.Entry<String, AccessTracking.FileAccess> entry : access.entrySet()) {
+            Usage usage = usages.get(entry.getKey());
+            if (usage == null) {
+                usage = new Usage();
+                usages.put(entry.getKey(), usage);
+            }
+
+            usage.reads *= decay;
+            if (entry.getValue().isRead()) {
+                usage.reads += 1;
+                usage.unread = 0;
+            } else {
+                usage.unread++;
+            }
+        }
+    }
+
+    /**
+     * @param builds The number of builds
+     * @return The files none of the last builds read
+     */
+    Set<String> getUnread(int builds) {
+        Set<String> unread = new TreeSet<>();
+        for (Map.Entry<String, Usage> entry : usages.entrySet()) {
+            if (entry.getValue().unread >= builds) {
+                unread.add(entry.getKey());
+            }
+        }
+        return unread;
+    }
+
+    /**
+     * @return The files ordered from the least to the most reused, the longest unread first among equals
+     */
+    List<String> getByReuse() {
+        List<String> files = new ArrayList<>(usages.keySet());
+        Collections.sort(files, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                Usage usageA = usages.get(a);
+                Usage usageB = usages.get(b);
+                int byReads = Double.compare(usageA.reads, usageB.reads);
+                if (byReads != 0) {
+                    return byReads;
+                }
+                return usageA.unread == usageB.unread ? 0 : usageA.unread > usageB.unread ? -1 : 1;
+            }
+        });
+        return files;
+    }
+
+    static final class Usage {
+        /**
+         * The decayed number of builds that read the file, at most the window when every build does
+         */
+        private double reads;
+        private int unread;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+
+/**
+ * Finds out which restored files a build actually read using access times.  Once restored, every file gets an access
+ * time just before its modification time, which Linux updates on the next read even with the default relatime mount
+ * option.  When saving, a file whose access time is still the one it was given was not read during the build while
+ * files that were read, written or created have another one.
+ *
+ * @author Peter Hayes
+ */
+public final class AccessTracking {
+
+    /**
+     * How far before its modification time the access time of a restored file is set
+     */
+    private static final long ARMED_OFFSET = 1000L;
+
+    private AccessTracking() {}
+
+    /**
+     * How a file was used by a build
+     */
+    public static class FileAccess implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long size;
+        private final boolean read;
+
+        public FileAccess(long size, boolean read) {
+            this.size = size;
+            this.read = read;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isRead() {
+            return read;
+        }
+    }
+
+    /**
+     * Sets the access time of every matching file so that reads during the build can be detected.  Returns false
+     * without touching anything if the agent is not Linux or its file system does not record reads.
+     */
+    public static class Arm extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+        private final String excludes;
+
+        public Arm(String includes, String excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public Boolean invoke(File dir, VirtualChannel channel) throws IOException {
+            if (!"Linux".equals(System.getProperty("os.name")) || !dir.isDirectory() || !recordsReads(dir)) {
+                return false;
+            }
+
+            new DirScanner.Glob(includes, excludes).scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.isFile()) {
+                        arm(f.toPath());
+                    }
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Reads a freshly armed probe file to check that the file system updates access times, which it does not
+         * when mounted with noatime
+         */
+        private static boolean recordsReads(File dir) throws IOException {
+            File probe = File.createTempFile(".jobcacher-probe", null, dir);
+            try {
+                Files.write(probe.toPath(), new byte[] {1});
+                arm(probe.toPath());
+
+                try (InputStream in = new FileInputStream(probe)) {
+                    in.read();
+                }
+                return !isArmed(Files.readAttributes(probe.toPath(), BasicFileAttributes.class));
+            } finally {
+                Files.deleteIfExists(probe.toPath());
+            }
+        }
+
+        private static void arm(Path file) throws IOException {
+            BasicFileAttributeView view = Files.getFileAttributeView(file, BasicFileAttributeView.class);
+            long modified = view.readAttributes().lastModifiedTime().toMillis();
+            view.setTimes(null, FileTime.fromMillis(modified - ARMED_OFFSET), null);
+        }
+    }
+
+    /**
+     * Collects the size of every matching file and whether it was read, written or created since it was armed
+     */
+    public static class Collect extends MasterToSlaveFileCallable<HashMap<String, FileAccess>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+        private final String excludes;
+
+        public Collect(String includes, String excludes) {
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+
+        @Override
+        public HashMap<String, FileAccess> invoke(File dir, VirtualChannel channel) throws IOException {
+            final HashMap<String, FileAccess> access = new HashMap<>();
+            new DirScanner.Glob(includes, excludes).scan(dir, new FileVisitor() {
+                @Override
+                public void visit(File f, String relativePath) throws IOException {
+                    if (f.isFile()) {
+                        BasicFileAttributes attributes = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+                        access.put(relativePath.replace('\\', '/'), new FileAccess(attributes.size(), !isArmed(attributes)));
+                    }
+                }
+            });
+            return access;
+        }
+    }
+
+    private static boolean isArmed(BasicFileAttributes attributes) {
+        return attributes.lastAccessTime().toMillis() == attributes.lastModifiedTime().toMillis() - ARMED_OFFSET;
+    }
+}
@@ -39,6 +39,9 @@ import org.kohsuke.stapler.*;
 import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 /**
@@ -56,6 +59,8 @@ public class ArbitraryFileCache extends Cache {
     private String path;
     private String includes = "**/*";
     private String excludes;
+    private boolean syncDeletions;
+    private int skipUnreadAfter;
 
     @DataBoundConstructor
     public ArbitraryFileCache(String path, String includes, String excludes) {
@@ -88,6 +93,28 @@ public class ArbitraryFileCache extends Cache {
         this.excludes = excludes;
     }
 
+    public boolean isSyncDeletions() {
+        return syncDeletions;
+    }
+
+    @DataBoundSetter
+    public void setSyncDeletions(boolean syncDeletions) {
+        this.syncDeletions = syncDeletions;
+    }
+
+    public int getSkipUnreadAfter() {
+        return skipUnreadAfter;
+    }
+
+    /**
+     * @param skipUnreadAfter The number of builds in a row after which files none of them read are no longer cached,
+     *                        0 to not track which files builds read
+     */
+    @DataBoundSetter
+    public void setSkipUnreadAfter(int skipUnreadAfter) {
+        this.skipUnreadAfter = Math.max(0, skipUnreadAfter);
+    }
+
     @Override
     public String getTitle() {
         return Messages.ArbitraryFileCache_displayName();
@@ -95,15 +122,27 @@ public class ArbitraryFileCache extends Cache {
 
     @Override
     public Saver cache(ObjectPath cache, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment) throws IOException, InterruptedException {
-        // Get a source dir for cached files for this path
-        ObjectPath source = cache.child(deriveCachePath(path));
+        return cache(cache, build, workspace, launcher, listener, initialEnvironment, true);
+    }
 
+    @Override
+    public Saver cache(ObjectPath cache, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment, boolean restore) throws IOException, InterruptedException {
         // Resolve path variables if any
         String expandedPath = initialEnvironment.expand(path);
 
+        if (!restore) {
+            listener.getLogger().println("Skip caching " + path + " as it is only saved");
+            return new SaverImpl(expandedPath, false);
+        }
+
+        // Get a source dir for cached files for this path
+        ObjectPath source = cache.child(deriveCachePath(path));
+
         cachePath(source, workspace, listener, expandedPath, includes, excludes);
 
-        return new SaverImpl(expandedPath);
+        boolean tracked = skipUnreadAfter > 0 && trackAccess(workspace, listener, expandedPath, includes, excludes);
+
+        return new SaverImpl(expandedPath, tracked);
     }
 
     private class SaverImpl extends Saver {
@@ -111,17 +150,70 @@ public class ArbitraryFileCache extends Cache {
         private static final long serialVersionUID = 1L;
 
         private String expandedPath;
+        private boolean tracked;
+
+        private transient Map<String, AccessTracking.FileAccess> access;
+        private transient AccessHistory history;
+        private transient Set<String> omitted;
 
-        public SaverImpl(String expandedPath) {
+        public SaverImpl(String expandedPath, boolean tracked) {
             this.expandedPath = expandedPath;
+            this.tracked = tracked;
         }
 
         @Override
         public long calculateSize(ObjectPath objectPath, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
-            // Locate the cache on the master node
-            FilePath targetDirectory = workspace.child(path);
+            String key = getCacheKey(objectPath);
+            FilePath sourceDirectory = workspace.child(expandedPath);
+            if (!tracked || key == null || !sourceDirectory.exists()) {
+                // Locate the cache on the master node
+                FilePath targetDirectory = workspace.child(path);
+
+                return targetDirectory.act(new DirectorySize(includes, excludes));
+            }
+
+            // Must look at access times before anything else reads the files
+            access = sourceDirectory.act(new AccessTracking.Collect(includes, excludeStamp(excludes)));
+            history = AccessHistory.record(key, deriveCachePath(path), access, skipUnreadAfter);
+
+            omitted = new TreeSet<>(history.getUnread(skipUnreadAfter));
+            if (!omitted.isEmpty()) {
+                listener.getLogger().println("Not caching " + omitted.size() + " files of " + path + " unread by the last " +
+                        skipUnreadAfter + " builds");
+            }
+
+            long size = 0L;
+            for (Map.Entry<String, AccessTracking.FileAccess> entry : access.entrySet()) {
+                if (!omitted.contains(entry.getKey())) {
+                    size += entry.getValue().getSize();
+                }
+            }
+            return size;
+        }
 
-            return targetDirectory.act(new DirectorySize(includes, excludes));
+        @Override
+        public long shrink(long bytes, TaskListener listener) {
+            if (omitted == null) {
+                return 0L;
+            }
+
+            // Leave out the files fewest recent builds read until the cache fits
+            long shrunk = 0L;
+            int count = 0;
+            for (String file : history.getByReuse()) {
+                if (shrunk >= bytes) break;
+                if (omitted.contains(file)) continue;
+
+                omitted.add(file);
+                shrunk += access.get(file).getSize();
+                count++;
+            }
+
+            if (count > 0) {
+                listener.getLogger().println("Not caching " + count + " least reused files of " + path + " (" +
+                        (shrunk / 1024) + "K) to fit the maximum cache size");
+            }
+            return shrunk;
         }
 
         @Override
@@ -129,7 +221,12 @@ public class ArbitraryFileCache extends Cache {
             // Get a target dir for cached files for this path
             ObjectPath target = cache.child(deriveCachePath(path));
 
-            savePath(target, workspace, listener, expandedPath, includes, excludes);
+            if (omitted == null) {
+                savePath(target, workspace, listener, expandedPath, includes, excludes, syncDeletions);
+            } else {
+                // Files left out are removed from the cache too so that it shrinks to what builds use
+                savePath(target, workspace, listener, expandedPath, includes, excludes, true, omitted);
+            }
         }
     }
 
@@ -34,11 +34,22 @@ import hudson.util.DirScanner;
 import hudson.util.FileVisitor;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.Stapler;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -53,6 +64,20 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
 
     private static final long serialVersionUID = 1L;
 
+    private CacheMode mode;
+
+    /**
+     * @return Whether this cache is restored, saved or both
+     */
+    public CacheMode getMode() {
+        return mode == null ? CacheMode.READ_WRITE : mode;
+    }
+
+    @DataBoundSetter
+    public void setMode(CacheMode mode) {
+        this.mode = mode;
+    }
+
     /**
      * To be implemented method that will be called to seed the cache on the executor from the master
      *
@@ -67,6 +92,29 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
      */
     public abstract Saver cache(ObjectPath cache, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment) throws IOException, InterruptedException;
 
+    /**
+     * Called instead of {@link #cache(ObjectPath, Run, FilePath, Launcher, TaskListener, EnvVars)} to get the saver
+     * of a cache that is only saved.  Caches that can prepare their saver without seeding the executor should
+     * override it, by default the cache is seeded anyway.
+     *
+     * @param cache The root of the object cache
+     * @param build The build in progress
+     * @param workspace The executor workspace
+     * @param launcher The launcher
+     * @param listener The task listener
+     * @param initialEnvironment The initial environment variables
+     * @param restore Whether the cache should seed the executor
+     * @return The saver to save the cache with at the end of the build
+     * @throws IOException If an error occurs connecting to the potentially remote executor
+     * @throws InterruptedException If interrupted
+     */
+    public Saver cache(ObjectPath cache, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment, boolean restore) throws IOException, InterruptedException {
+        if (!restore) {
+            listener.getLogger().println(getTitle() + " is restored as it cannot be saved only");
+        }
+        return cache(cache, build, workspace, launcher, listener, initialEnvironment);
+    }
+
     /**
      * This method recursively copies files from the sourceDir to the path on the executor
      *
@@ -81,6 +129,14 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
      */
     protected void cachePath(ObjectPath source, FilePath workspace, TaskListener listener, String path, String includes, String excludes) throws IOException, InterruptedException {
 
+        // A reused workspace still stamped with the current cache generation already holds what would be restored
+        String generation = getGeneration(source);
+        if (generation != null && workspace.child(path).act(new VerifyStamp(generation, includes, excludes))) {
+            listener.getLogger().println("Skip caching as " + path + " is up to date with the cache");
+            ((RecordingObjectPath) source).upToDate();
+            return;
+        }
+
         if (source.exists()) {
             FilePath targetDirectory = workspace.child(path);
 
@@ -90,7 +146,11 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
 
             listener.getLogger().println("Caching " + path + " to executor");
 
-            source.copyRecursiveTo(includes, excludes, targetDirectory);
+            source.copyRecursiveTo(includes, excludeStamp(excludes), targetDirectory);
+
+            if (generation != null) {
+                targetDirectory.act(new WriteStamp(generation, includes, excludes));
+            }
         } else {
             listener.getLogger().println("Skip caching as no cache exists for " + path);
         }
@@ -104,6 +164,8 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
 
         private static final long serialVersionUID = 1L;
 
+        private CacheStatistics statistics;
+
         /**
          * Calculate the size of the cache on the executor which will be used to determine if the total size of the cache
          * if returned to the master would be greater than the configured maxiumum cache size.
@@ -120,6 +182,19 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
          */
         public abstract long calculateSize(ObjectPath cache, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException;
 
+        /**
+         * Called when the total size calculated by every saver is greater than the maximum cache size, so that a saver
+         * able to tell which of its files matter least can leave them out of the save instead of the whole cache being
+         * removed.
+         *
+         * @param bytes The number of bytes the caches are over the maximum size
+         * @param listener The task listener
+         * @return The number of bytes the save of this cache will be smaller by, by default none
+         */
+        public long shrink(long bytes, TaskListener listener) {
+            return 0L;
+        }
+
         /**
          * To be implemented method that will be called to save the files from the executor to the master
          *
@@ -146,12 +221,64 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
          * @throws InterruptedException If interrupted
          */
         protected void savePath(ObjectPath target, FilePath workspace, TaskListener listener, String path, String includes, String excludes) throws IOException, InterruptedException {
+            savePath(target, workspace, listener, path, includes, excludes, false);
+        }
+
+        /**
+         * This method recursively copies files from the path on the executor to the master target directory and
+         * optionally removes files from the cache that no longer exist on the executor
+         *
+         * @param target The target directory of the cache
+         * @param workspace The executor workspace that the destination path will be referenced
+         * @param listener The task listener
+         * @param path The path on the executor to store the source cache on
+         * @param includes The glob expression that will filter the contents of the path
+         * @param excludes The excludes expression that will filter contents of the path
+         * @param deleteMissing If true, cached files matching the patterns but missing on the executor are deleted
+         * @throws IOException If an error occurs connecting to the potentially remote executor
+         * @throws InterruptedException If interrupted
+         */
+        protected void savePath(ObjectPath target, FilePath workspace, TaskListener listener, String path, String includes, String excludes, boolean deleteMissing) throws IOException, InterruptedException {
+            savePath(target, workspace, listener, path, includes, excludes, deleteMissing, Collections.<String>emptySet());
+        }
+
+        /**
+         * This method recursively copies files from the path on the executor to the master target directory leaving
+         * out some files, which are removed from the cache if it deletes missing files
+         *
+         * @param target The target directory of the cache
+         * @param workspace The executor workspace that the destination path will be referenced
+         * @param listener The task listener
+         * @param path The path on the executor to store the source cache on
+         * @param includes The glob expression that will filter the contents of the path
+         * @param excludes The excludes expression that will filter contents of the path
+         * @param deleteMissing If true, cached files matching the patterns but missing on the executor are deleted
+         * @param omitted The paths relative to the path of files not to store
+         * @throws IOException If an error occurs connecting to the potentially remote executor
+         * @throws InterruptedException If interrupted
+         */
+        protected void savePath(ObjectPath target, FilePath workspace, TaskListener listener, String path, String includes, String excludes, boolean deleteMissing, Collection<String> omitted) throws IOException, InterruptedException {
 
             FilePath source = workspace.child(path);
 
             listener.getLogger().println("Storing " + path + " in cache");
 
-            target.copyRecursiveFrom(includes, excludes, source);
+            PathFilter filter = omitted.isEmpty() ? null : PathFilter.excluding(omitted);
+            target.copyRecursiveFrom(includes, excludeStamp(excludes), source, deleteMissing, filter);
+
+            // The directory now matches the generation of the cache being saved
+            String generation = getGeneration(target);
+            if (generation != null && source.exists()) {
+                source.act(new WriteStamp(generation, includes, excludes));
+            }
+        }
+
+        CacheStatistics getStatistics() {
+            return statistics;
+        }
+
+        void setStatistics(CacheStatistics statistics) {
+            this.statistics = statistics;
         }
     }
 
@@ -181,6 +308,124 @@ public abstract class Cache extends AbstractDescribableImpl<Cache> implements Ex
         return Util.getDigestOf(path);
     }
 
+    /**
+     * Name of the file stamped into a cached directory recording the cache generation it matches
+     */
+    public static final String STAMP_FILE = ".jobcacher-stamp";
+
+    private static String getGeneration(ObjectPath cache) {
+        return cache instanceof RecordingObjectPath ? ((RecordingObjectPath) cache).getGeneration() : null;
+    }
+
+    /**
+     * @param cache The object path handed to the cache
+     * @return The key of the cache, the job full name or the lock key of a shared cache, or null if unknown
+     */
+    protected static String getCacheKey(ObjectPath cache) {
+        return cache instanceof RecordingObjectPath ? ((RecordingObjectPath) cache).getKey() : null;
+    }
+
+    /**
+     * Start tracking which files of a restored path the build reads, see {@link AccessTracking}
+     *
+     * @param workspace The executor workspace
+     * @param listener The task listener
+     * @param path The path on the executor the cache was restored to
+     * @param includes The glob expression that will filter the contents of the path
+     * @param excludes The excludes expression that will filter contents of the path
+     * @return true if reads are tracked, false if the executor does not support it
+     * @throws IOException If an error occurs connecting to the potentially remote executor
+     * @throws InterruptedException If interrupted
+     */
+    protected boolean trackAccess(FilePath workspace, TaskListener listener, String path, String includes, String excludes) throws IOException, InterruptedException {
+        FilePath directory = workspace.child(path);
+
+        // Without anything restored every file will be new to the build and count as used
+        if (!directory.exists()) {
+            return true;
+        }
+
+        if (!directory.act(new AccessTracking.Arm(includes, excludeStamp(excludes)))) {
+            listener.getLogger().println("Not tracking which files of " + path + " are read as the executor does not record access times");
+            return false;
+        }
+        return true;
+    }
+
+    static String excludeStamp(String excludes) {
+        return excludes == null || excludes.trim().isEmpty() ? STAMP_FILE : excludes + "," + STAMP_FILE;
+    }
+
+    /**
+     * Writes the stamp recording that a directory matches a cache generation along with a fingerprint of its tree
+     */
+    public static class WriteStamp extends MasterToSlaveFileCallable<Void> {
+        private final String generation;
+        private final String includes;
+        private final String excludes;
+        public WriteStamp(String generation, String includes, String excludes) {
+            this.generation = generation;
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+        @Override public Void invoke(File f, VirtualChannel channel) throws IOException {
+            FileUtils.writeStringToFile(new File(f, STAMP_FILE), generation + "\n" + fingerprint(f, includes, excludes) + "\n", "UTF-8");
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a directory is stamped with a cache generation and is unchanged since it was stamped
+     */
+    public static class VerifyStamp extends MasterToSlaveFileCallable<Boolean> {
+        private final String generation;
+        private final String includes;
+        private final String excludes;
+        public VerifyStamp(String generation, String includes, String excludes) {
+            this.generation = generation;
+            this.includes = includes;
+            this.excludes = excludes;
+        }
+        @Override public Boolean invoke(File f, VirtualChannel channel) throws IOException {
+            File stamp = new File(f, STAMP_FILE);
+            if (!stamp.isFile()) {
+                return false;
+            }
+
+            String[] lines = FileUtils.readFileToString(stamp, "UTF-8").split("\n");
+            return lines.length == 2 && lines[0].equals(generation) && lines[1].equals(fingerprint(f, includes, excludes));
+        }
+    }
+
+    /**
+     * Hash the patterns and the relative path, length and modification time of every file they select, which changes
+     * whenever a file is added, removed or modified
+     */
+    private static String fingerprint(File dir, String includes, String excludes) throws IOException {
+        final SortedMap<String, String> files = new TreeMap<>();
+        new DirScanner.Glob(includes, excludeStamp(excludes)).scan(dir, new FileVisitor() {
+            @Override
+            public void visit(File f, String relativePath) throws IOException {
+                if (f.isFile()) {
+                    files.put(relativePath, f.length() + " " + f.lastModified());
+                }
+            }
+        });
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        digest.update((includes + "\n" + excludes + "\n").getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            digest.update((file.getKey() + "\n" + file.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return Util.toHexString(digest.digest());
+    }
+
     /**
      * Utility class to calculate the size of a potentially remote directory given a pattern and excludes
      */
@@ -27,23 +27,42 @@ package jenkins.plugins.jobcacher;
 import hudson.model.Action;
 import hudson.model.InvisibleAction;
 import jenkins.tasks.SimpleBuildStep;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 /**
+ * Contributes the cache project action and records the statistics of the caches used by the build which are exposed
+ * through the remote API.
+ *
  * @author Peter Hayes
  */
+@ExportedBean
 public class CacheBuildLastAction extends InvisibleAction implements SimpleBuildStep.LastBuildAction {
     private CacheProjectAction cacheProjectAction;
+    private List<CacheStatistics> statistics;
 
     public CacheBuildLastAction(List<Cache> caches) {
+        this(caches, Collections.<CacheStatistics>emptyList());
+    }
+
+    public CacheBuildLastAction(List<Cache> caches, List<CacheStatistics> statistics) {
         this.cacheProjectAction = new CacheProjectAction(caches);
+        this.statistics = new ArrayList<>(statistics);
     }
 
     @Override
     public Collection<? extends Action> getProjectActions() {
         return Collections.singletonList(cacheProjectAction);
     }
+
+    @Exported(name = "caches", visibility = 2)
+    public List<CacheStatistics> getStatistics() {
+        // Build records written before statistics were recorded will not have any
+        return statistics == null ? Collections.<CacheStatistics>emptyList() : Collections.unmodifiableList(statistics);
+    }
 }
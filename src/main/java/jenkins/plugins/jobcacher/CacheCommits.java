@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.XmlFile;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers, across restarts, the build that last saved each cache, and which builds are saving it right now, so that
+ * a cache is only ever replaced by a newer build.  When builds of a job save concurrently, older builds give up their
+ * save for the newest one instead of queuing for the cache lock to overwrite it.  Builds of the same job are ordered
+ * by number, as a build that waited in the queue can start after one scheduled later; builds of different jobs, which
+ * only meet on shared caches, by start time.
+ *
+ * @author Peter Hayes
+ */
+final class CacheCommits {
+    private static final Logger LOG = Logger.getLogger(CacheCommits.class.getName());
+
+    private static Map<String, BuildRef> commits;
+
+    private static final Map<String, Set<BuildRef>> saving = new HashMap<>();
+
+    private CacheCommits() {}
+
+    /**
+     * Register a build that is about to save a cache.  It must be unregistered with {@link #done(String, Run)}.
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param build The build
+     */
+    static synchronized void saving(String key, Run<?, ?> build) {
+        Set<BuildRef> builds = saving.get(key);
+        if (builds == null) {
+            saving.put(key, builds = new HashSet<>());
+        }
+        builds.add(BuildRef.of(build));
+    }
+
+    /**
+     * Unregister a build that finished or gave up saving a cache
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param build The build
+     */
+    static synchronized void done(String key, Run<?, ?> build) {
+        Set<BuildRef> builds = saving.get(key);
+        if (builds != null) {
+            builds.remove(BuildRef.of(build));
+            if (builds.isEmpty()) {
+                saving.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Check whether a build may replace the cache
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param build The build wanting to save it
+     * @return true if no build that is the same or newer has saved the cache yet
+     */
+    static synchronized boolean isNewer(String key, Run<?, ?> build) {
+        BuildRef committed = load().get(key);
+        return committed == null || BuildRef.of(build).isAfter(committed);
+    }
+
+    /**
+     * Check whether a newer build is saving the cache too, which makes saving it from this build moot
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param build The build wanting to save it
+     * @return true if a newer build is saving the cache
+     */
+    static synchronized boolean isNewerSaving(String key, Run<?, ?> build) {
+        Set<BuildRef> builds = saving.get(key);
+        if (builds == null) return false;
+
+        BuildRef ref = BuildRef.of(build);
+        for (BuildRef other : builds) {
+            if (other.isAfter(ref)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record that a build saved the cache.  The cache is saved by then, so failing to write the record down is only
+     * logged; until the next restart the record is still kept in memory.
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param build The build that saved it
+     */
+    static synchronized void committed(String key, Run<?, ?> build) {
+        load().put(key, BuildRef.of(build));
+
+        try {
+            write();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to write the cache commits, an older build may replace the cache of " + key +
+                    " after a restart", e);
+        }
+    }
+
+    /**
+     * Forget the build that last saved the cache of a deleted job, so that a job created again under the same name,
+     * whose build numbers start over, may save it
+     *
+     * @param key The job full name
+     * @throws IOException if the records could not be written
+     */
+    static synchronized void remove(String key) throws IOException {
+        if (load().remove(key) != null) {
+            write();
+        }
+    }
+
+    /**
+     * Move the build that last saved the cache of a renamed job to its new name
+     *
+     * @param oldKey The old full name of the job
+     * @param newKey The new full name of the job
+     * @throws IOException if the records could not be written
+     */
+    static synchronized void move(String oldKey, String newKey) throws IOException {
+        BuildRef committed = load().remove(oldKey);
+        if (committed == null) return;
+
+        // The builds of the job carry its new name from now on
+        load().put(newKey, oldKey.equals(committed.job) ? new BuildRef(newKey, committed.number, committed.startTime) : committed);
+        write();
+    }
+
+    private static void write() throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            getFile(jenkins).write(commits);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, BuildRef> load() {
+        if (commits == null) {
+            commits = new TreeMap<>();
+
+            Jenkins jenkins = Jenkins.getInstance();
+            XmlFile file = jenkins == null ? null : getFile(jenkins);
+            if (file != null && file.exists()) {
+                try {
+                    for (Map.Entry<String, Object> entry : ((Map<String, Object>) file.read()).entrySet()) {
+                        // Records written before builds were ordered by number only hold the start time
+                        Object value = entry.getValue();
+                        commits.put(entry.getKey(), value instanceof Long ? new BuildRef(null, 0, (Long) value) : (BuildRef) value);
+                    }
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Unable to read " + file + ", any build may save caches", e);
+                }
+            }
+        }
+        return commits;
+    }
+
+    private static XmlFile getFile(Jenkins jenkins) {
+        return new XmlFile(new File(jenkins.getRootDir(), CacheCommits.class.getName() + ".xml"));
+    }
+
+    /**
+     * Identifies a build well enough to order it against another build saving the same cache
+     */
+    static final class BuildRef {
+        private final String job;
+        private final int number;
+        private final long startTime;
+
+        BuildRef(String job, int number, long startTime) {
+            this.job = job;
+            this.number = number;
+            this.startTime = startTime;
+        }
+
+        static BuildRef of(Run<?, ?> build) {
+            return new BuildRef(build.getParent().getFullName(), build.getNumber(), build.getStartTimeInMillis());
+        }
+
+        /**
+         * @return true if this build comes after the other one
+         */
+        boolean isAfter(BuildRef other) {
+            if (job != null && job.equals(other.job)) {
+                return number > other.number;
+            }
+            return startTime > other.startTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BuildRef)) return false;
+
+            BuildRef other = (BuildRef) o;
+            return number == other.number && startTime == other.startTime && (job == null ? other.job == null : job.equals(other.job));
+        }
+
+        @Override
+        public int hashCode() {
+            return (job == null ? 0 : job.hashCode()) * 31 + number;
+        }
+    }
+}
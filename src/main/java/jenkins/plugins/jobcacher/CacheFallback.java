@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Job;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Extension point that supplies the jobs whose cache a job may restore from while it has no cache of its own, such as
+ * the default branch of a multibranch project for a newly created branch job.  The fallback cache is only ever read;
+ * the job still saves to its own cache path once the build completes.
+ *
+ * @author Peter Hayes
+ */
+public abstract class CacheFallback implements ExtensionPoint {
+
+    /**
+     * Get the jobs to try in order when the passed job has no cache yet.
+     *
+     * @param job The job without a cache
+     * @param defaultBranch The branch name configured on the cache to seed from, or null to let the implementation
+     *                      decide
+     * @return The candidate jobs, most preferred first, never including the job itself
+     */
+    @Nonnull
+    public abstract List<? extends Job<?, ?>> getFallbacks(@Nonnull Job<?, ?> job, @CheckForNull String defaultBranch);
+
+    /**
+     * Tell whether a job builds the default branch, which the other jobs fall back to.
+     *
+     * @param job The job
+     * @param defaultBranch The branch name configured on the cache, or null to let the implementation decide
+     * @return Whether the job builds the default branch, or null if this implementation does not know the job
+     */
+    @CheckForNull
+    public Boolean isDefaultBranch(@Nonnull Job<?, ?> job, @CheckForNull String defaultBranch) {
+        return null;
+    }
+
+    public static ExtensionList<CacheFallback> all() {
+        return ExtensionList.lookup(CacheFallback.class);
+    }
+}
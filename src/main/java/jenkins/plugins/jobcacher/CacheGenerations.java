@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers, across restarts, the generation of each cache, a random id replaced every time the cache is saved or
+ * removed.  Caches stamp the directories they restore and save with it so that a workspace still matching the current
+ * generation does not need to be restored again.
+ *
+ * @author Peter Hayes
+ */
+final class CacheGenerations {
+    private static final Logger LOG = Logger.getLogger(CacheGenerations.class.getName());
+
+    private static Map<String, String> generations;
+
+    private CacheGenerations() {}
+
+    /**
+     * @return A new generation id
+     */
+    static String next() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Get the current generation of a cache
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @return The generation or null if it is not known
+     */
+    static synchronized String get(String key) {
+        return load().get(key);
+    }
+
+    /**
+     * Record the generation of a cache once it has been saved
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param generation The new generation
+     * @throws IOException if the record could not be written
+     */
+    static synchronized void set(String key, String generation) throws IOException {
+        load().put(key, generation);
+        write();
+    }
+
+    /**
+     * Forget the generation of the cache of a deleted job
+     *
+     * @param key The job full name
+     * @throws IOException if the record could not be written
+     */
+    static synchronized void remove(String key) throws IOException {
+        if (load().remove(key) != null) {
+            write();
+        }
+    }
+
+    /**
+     * Move the generation of the cache of a renamed job to its new name
+     *
+     * @param oldKey The old full name of the job
+     * @param newKey The new full name of the job
+     * @throws IOException if the record could not be written
+     */
+    static synchronized void move(String oldKey, String newKey) throws IOException {
+        String generation = load().remove(oldKey);
+        if (generation != null) {
+            load().put(newKey, generation);
+            write();
+        }
+    }
+
+    private static void write() throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins != null) {
+            getFile(jenkins).write(generations);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> load() {
+        if (generations == null) {
+            generations = new TreeMap<>();
+
+            Jenkins jenkins = Jenkins.getInstance();
+            XmlFile file = jenkins == null ? null : getFile(jenkins);
+            if (file != null && file.exists()) {
+                try {
+                    generations.putAll((Map<String, String>) file.read());
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Unable to read " + file + ", the next restore of every cache will not be skipped", e);
+                }
+            }
+        }
+        return generations;
+    }
+
+    private static XmlFile getFile(Jenkins jenkins) {
+        return new XmlFile(new File(jenkins.getRootDir(), CacheGenerations.class.getName() + ".xml"));
+    }
+}
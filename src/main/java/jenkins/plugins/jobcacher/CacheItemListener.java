@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.jobcacher;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
+import hudson.model.listeners.ItemListener;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps what is remembered about the cache of a job in step with the job: the build that last saved it, its
+ * generation and the access history of its paths.  A job created again under the name of a deleted one, such as a
+ * branch or pull request of a multibranch project, starts its build numbers over and must not be taken for an older
+ * build of the deleted job.
+ *
+ * @author Peter Hayes
+ */
+@Extension
+public final class CacheItemListener extends ItemListener {
+    private static final Logger LOG = Logger.getLogger(CacheItemListener.class.getName());
+
+    @Override
+    public void onDeleted(Item item) {
+        forget(item.getFullName());
+
+        // The jobs of a folder go with it
+        if (item instanceof ItemGroup) {
+            for (Item child : Items.getAllItems((ItemGroup<?>) item, Item.class)) {
+                forget(child.getFullName());
+            }
+        }
+    }
+
+    /**
+     * The jobs of a renamed folder are moved when the change of their own location is reported
+     */
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        try {
+            CacheCommits.move(oldFullName, newFullName);
+            CacheGenerations.move(oldFullName, newFullName);
+            AccessHistory.move(oldFullName, newFullName);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to move the cache records of " + oldFullName + " to " + newFullName, e);
+        }
+    }
+
+    private static void forget(String fullName) {
+        try {
+            CacheCommits.remove(fullName);
+            CacheGenerations.remove(fullName);
+            AccessHistory.remove(fullName);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to delete the cache records of " + fullName, e);
+        }
+    }
+}
@@ -1,19 +1,25 @@
 package jenkins.plugins.jobcacher;
 
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Job;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.GlobalItemStorage;
 import jenkins.plugins.itemstorage.ItemStorage;
 import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.SharedCache;
+import jenkins.plugins.itemstorage.TransferResult;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.logging.Logger;
 
 /**
@@ -22,9 +28,6 @@ import java.util.logging.Logger;
 public class CacheManager {
     private static final Logger LOG = Logger.getLogger(CacheManager.class.getName());
 
-    // Could potential grow indefinitely as jobs are created and destroyed
-    private static Map<String, Object> locks = new HashMap<>();
-
     public static ObjectPath getCachePath(ItemStorage storage, Job<?, ?> job) {
         return storage.getObjectPath(job, "cache");
     }
@@ -33,30 +36,109 @@ public class CacheManager {
         return getCachePath(storage, run.getParent());
     }
 
-    private static Object getLock(Job j) {
-        String jobFullName = j.getFullName();
-        Object lock = locks.get(jobFullName);
-        if (lock == null) {
-            lock = new Object();
-            locks.put(jobFullName, lock);
+    public static ObjectPath getSharedCachePath(ItemStorage storage, String name) throws AbortException {
+        Jenkins.checkGoodName(name);
+        if (!storage.supportsSharedCaches()) {
+            throw new AbortException("Shared cache " + name + " cannot be used as " + storage.getDescriptor().getDisplayName() +
+                    " does not support shared caches, choose another item storage in the global configuration");
         }
-        return lock;
+        return storage.getSharedObjectPath(name, "cache");
+    }
+
+    static ReadWriteLock getLock(String key) {
+        return CacheLocks.get(key);
+    }
+
+    /**
+     * Find the job whose cache a build of the passed job should restore from.  That is the job itself unless it has
+     * no cache yet and a {@link CacheFallback} supplies another job that does.
+     */
+    public static Job<?, ?> getCacheSource(ItemStorage storage, Job<?, ?> job, String defaultBranch) throws IOException, InterruptedException {
+        if (getCachePath(storage, job).exists()) {
+            return job;
+        }
+
+        for (CacheFallback fallback : CacheFallback.all()) {
+            for (Job<?, ?> candidate : fallback.getFallbacks(job, defaultBranch)) {
+                if (getCachePath(storage, candidate).exists()) {
+                    return candidate;
+                }
+            }
+        }
+        return job;
     }
 
     /**
      * Internal method only
      */
     public static List<Cache.Saver> cache(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment, List<Cache> caches) throws IOException, InterruptedException {
-        ObjectPath cachePath = getCachePath(storage, run);
+        return cache(storage, run, workspace, launcher, listener, initialEnvironment, caches, null, null);
+    }
+
+    /**
+     * Internal method only
+     */
+    public static List<Cache.Saver> cache(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment, List<Cache> caches, String defaultBranch, String sharedCache) throws IOException, InterruptedException {
+        return cache(storage, run, workspace, launcher, listener, initialEnvironment, caches, defaultBranch, sharedCache, CacheMode.READ_WRITE);
+    }
+
+    /**
+     * Internal method only
+     */
+    public static List<Cache.Saver> cache(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment, List<Cache> caches, String defaultBranch, String sharedCache, CacheMode mode) throws IOException, InterruptedException {
+        ObjectPath cachePath;
+        String key;
+        if (sharedCache != null) {
+            cachePath = getSharedCachePath(storage, sharedCache);
+            key = CacheLocks.SHARED_PREFIX + sharedCache;
+        } else {
+            Job<?, ?> source = getCacheSource(storage, run.getParent(), defaultBranch);
+            cachePath = getCachePath(storage, source);
+            key = source.getFullName();
+
+            // A cache inherited from another job is only read from, the build saves to its own cache path
+            if (source != run.getParent()) {
+                listener.getLogger().println("No cache for this job yet, restoring from " + source.getFullDisplayName());
+                cachePath = new ReadOnlyObjectPath(cachePath);
+            }
+        }
 
         LOG.fine("Preparing cache for build " + run);
 
-        // Lock the cache for reading - would be nice to make it more fine grain for multiple readers of cache
+        // Lock the cache for reading, any number of builds may restore the same cache at once
         List<Cache.Saver> cacheSavers = new ArrayList<>();
-        synchronized (getLock(run.getParent())) {
+        Lock lock = getLock(key).readLock();
+        long lockRequested = System.nanoTime();
+        lock.lockInterruptibly();
+        CachePrewarmer.Mirror mirror = null;
+        try {
+            long lockWait = System.nanoTime() - lockRequested;
+
+            // Restore from the copy pre-warmed onto the node first, if any, so only what changed since is transferred
+            mirror = CachePrewarmer.acquire(key, workspace);
+            cachePath = mirror.wrap(cachePath);
+            String generation = CacheGenerations.get(key);
+
             for (Cache cache : caches) {
-                cacheSavers.add(cache.cache(cachePath, run, workspace, launcher, listener, initialEnvironment));
+                TransferResult result = new TransferResult();
+                result.addLockWaitNanos(lockWait);
+
+                boolean restore = mode.isRestore() && cache.getMode().isRestore();
+                Cache.Saver saver = cache.cache(new RecordingObjectPath(cachePath, result, generation, key), run, workspace, launcher, listener, initialEnvironment, restore);
+
+                CacheStatistics statistics = new CacheStatistics(cache.getTitle());
+                statistics.setRestore(result);
+                saver.setStatistics(statistics);
+                cacheSavers.add(saver);
+
+                listener.getLogger().println("Restored " + cache.getTitle() + ": " + result);
+                CacheMetrics.restored(statistics);
+            }
+        } finally {
+            if (mirror != null) {
+                mirror.release();
             }
+            lock.unlock();
         }
         return cacheSavers;
     }
@@ -65,38 +147,181 @@ public class CacheManager {
      * Internal method only
      */
     public static void save(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers) throws IOException, InterruptedException {
-        ObjectPath cachePath = getCachePath(storage, run);
+        save(storage, run, workspace, launcher, listener, maxCacheSize, caches, cacheSavers, null);
+    }
 
-        // First calculate size of cache to check if it should just be deleted
-        long totalSize = 0L;
-        for (Cache.Saver saver : cacheSavers) {
-            totalSize += saver.calculateSize(cachePath, run, workspace, launcher, listener);
+    /**
+     * Internal method only
+     */
+    public static void save(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers, String sharedCache) throws IOException, InterruptedException {
+        save(storage, run, workspace, launcher, listener, maxCacheSize, caches, cacheSavers, sharedCache, null, CacheMode.READ_WRITE, SaveCondition.ALWAYS, false);
+    }
+
+    /**
+     * Internal method only
+     */
+    public static void save(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers, String sharedCache, String defaultBranch, CacheMode mode, SaveCondition condition, boolean failed) throws IOException, InterruptedException {
+        // Callbacks of builds started before modes and conditions existed have neither
+        if (mode == null) {
+            mode = CacheMode.READ_WRITE;
+        }
+        if (condition == null) {
+            condition = SaveCondition.ALWAYS;
         }
 
-        // synchronize on the build's parent object as we are going to write to the shared cache
-        synchronized (getLock(run.getParent())) {
+        // Decide what to save before anything is scanned or locked, most builds of pull requests save nothing
+        List<Cache> savedCaches = new ArrayList<>();
+        List<Cache.Saver> savedSavers = new ArrayList<>();
+        if (!condition.isMet(run, failed, defaultBranch)) {
+            listener.getLogger().println("Not saving caches as the build does not meet the save condition: " + condition.getDisplayName());
+        } else {
+            for (int i = 0; i < cacheSavers.size(); i++) {
+                if (mode.isSave() && caches.get(i).getMode().isSave()) {
+                    savedCaches.add(caches.get(i));
+                    savedSavers.add(cacheSavers.get(i));
+                } else {
+                    listener.getLogger().println("Not saving " + caches.get(i).getTitle() + " as it is only restored");
+                }
+            }
+        }
 
-            // If total size is greater than configured maximum, delete all caches to start fresh next build
-            if (totalSize > maxCacheSize * 1024 * 1024) {
-                listener.getLogger().println("Removing job cache as it has grown beyond configured maximum size of " +
-                        maxCacheSize + "M. Next build will start with no cache.");
+        try {
+            if (!savedSavers.isEmpty()) {
+                saveCaches(storage, run, workspace, launcher, listener, maxCacheSize, savedCaches, savedSavers, sharedCache);
+            }
+        } finally {
+            // Add a build action so that users can navigate the cache stored on master through UI
+            List<CacheStatistics> statistics = new ArrayList<>();
+            for (int i = 0; i < cacheSavers.size(); i++) {
+                CacheStatistics cacheStatistics = cacheSavers.get(i).getStatistics();
+                statistics.add(cacheStatistics == null ? new CacheStatistics(caches.get(i).getTitle()) : cacheStatistics);
+            }
+            run.addAction(new CacheBuildLastAction(caches, statistics));
+        }
+    }
 
-                if (cachePath.exists()) {
-                    cachePath.deleteRecursive();
-                } else {
-                    listener.getLogger().println("Cache does not exist even though max cache was reached." +
-                            "  You may want to consider increasing maximum cache size.");
+    private static void saveCaches(ItemStorage storage, Run run, FilePath workspace, Launcher launcher, TaskListener listener, long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers, String sharedCache) throws IOException, InterruptedException {
+        ObjectPath cachePath;
+        String key;
+        if (sharedCache != null) {
+            cachePath = getSharedCachePath(storage, sharedCache);
+            key = CacheLocks.SHARED_PREFIX + sharedCache;
+
+            SharedCache declaration = GlobalItemStorage.get().getSharedCache(sharedCache);
+            String writer = declaration == null ? null : declaration.getWriter();
+            if (writer != null && !writer.equals(run.getParent().getFullName())) {
+                listener.getLogger().println("Not saving shared cache " + sharedCache + " as it is only saved by " + writer);
+                return;
+            }
+        } else {
+            cachePath = getCachePath(storage, run);
+            key = run.getParent().getFullName();
+        }
+
+        // Older builds give way to a newer build that saved or is saving the same cache so that only the newest uploads
+        if (isSuperseded(key, run, listener)) {
+            return;
+        }
+
+        CacheCommits.saving(key, run);
+        try {
+            List<CacheStatistics> statistics = new ArrayList<>();
+            List<TransferResult> results = new ArrayList<>();
+
+            // First calculate size of cache to check if it should just be deleted
+            long totalSize = 0L;
+            for (int i = 0; i < cacheSavers.size(); i++) {
+                Cache.Saver saver = cacheSavers.get(i);
+
+                TransferResult result = new TransferResult();
+                long start = System.nanoTime();
+                totalSize += saver.calculateSize(new RecordingObjectPath(cachePath, result, null, key), run, workspace, launcher, listener);
+                result.addScanNanos(System.nanoTime() - start);
+
+                CacheStatistics cacheStatistics = saver.getStatistics();
+                if (cacheStatistics == null) {
+                    cacheStatistics = new CacheStatistics(caches.get(i).getTitle());
+                    saver.setStatistics(cacheStatistics);
                 }
-            } else {
-                // Otherwise, request each cache to save itself for the next build
-                LOG.fine("Saving cache for build " + run);
-                for (Cache.Saver saver : cacheSavers) {
-                    saver.save(cachePath, run, workspace, launcher, listener);
+                cacheStatistics.setSave(result);
+
+                statistics.add(cacheStatistics);
+                results.add(result);
+            }
+
+            // Caches that know which of their files are least reused drop those before the whole cache is given up
+            long maxSize = maxCacheSize * 1024 * 1024;
+            for (int i = 0; i < cacheSavers.size() && totalSize > maxSize; i++) {
+                totalSize -= cacheSavers.get(i).shrink(totalSize - maxSize, listener);
+            }
+
+            // Lock the cache for writing as we are going to replace its contents
+            Lock lock = getLock(key).writeLock();
+            long lockRequested = System.nanoTime();
+            lock.lockInterruptibly();
+            try {
+                long lockWait = System.nanoTime() - lockRequested;
+                for (TransferResult result : results) {
+                    result.addLockWaitNanos(lockWait);
+                }
+
+                // Saves queued for the lock collapse into the one of the newest build
+                if (isSuperseded(key, run, listener)) {
+                    LOG.fine("Skipping save of cache for build " + run + " superseded by a newer build");
+                } else if (totalSize > maxSize) {
+                    // If total size is greater than configured maximum, delete all caches to start fresh next build
+                    listener.getLogger().println("Removing job cache as it has grown beyond configured maximum size of " +
+                            maxCacheSize + "M. Next build will start with no cache.");
+
+                    for (CacheStatistics cacheStatistics : statistics) {
+                        cacheStatistics.setExceededMaxCacheSize(true);
+                    }
+
+                    if (cachePath.exists()) {
+                        cachePath.deleteRecursive();
+                    } else {
+                        listener.getLogger().println("Cache does not exist even though max cache was reached." +
+                                "  You may want to consider increasing maximum cache size.");
+                    }
+                    CachePrewarmer.pruned(key);
+                    CacheGenerations.set(key, CacheGenerations.next());
+                    CacheCommits.committed(key, run);
+                } else {
+                    // Otherwise, request each cache to save itself for the next build
+                    LOG.fine("Saving cache for build " + run);
+                    String generation = CacheGenerations.next();
+                    for (int i = 0; i < cacheSavers.size(); i++) {
+                        cacheSavers.get(i).save(new RecordingObjectPath(cachePath, results.get(i), generation, key), run, workspace, launcher, listener);
+
+                        listener.getLogger().println("Saved " + statistics.get(i).getTitle() + ": " + results.get(i));
+                        if (results.get(i).getFilesDeleted() > 0) {
+                            CachePrewarmer.pruned(key);
+                        }
+                    }
+                    CacheGenerations.set(key, generation);
+                    CacheCommits.committed(key, run);
                 }
+            } finally {
+                lock.unlock();
             }
+
+            for (CacheStatistics cacheStatistics : statistics) {
+                CacheMetrics.saved(cacheStatistics);
+            }
+        } finally {
+            CacheCommits.done(key, run);
         }
+    }
 
-        // Add a build action so that users can navigate the cache stored on master through UI
-        run.addAction(new CacheBuildLastAction(caches));
+    private static boolean isSuperseded(String key, Run<?, ?> run, TaskListener listener) {
+        if (!CacheCommits.isNewer(key, run)) {
+            listener.getLogger().println("Not saving cache as a newer build already saved it");
+            return true;
+        }
+        if (CacheCommits.isNewerSaving(key, run)) {
+            listener.getLogger().println("Not saving cache as a newer build is saving it");
+            return true;
+        }
+        return false;
     }
 }
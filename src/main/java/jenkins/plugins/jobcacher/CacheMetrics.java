@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferScheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes cache statistics to the Metrics plugin when it is installed.
+ *
+ * @author Peter Hayes
+ */
+final class CacheMetrics {
+    private static final String PREFIX = "jenkins.jobcacher.";
+
+    private CacheMetrics() {}
+
+    static void restored(CacheStatistics statistics) {
+        if (isMetricsInstalled()) {
+            Publisher.publish("restore", statistics.getRestore());
+            Publisher.mark(statistics.isHit() ? "restore.hit" : "restore.miss");
+            if (statistics.isUpToDate()) {
+                Publisher.mark("restore.upToDate");
+            }
+        }
+    }
+
+    static void saved(CacheStatistics statistics) {
+        if (isMetricsInstalled()) {
+            Publisher.publish("save", statistics.getSave());
+            if (statistics.isExceededMaxCacheSize()) {
+                Publisher.mark("save.exceededMaxCacheSize");
+            }
+        }
+    }
+
+    private static boolean isMetricsInstalled() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null && jenkins.getPlugin("metrics") != null;
+    }
+
+    /**
+     * Kept separate so that the Metrics plugin classes are only loaded once the plugin is known to be present
+     */
+    private static final class Publisher {
+        static void publish(String phase, TransferResult result) {
+            if (result == null) return;
+
+            MetricRegistry registry = Metrics.metricRegistry();
+            registerGauges(registry);
+
+            registry.timer(PREFIX + phase + ".scan").update(result.getScanMillis(), TimeUnit.MILLISECONDS);
+            registry.timer(PREFIX + phase + ".list").update(result.getListMillis(), TimeUnit.MILLISECONDS);
+            registry.timer(PREFIX + phase + ".transfer").update(result.getTransferMillis(), TimeUnit.MILLISECONDS);
+            registry.timer(PREFIX + phase + ".lockWait").update(result.getLockWaitMillis(), TimeUnit.MILLISECONDS);
+            registry.timer(PREFIX + phase + ".queueWait").update(result.getQueueWaitMillis(), TimeUnit.MILLISECONDS);
+            registry.histogram(PREFIX + phase + ".bytes").update(result.getBytesTransferred());
+            registry.histogram(PREFIX + phase + ".files").update(result.getFilesTransferred());
+            registry.meter(PREFIX + phase + ".skipped").mark(result.getFilesSkipped());
+        }
+
+        private static synchronized void registerGauges(MetricRegistry registry) {
+            if (registry.getGauges().containsKey(PREFIX + "transfers.queued")) return;
+
+            registry.register(PREFIX + "transfers.queued", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return TransferScheduler.getQueueDepth();
+                }
+            });
+            registry.register(PREFIX + "transfers.running", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return TransferScheduler.getRunning();
+                }
+            });
+        }
+
+        static void mark(String name) {
+            Metrics.metricRegistry().meter(PREFIX + name).mark();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+/**
+ * Whether a cache is restored at the start of a build, saved at its end or both.  A cache is only restored or saved
+ * when both its own mode and the mode of the wrapper or step it is configured in allow it.
+ *
+ * @author Peter Hayes
+ */
+public enum CacheMode {
+    READ_WRITE(true, true),
+    RESTORE_ONLY(true, false),
+    SAVE_ONLY(false, true);
+
+    private final boolean restore;
+    private final boolean save;
+
+    CacheMode(boolean restore, boolean save) {
+        this.restore = restore;
+        this.save = save;
+    }
+
+    public boolean isRestore() {
+        return restore;
+    }
+
+    public boolean isSave() {
+        return save;
+    }
+
+    public String getDisplayName() {
+        switch (this) {
+            case RESTORE_ONLY:
+                return Messages.CacheMode_RestoreOnly();
+            case SAVE_ONLY:
+                return Messages.CacheMode_SaveOnly();
+            default:
+                return Messages.CacheMode_ReadWrite();
+        }
+    }
+}
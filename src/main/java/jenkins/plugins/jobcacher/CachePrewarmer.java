@@ -0,0 +1,587 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.ComputerListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.plugins.itemstorage.CacheLocks;
+import jenkins.plugins.itemstorage.GlobalItemStorage;
+import jenkins.plugins.itemstorage.ItemStorage;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.Throttle;
+import jenkins.plugins.itemstorage.TransferResult;
+import jenkins.plugins.itemstorage.TransferThrottles;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a mirror of caches on the nodes that are likely to need them so that a build only transfers what changed since
+ * the mirror was filled.  When a node comes online the caches most used recently by builds on its labels are copied
+ * into the mirror in the background, and when an item waits in the queue for a label its cache is copied onto the idle
+ * nodes of that label.  Copies are made one at a time, paced to a maximum rate and stopped as soon as a build starts on
+ * the node.  Each node keeps a limited number of mirrors, evicting the least recently used.
+ *
+ * @author Peter Hayes
+ */
+public final class CachePrewarmer {
+    private static final Logger LOG = Logger.getLogger(CachePrewarmer.class.getName());
+
+    /**
+     * The number of caches to copy onto a node when it comes online, 0 disables pre-warming
+     */
+    static final int MAX_CACHES = Integer.getInteger(CachePrewarmer.class.getName() + ".maxCaches", 5);
+
+    /**
+     * The average rate in bytes per second a node is pre-warmed at, 0 for no limit
+     */
+    static final long BYTES_PER_SECOND = Long.getLong(CachePrewarmer.class.getName() + ".bytesPerSecond", 10L * 1024 * 1024);
+
+    /**
+     * The number of mirrors kept on each node
+     */
+    static final int MAX_MIRRORS = Math.max(1, Integer.getInteger(CachePrewarmer.class.getName() + ".maxMirrors", 20));
+
+    private static final String MIRROR_DIR = "jobcacher-mirror";
+
+    // Usage counted a day ago is worth half as much as usage counted now
+    private static final long HALF_LIFE = TimeUnit.DAYS.toMillis(1);
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "CachePrewarmer"));
+
+    // Guarded by itself
+    private static final Map<String, Usage> usages = new HashMap<>();
+
+    // Could potentially grow indefinitely as nodes and jobs are created and destroyed
+    private static final ConcurrentMap<String, ReadWriteLock> mirrorLocks = new ConcurrentHashMap<>();
+
+    // The mirrors filled since this master started that hold no file their cache has dropped since.  Mirrors are only
+    // added while holding the lock of the cache for reading, so a restore never sees a mirror go stale under it.
+    private static final Set<String> cleanMirrors = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private CachePrewarmer() {}
+
+    /**
+     * Record that a build restores the cache with the passed key on the node of the workspace and get the mirror of
+     * that cache on the node.
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     * @param workspace The workspace the cache is restored to
+     * @return The mirror which must be released once the restore completes
+     */
+    static Mirror acquire(String key, FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+
+        // Builds on the master read the cache directly so there is nothing to mirror there
+        if (MAX_CACHES <= 0 || node == null || node instanceof Jenkins) {
+            return new Mirror(key, null, null);
+        }
+
+        synchronized (usages) {
+            getUsage(key).used(node.getAssignedLabels(), System.currentTimeMillis());
+        }
+
+        FilePath root = getMirror(node, key);
+        Lock lock = getMirrorLock(getMirrorKey(node, key)).readLock();
+
+        // A mirror that may hold files the cache has dropped would bring them back into the workspace, and if the
+        // mirror is being filled right now just restore without it rather than wait
+        if (root == null || !cleanMirrors.contains(getMirrorKey(node, key)) || !lock.tryLock()) {
+            return new Mirror(key, null, null);
+        }
+        return new Mirror(key, root, lock);
+    }
+
+    /**
+     * Record that files were removed from a cache so its mirrors are not restored from until they are filled again
+     *
+     * @param key The cache key, the job full name or the lock key of a shared cache
+     */
+    static void pruned(String key) {
+        String suffix = "/" + Util.getDigestOf(key);
+        for (Iterator<String> mirrors = cleanMirrors.iterator(); mirrors.hasNext(); ) {
+            if (mirrors.next().endsWith(suffix)) {
+                mirrors.remove();
+            }
+        }
+    }
+
+    /**
+     * Pre-warm the caches most used on the labels of the node
+     */
+    static void prewarm(Node node) {
+        List<String> keys = new ArrayList<>();
+        synchronized (usages) {
+            final Map<String, Double> scores = new HashMap<>();
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Usage> usage : usages.entrySet()) {
+                double score = usage.getValue().score(node.getAssignedLabels(), now);
+                if (score > 0) {
+                    scores.put(usage.getKey(), score);
+                }
+            }
+
+            keys.addAll(scores.keySet());
+            Collections.sort(keys, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    return Double.compare(scores.get(b), scores.get(a));
+                }
+            });
+        }
+
+        prewarm(node, keys.subList(0, Math.min(MAX_CACHES, keys.size())));
+    }
+
+    private static void prewarm(final Node node, final List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        final String nodeName = node.getNodeName();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    try {
+                        if (!prewarm(nodeName, key)) {
+                            return;
+                        }
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "Unable to pre-warm cache " + key + " on " + nodeName, e);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy every path builds restore of a cache into its mirror on the node
+     *
+     * @return false if the node went away or got busy and should not be pre-warmed further
+     */
+    private static boolean prewarm(String nodeName, String key) throws IOException, InterruptedException {
+        Map<String, String[]> paths;
+        synchronized (usages) {
+            paths = new LinkedHashMap<>(getUsage(key).paths);
+        }
+
+        ObjectPath cachePath = getCachePath(key);
+        if (cachePath == null) {
+            return true;
+        }
+
+        for (Map.Entry<String, String[]> path : paths.entrySet()) {
+            Node node = Jenkins.getActiveInstance().getNode(nodeName);
+            Computer computer = node == null ? null : node.toComputer();
+            FilePath root = node == null ? null : getMirror(node, key);
+            if (computer == null || computer.isOffline() || computer.countBusy() > 0 || root == null) {
+                return false;
+            }
+
+            ObjectPath source = path.getKey().isEmpty() ? cachePath : cachePath.child(path.getKey());
+            FilePath target = path.getKey().isEmpty() ? root : root.child(path.getKey());
+            String[] patterns = path.getValue();
+
+            String mirrorKey = getMirrorKey(node, key);
+            Lock mirrorLock = getMirrorLock(mirrorKey).writeLock();
+            if (!mirrorLock.tryLock()) {
+                // A build is restoring from the mirror, it will be filled another time
+                continue;
+            }
+
+            Pacing pacing = new Pacing(computer);
+            TransferResult result;
+            TransferThrottles.register(root, pacing);
+            try {
+                Lock cacheLock = CacheManager.getLock(key).readLock();
+                cacheLock.lockInterruptibly();
+                try {
+                    if (!source.exists()) {
+                        continue;
+                    }
+
+                    // Copies only ever add files so a mirror that may hold files the cache dropped starts over
+                    if (!cleanMirrors.contains(mirrorKey)) {
+                        root.deleteRecursive();
+                        cleanMirrors.add(mirrorKey);
+                    }
+                    try {
+                        result = source.copyRecursiveTo(patterns[0], patterns[1], target);
+                    } catch (IOException | InterruptedException e) {
+                        // A copy stopped half way may have left a file cut short
+                        cleanMirrors.remove(mirrorKey);
+                        if (pacing.busy) {
+                            LOG.fine("Stopped pre-warming " + key + " on " + nodeName + " as a build started there");
+                            return false;
+                        }
+                        throw e;
+                    }
+                    touch(root);
+                } finally {
+                    cacheLock.unlock();
+                }
+            } finally {
+                TransferThrottles.release(root);
+                mirrorLock.unlock();
+            }
+
+            LOG.fine("Pre-warmed " + key + " " + path.getKey() + " on " + nodeName + ": " + result);
+        }
+
+        Node node = Jenkins.getActiveInstance().getNode(nodeName);
+        if (node != null) {
+            evict(node);
+        }
+        return true;
+    }
+
+    /**
+     * Delete the least recently used mirrors of a node beyond the maximum, skipping those in use.  The modification
+     * time of a mirror directory records its last use so eviction also covers mirrors filled before a restart.
+     */
+    private static void evict(Node node) throws IOException, InterruptedException {
+        FilePath root = node.getRootPath();
+        FilePath mirrors = root == null ? null : root.child(MIRROR_DIR);
+        if (mirrors == null || !mirrors.isDirectory()) {
+            return;
+        }
+
+        List<FilePath> dirs = mirrors.listDirectories();
+        if (dirs.size() <= MAX_MIRRORS) {
+            return;
+        }
+
+        final Map<FilePath, Long> used = new HashMap<>();
+        for (FilePath dir : dirs) {
+            used.put(dir, dir.lastModified());
+        }
+        Collections.sort(dirs, new Comparator<FilePath>() {
+            @Override
+            public int compare(FilePath a, FilePath b) {
+                return Long.compare(used.get(a), used.get(b));
+            }
+        });
+
+        int excess = dirs.size() - MAX_MIRRORS;
+        for (FilePath dir : dirs) {
+            if (excess == 0) {
+                break;
+            }
+
+            String mirrorKey = node.getNodeName() + "/" + dir.getName();
+            Lock lock = getMirrorLock(mirrorKey).writeLock();
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                cleanMirrors.remove(mirrorKey);
+                dir.deleteRecursive();
+                excess--;
+                LOG.fine("Evicted mirror " + dir + " from " + node.getNodeName());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Mark a mirror as used just now so it is the last to be evicted
+     */
+    private static void touch(FilePath root) throws IOException, InterruptedException {
+        if (root.isDirectory()) {
+            root.touch(System.currentTimeMillis());
+        }
+    }
+
+    private static ObjectPath getCachePath(String key) throws IOException {
+        ItemStorage storage = GlobalItemStorage.get().getStorage();
+        if (key.startsWith(CacheLocks.SHARED_PREFIX)) {
+            if (!storage.supportsSharedCaches()) {
+                return null;
+            }
+            return CacheManager.getSharedCachePath(storage, key.substring(CacheLocks.SHARED_PREFIX.length()));
+        }
+
+        Job<?, ?> job = Jenkins.getActiveInstance().getItemByFullName(key, Job.class);
+        return job == null ? null : CacheManager.getCachePath(storage, job);
+    }
+
+    private static FilePath getMirror(Node node, String key) {
+        FilePath root = node.getRootPath();
+        return root == null ? null : root.child(MIRROR_DIR).child(Util.getDigestOf(key));
+    }
+
+    /**
+     * @return The node name followed by the name of the mirror directory
+     */
+    private static String getMirrorKey(Node node, String key) {
+        return node.getNodeName() + "/" + Util.getDigestOf(key);
+    }
+
+    private static ReadWriteLock getMirrorLock(String mirrorKey) {
+        ReadWriteLock lock = mirrorLocks.get(mirrorKey);
+        if (lock == null) {
+            ReadWriteLock existing = mirrorLocks.putIfAbsent(mirrorKey, lock = new ReentrantReadWriteLock());
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
+
+    private static Usage getUsage(String key) {
+        Usage usage = usages.get(key);
+        if (usage == null) {
+            usages.put(key, usage = new Usage());
+        }
+        return usage;
+    }
+
+    /**
+     * Paces a copy into a mirror file by file so that on average it stays below the configured rate, and stops it as
+     * soon as a build starts on the node
+     */
+    private static final class Pacing implements Throttle {
+        private final Computer computer;
+        private final long start = System.currentTimeMillis();
+        private long bytes;
+        private volatile boolean busy;
+
+        Pacing(Computer computer) {
+            this.computer = computer;
+        }
+
+        @Override
+        public synchronized void acquire(long bytes) throws InterruptedException {
+            if (computer.countBusy() > 0) {
+                busy = true;
+                throw new InterruptedException("A build started on " + computer.getName());
+            }
+
+            this.bytes += bytes;
+            if (BYTES_PER_SECOND > 0) {
+                long wait = this.bytes * 1000 / BYTES_PER_SECOND - (System.currentTimeMillis() - start);
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recent usage of a cache, kept in memory only so it is rebuilt by the builds that run after a restart
+     */
+    private static final class Usage {
+        private final Map<String, double[]> scores = new HashMap<>();
+        private final Map<String, String[]> paths = new LinkedHashMap<>();
+
+        void used(Iterable<LabelAtom> labels, long now) {
+            for (LabelAtom label : labels) {
+                double[] score = scores.get(label.getName());
+                if (score == null) {
+                    scores.put(label.getName(), new double[] {1, now});
+                } else {
+                    score[0] = decay(score, now) + 1;
+                    score[1] = now;
+                }
+            }
+        }
+
+        double score(Iterable<LabelAtom> labels, long now) {
+            double total = 0;
+            for (LabelAtom label : labels) {
+                double[] score = scores.get(label.getName());
+                if (score != null) {
+                    total += decay(score, now);
+                }
+            }
+            return total;
+        }
+
+        private static double decay(double[] score, long now) {
+            return score[0] * Math.pow(0.5, (now - score[1]) / (double) HALF_LIFE);
+        }
+    }
+
+    /**
+     * The mirror of a cache on a node that a build restores from
+     */
+    static final class Mirror {
+        private final String key;
+        private final FilePath root;
+        private final Lock lock;
+
+        private Mirror(String key, FilePath root, Lock lock) {
+            this.key = key;
+            this.root = root;
+            this.lock = lock;
+        }
+
+        /**
+         * Decorate the cache path so that restores first copy from the mirror and only transfer what the mirror lacks
+         */
+        ObjectPath wrap(ObjectPath cachePath) {
+            return new MirroredObjectPath(cachePath, "");
+        }
+
+        void release() {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+
+        private final class MirroredObjectPath extends ObjectPath {
+            private final ObjectPath delegate;
+            private final String path;
+
+            MirroredObjectPath(ObjectPath delegate, String path) {
+                this.delegate = delegate;
+                this.path = path;
+            }
+
+            @Override
+            public ObjectPath child(String child) throws IOException, InterruptedException {
+                return new MirroredObjectPath(delegate.child(child), path.isEmpty() ? child : path + "/" + child);
+            }
+
+            @Override
+            public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+                synchronized (usages) {
+                    getUsage(key).paths.put(path, new String[] {fileMask, excludes});
+                }
+
+                // Files copied from the mirror keep their modification time so the restore below skips them
+                if (root != null) {
+                    FilePath mirror = path.isEmpty() ? root : root.child(path);
+                    if (mirror.exists()) {
+                        mirror.copyRecursiveTo(fileMask, excludes, target);
+                        touch(root);
+                    }
+                }
+                return delegate.copyRecursiveTo(fileMask, excludes, target);
+            }
+
+            @Override
+            public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+                return delegate.copyRecursiveFrom(fileMask, excludes, source);
+            }
+
+            @Override
+            public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+                return delegate.copyRecursiveFrom(fileMask, excludes, source, deleteMissing);
+            }
+
+            @Override
+            public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+                return delegate.copyRecursiveFrom(fileMask, excludes, source, deleteMissing, filter);
+            }
+
+            @Override
+            public boolean exists() throws IOException, InterruptedException {
+                return delegate.exists();
+            }
+
+            @Override
+            public void deleteRecursive() throws IOException, InterruptedException {
+                delegate.deleteRecursive();
+            }
+
+            @Override
+            public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+                return delegate.browse(request, response, job, name);
+            }
+        }
+    }
+
+    @Extension
+    public static final class PrewarmComputerListener extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Node node = c.getNode();
+            if (MAX_CACHES > 0 && node != null && !(node instanceof Jenkins)) {
+                prewarm(node);
+            }
+        }
+    }
+
+    @Extension
+    public static final class PrewarmQueueListener extends QueueListener {
+        @Override
+        public void onEnterBuildable(Queue.BuildableItem item) {
+            Label label = item.getAssignedLabel();
+            if (MAX_CACHES <= 0 || label == null || !(item.task.getOwnerTask() instanceof Job)) {
+                return;
+            }
+
+            String key = ((Job<?, ?>) item.task.getOwnerTask()).getFullName();
+            for (Node node : label.getNodes()) {
+                Computer computer = node.toComputer();
+                if (computer != null && computer.isOnline() && computer.countBusy() == 0 && !(node instanceof Jenkins)) {
+                    prewarm(node, Collections.singletonList(key));
+                }
+            }
+        }
+    }
+}
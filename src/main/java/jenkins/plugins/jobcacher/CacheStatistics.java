@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * Records what restoring and saving a single cache cost in a build.
+ *
+ * @author Peter Hayes
+ */
+@ExportedBean(defaultVisibility = 2)
+public class CacheStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String title;
+    private TransferResult restore;
+    private TransferResult save;
+    private boolean exceededMaxCacheSize;
+
+    public CacheStatistics(String title) {
+        this.title = title;
+    }
+
+    @Exported
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * A restore is a hit when the stored cache contained any file matching the cache's patterns or when the workspace
+     * already held the current generation of the cache so nothing needed copying
+     *
+     * @return true if this build was seeded from an existing cache
+     */
+    @Exported
+    public boolean isHit() {
+        return restore != null && (restore.getFilesScanned() > 0 || restore.getPathsUpToDate() > 0);
+    }
+
+    /**
+     * @return true if at least one path of the cache was skipped as the workspace was already up to date with it
+     */
+    @Exported
+    public boolean isUpToDate() {
+        return restore != null && restore.getPathsUpToDate() > 0;
+    }
+
+    @Exported
+    public TransferResult getRestore() {
+        return restore;
+    }
+
+    public void setRestore(TransferResult restore) {
+        this.restore = restore;
+    }
+
+    @Exported
+    public TransferResult getSave() {
+        return save;
+    }
+
+    public void setSave(TransferResult save) {
+        this.save = save;
+    }
+
+    /**
+     * @return true if the cache was discarded rather than saved as it grew beyond the maximum cache size
+     */
+    @Exported
+    public boolean isExceededMaxCacheSize() {
+        return exceededMaxCacheSize;
+    }
+
+    public void setExceededMaxCacheSize(boolean exceededMaxCacheSize) {
+        this.exceededMaxCacheSize = exceededMaxCacheSize;
+    }
+}
@@ -28,6 +28,7 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractProject;
 import hudson.model.Run;
 import hudson.model.TaskListener;
@@ -37,6 +38,7 @@ import jenkins.plugins.itemstorage.GlobalItemStorage;
 import jenkins.plugins.itemstorage.ItemStorage;
 import jenkins.tasks.SimpleBuildWrapper;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
@@ -52,6 +54,10 @@ import java.util.List;
 public class CacheWrapper extends SimpleBuildWrapper {
     private long maxCacheSize = 0L;
     private List<Cache> caches = new ArrayList<>();
+    private String defaultBranch;
+    private String sharedCache;
+    private CacheMode mode;
+    private SaveCondition saveCondition;
 
     public CacheWrapper() { }
 
@@ -84,11 +90,47 @@ public class CacheWrapper extends SimpleBuildWrapper {
         this.caches = caches;
     }
 
+    public String getDefaultBranch() {
+        return defaultBranch;
+    }
+
+    @DataBoundSetter
+    public void setDefaultBranch(String defaultBranch) {
+        this.defaultBranch = Util.fixEmptyAndTrim(defaultBranch);
+    }
+
+    public String getSharedCache() {
+        return sharedCache;
+    }
+
+    @DataBoundSetter
+    public void setSharedCache(String sharedCache) {
+        this.sharedCache = Util.fixEmptyAndTrim(sharedCache);
+    }
+
+    public CacheMode getMode() {
+        return mode == null ? CacheMode.READ_WRITE : mode;
+    }
+
+    @DataBoundSetter
+    public void setMode(CacheMode mode) {
+        this.mode = mode;
+    }
+
+    public SaveCondition getSaveCondition() {
+        return saveCondition == null ? SaveCondition.ALWAYS : saveCondition;
+    }
+
+    @DataBoundSetter
+    public void setSaveCondition(SaveCondition saveCondition) {
+        this.saveCondition = saveCondition;
+    }
+
     @Override
     public void setUp(Context context, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment) throws IOException, InterruptedException {
-        List<Cache.Saver> cacheSavers = CacheManager.cache(getStorage(), build, workspace, launcher, listener, initialEnvironment, caches);
+        List<Cache.Saver> cacheSavers = CacheManager.cache(getStorage(), build, workspace, launcher, listener, initialEnvironment, caches, defaultBranch, sharedCache, getMode());
 
-        context.setDisposer(new CacheDisposer(getStorage(), maxCacheSize, caches, cacheSavers));
+        context.setDisposer(new CacheDisposer(getStorage(), maxCacheSize, caches, cacheSavers, sharedCache, defaultBranch, getMode(), getSaveCondition()));
     }
 
     @Extension
@@ -124,18 +166,26 @@ public class CacheWrapper extends SimpleBuildWrapper {
         private long maxCacheSize;
         private List<Cache> caches;
         private List<Cache.Saver> cacheSavers;
+        private String sharedCache;
+        private String defaultBranch;
+        private CacheMode mode;
+        private SaveCondition saveCondition;
 
         @DataBoundConstructor
-        public CacheDisposer(ItemStorage storage, long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers) {
+        public CacheDisposer(ItemStorage storage, long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers, String sharedCache, String defaultBranch, CacheMode mode, SaveCondition saveCondition) {
             this.storage = storage;
             this.maxCacheSize = maxCacheSize;
             this.caches = caches;
             this.cacheSavers = cacheSavers;
+            this.sharedCache = sharedCache;
+            this.defaultBranch = defaultBranch;
+            this.mode = mode;
+            this.saveCondition = saveCondition;
         }
 
         @Override
         public void tearDown(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
-            CacheManager.save(storage, build, workspace, launcher, listener, maxCacheSize, caches, cacheSavers);
+            CacheManager.save(storage, build, workspace, launcher, listener, maxCacheSize, caches, cacheSavers, sharedCache, defaultBranch, mode, saveCondition, false);
         }
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.FilePath;
+import hudson.model.Job;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Decorates the cache path of another job that a build restores from so that nothing the build does can modify it.
+ *
+ * @author Peter Hayes
+ */
+class ReadOnlyObjectPath extends ObjectPath {
+    private final ObjectPath delegate;
+
+    ReadOnlyObjectPath(ObjectPath delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ObjectPath child(String path) throws IOException, InterruptedException {
+        return new ReadOnlyObjectPath(delegate.child(path));
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        return delegate.copyRecursiveTo(fileMask, excludes, target);
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        throw new IOException("Cache path is read only");
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        throw new IOException("Cache path is read only");
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        throw new IOException("Cache path is read only");
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        return delegate.exists();
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        throw new IOException("Cache path is read only");
+    }
+
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+        return delegate.browse(request, response, job, name);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.FilePath;
+import hudson.model.Job;
+import jenkins.plugins.itemstorage.ObjectPath;
+import jenkins.plugins.itemstorage.PathFilter;
+import jenkins.plugins.itemstorage.TransferResult;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Decorates the object path handed to a cache so that the results of every copy it performs, including those of its
+ * children, are accumulated into a single result.  It also carries the generation of the cache so that caches can
+ * stamp the directories they restore and save, and the key of the cache they belong to.
+ *
+ * @author Peter Hayes
+ */
+class RecordingObjectPath extends ObjectPath {
+    private final ObjectPath delegate;
+    private final TransferResult result;
+    private final String generation;
+    private final String key;
+
+    RecordingObjectPath(ObjectPath delegate, TransferResult result) {
+        this(delegate, result, null, null);
+    }
+
+    RecordingObjectPath(ObjectPath delegate, TransferResult result, String generation, String key) {
+        this.delegate = delegate;
+        this.result = result;
+        this.generation = generation;
+        this.key = key;
+    }
+
+    /**
+     * @return The generation the cache has when restoring or will have once saved, or null if unknown
+     */
+    String getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The key of the cache, the job full name or the lock key of a shared cache, or null if unknown
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Record that a path was left as is because the target already matches this generation of the cache
+     */
+    void upToDate() {
+        synchronized (result) {
+            result.pathUpToDate();
+        }
+    }
+
+    @Override
+    public ObjectPath child(String path) throws IOException, InterruptedException {
+        return new RecordingObjectPath(delegate.child(path), result, generation, key);
+    }
+
+    @Override
+    public TransferResult copyRecursiveTo(String fileMask, String excludes, FilePath target) throws IOException, InterruptedException {
+        return record(delegate.copyRecursiveTo(fileMask, excludes, target));
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source) throws IOException, InterruptedException {
+        return record(delegate.copyRecursiveFrom(fileMask, excludes, source));
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing) throws IOException, InterruptedException {
+        return record(delegate.copyRecursiveFrom(fileMask, excludes, source, deleteMissing));
+    }
+
+    @Override
+    public TransferResult copyRecursiveFrom(String fileMask, String excludes, FilePath source, boolean deleteMissing, PathFilter filter) throws IOException, InterruptedException {
+        return record(delegate.copyRecursiveFrom(fileMask, excludes, source, deleteMissing, filter));
+    }
+
+    @Override
+    public boolean exists() throws IOException, InterruptedException {
+        return delegate.exists();
+    }
+
+    @Override
+    public void deleteRecursive() throws IOException, InterruptedException {
+        delegate.deleteRecursive();
+    }
+
+    @Override
+    public HttpResponse browse(StaplerRequest request, StaplerResponse response, Job job, String name) throws IOException {
+        return delegate.browse(request, response, job, name);
+    }
+
+    private TransferResult record(TransferResult copied) {
+        synchronized (result) {
+            result.add(copied);
+        }
+        return copied;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher;
+
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+
+/**
+ * When the caches of a build are saved.  It is evaluated before anything is scanned so that builds which are not
+ * going to save, such as those of pull requests, neither look at the workspace nor wait for the cache lock.
+ *
+ * @author Peter Hayes
+ */
+public enum SaveCondition {
+    ALWAYS(false, false),
+    SUCCESS(true, false),
+    DEFAULT_BRANCH(false, true),
+    SUCCESS_ON_DEFAULT_BRANCH(true, true);
+
+    private final boolean success;
+    private final boolean defaultBranch;
+
+    SaveCondition(boolean success, boolean defaultBranch) {
+        this.success = success;
+        this.defaultBranch = defaultBranch;
+    }
+
+    /**
+     * @param run The build about to save its caches
+     * @param failed Whether the build or the block of the step failed, if the run does not have its result yet
+     * @param defaultBranch The default branch configured on the cache, or null to let {@link CacheFallback}s decide
+     * @return true if the build should save its caches
+     */
+    public boolean isMet(Run<?, ?> run, boolean failed, String defaultBranch) {
+        if (success) {
+            Result result = run.getResult();
+            if (failed || (result != null && result.isWorseThan(Result.SUCCESS))) {
+                return false;
+            }
+        }
+        return !this.defaultBranch || isDefaultBranch(run.getParent(), defaultBranch);
+    }
+
+    /**
+     * A job that no {@link CacheFallback} knows about, such as a freestyle job, is its own default branch
+     */
+    private static boolean isDefaultBranch(Job<?, ?> job, String defaultBranch) {
+        for (CacheFallback fallback : CacheFallback.all()) {
+            Boolean isDefault = fallback.isDefaultBranch(job, defaultBranch);
+            if (isDefault != null) {
+                return isDefault;
+            }
+        }
+        return true;
+    }
+
+    public String getDisplayName() {
+        switch (this) {
+            case SUCCESS:
+                return Messages.SaveCondition_Success();
+            case DEFAULT_BRANCH:
+                return Messages.SaveCondition_DefaultBranch();
+            case SUCCESS_ON_DEFAULT_BRANCH:
+                return Messages.SaveCondition_SuccessOnDefaultBranch();
+            default:
+                return Messages.SaveCondition_Always();
+        }
+    }
+}
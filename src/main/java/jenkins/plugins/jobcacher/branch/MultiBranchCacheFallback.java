@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package jenkins.plugins.jobcacher.branch;
+
+import hudson.Extension;
+import hudson.model.Job;
+import jenkins.branch.Branch;
+import jenkins.branch.BranchJobProperty;
+import jenkins.branch.MultiBranchProject;
+import jenkins.plugins.jobcacher.CacheFallback;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.metadata.PrimaryInstanceMetadataAction;
+import jenkins.scm.api.mixin.ChangeRequestSCMHead;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Seeds the cache of a new branch or pull request job in a multibranch project.  A pull request first falls back to
+ * its target branch, then any job falls back to the configured default branch or, when none is configured, to the
+ * branch the SCM reports as primary.
+ *
+ * @author Peter Hayes
+ */
+@Extension(optional = true)
+public class MultiBranchCacheFallback extends CacheFallback {
+
+    @Nonnull
+    @Override
+    public List<? extends Job<?, ?>> getFallbacks(@Nonnull Job<?, ?> job, @CheckForNull String defaultBranch) {
+        Branch branch = getBranch(job);
+        if (branch == null || !(job.getParent() instanceof MultiBranchProject)) {
+            return Collections.emptyList();
+        }
+
+        List<Job<?, ?>> siblings = new ArrayList<>();
+        for (Job<?, ?> sibling : ((MultiBranchProject<?, ?>) job.getParent()).getItems()) {
+            if (sibling != job) {
+                siblings.add(sibling);
+            }
+        }
+
+        List<Job<?, ?>> fallbacks = new ArrayList<>();
+        SCMHead head = branch.getHead();
+        if (head instanceof ChangeRequestSCMHead) {
+            addBranch(fallbacks, siblings, ((ChangeRequestSCMHead) head).getTarget().getName());
+        }
+
+        if (defaultBranch != null && !defaultBranch.isEmpty()) {
+            addBranch(fallbacks, siblings, defaultBranch);
+        } else {
+            for (Job<?, ?> sibling : siblings) {
+                Branch siblingBranch = getBranch(sibling);
+                if (siblingBranch != null && siblingBranch.getAction(PrimaryInstanceMetadataAction.class) != null
+                        && !fallbacks.contains(sibling)) {
+                    fallbacks.add(sibling);
+                }
+            }
+        }
+        return fallbacks;
+    }
+
+    @CheckForNull
+    @Override
+    public Boolean isDefaultBranch(@Nonnull Job<?, ?> job, @CheckForNull String defaultBranch) {
+        Branch branch = getBranch(job);
+        if (branch == null || !(job.getParent() instanceof MultiBranchProject)) {
+            return null;
+        }
+
+        if (defaultBranch != null && !defaultBranch.isEmpty()) {
+            return branch.getHead().getName().equals(defaultBranch);
+        }
+        return branch.getAction(PrimaryInstanceMetadataAction.class) != null;
+    }
+
+    private static void addBranch(List<Job<?, ?>> fallbacks, List<Job<?, ?>> siblings, String name) {
+        for (Job<?, ?> sibling : siblings) {
+            Branch siblingBranch = getBranch(sibling);
+            if (siblingBranch != null && siblingBranch.getHead().getName().equals(name) && !fallbacks.contains(sibling)) {
+                fallbacks.add(sibling);
+            }
+        }
+    }
+
+    @CheckForNull
+    private static Branch getBranch(Job<?, ?> job) {
+        BranchJobProperty property = job.getProperty(BranchJobProperty.class);
+        return property == null ? null : property.getBranch();
+    }
+}
@@ -29,6 +29,7 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import jenkins.model.Jenkins;
@@ -36,9 +37,12 @@ import jenkins.plugins.itemstorage.GlobalItemStorage;
 import jenkins.plugins.jobcacher.Cache;
 import jenkins.plugins.jobcacher.CacheDescriptor;
 import jenkins.plugins.jobcacher.CacheManager;
+import jenkins.plugins.jobcacher.CacheMode;
 import jenkins.plugins.jobcacher.Messages;
+import jenkins.plugins.jobcacher.SaveCondition;
 import org.jenkinsci.plugins.workflow.steps.*;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
@@ -53,6 +57,10 @@ import java.util.List;
 public class CacheStep extends AbstractStepImpl {
     private long maxCacheSize = 0L;
     private List<Cache> caches = new ArrayList<>();
+    private String defaultBranch;
+    private String sharedCache;
+    private CacheMode mode;
+    private SaveCondition saveCondition;
 
     @DataBoundConstructor
     public CacheStep(long maxCacheSize, List<Cache> caches) {
@@ -69,6 +77,42 @@ public class CacheStep extends AbstractStepImpl {
         return caches;
     }
 
+    public String getDefaultBranch() {
+        return defaultBranch;
+    }
+
+    @DataBoundSetter
+    public void setDefaultBranch(String defaultBranch) {
+        this.defaultBranch = Util.fixEmptyAndTrim(defaultBranch);
+    }
+
+    public String getSharedCache() {
+        return sharedCache;
+    }
+
+    @DataBoundSetter
+    public void setSharedCache(String sharedCache) {
+        this.sharedCache = Util.fixEmptyAndTrim(sharedCache);
+    }
+
+    public CacheMode getMode() {
+        return mode == null ? CacheMode.READ_WRITE : mode;
+    }
+
+    @DataBoundSetter
+    public void setMode(CacheMode mode) {
+        this.mode = mode;
+    }
+
+    public SaveCondition getSaveCondition() {
+        return saveCondition == null ? SaveCondition.ALWAYS : saveCondition;
+    }
+
+    @DataBoundSetter
+    public void setSaveCondition(SaveCondition saveCondition) {
+        this.saveCondition = saveCondition;
+    }
+
     public static class ExecutionImpl extends AbstractStepExecutionImpl {
 
         private static final long serialVersionUID = 1L;
@@ -89,11 +133,11 @@ public class CacheStep extends AbstractStepImpl {
             TaskListener listener = context.get(TaskListener.class);
             EnvVars initialEnvironment = context.get(EnvVars.class);
 
-            List<Cache.Saver> cacheSavers = CacheManager.cache(GlobalItemStorage.get().getStorage(), run, workspace, launcher, listener, initialEnvironment, cacheStep.caches);
+            List<Cache.Saver> cacheSavers = CacheManager.cache(GlobalItemStorage.get().getStorage(), run, workspace, launcher, listener, initialEnvironment, cacheStep.caches, cacheStep.defaultBranch, cacheStep.sharedCache, cacheStep.getMode());
 
             context.newBodyInvoker().
                     withContext(context).
-                    withCallback(new ExecutionCallback(cacheStep.maxCacheSize, cacheStep.caches, cacheSavers)).
+                    withCallback(new ExecutionCallback(cacheStep.maxCacheSize, cacheStep.caches, cacheSavers, cacheStep.sharedCache, cacheStep.defaultBranch, cacheStep.getMode(), cacheStep.getSaveCondition())).
                     start();
 
             return false;
@@ -115,17 +159,29 @@ public class CacheStep extends AbstractStepImpl {
         private long maxCacheSize;
         private List<Cache> caches;
         private List<Cache.Saver> cacheSavers;
+        private String sharedCache;
+        private String defaultBranch;
+        private CacheMode mode;
+        private SaveCondition saveCondition;
+
+        public ExecutionCallback(long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers, String sharedCache) {
+            this(maxCacheSize, caches, cacheSavers, sharedCache, null, CacheMode.READ_WRITE, SaveCondition.ALWAYS);
+        }
 
-        public ExecutionCallback(long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers) {
+        public ExecutionCallback(long maxCacheSize, List<Cache> caches, List<Cache.Saver> cacheSavers, String sharedCache, String defaultBranch, CacheMode mode, SaveCondition saveCondition) {
             this.maxCacheSize = maxCacheSize;
             this.caches = caches;
             this.cacheSavers = cacheSavers;
+            this.sharedCache = sharedCache;
+            this.defaultBranch = defaultBranch;
+            this.mode = mode;
+            this.saveCondition = saveCondition;
         }
 
         @Override
         public void onSuccess(StepContext context, Object result) {
             try {
-                complete(context);
+                complete(context, false);
 
                 context.onSuccess(result);
             } catch (Throwable t) {
@@ -137,7 +193,7 @@ public class CacheStep extends AbstractStepImpl {
         public void onFailure(StepContext context, Throwable t) {
             try {
                 // attempt to save the caches even though we failed
-                complete(context);
+                complete(context, true);
             } catch (Throwable ignored) {
                 // ignore error as we are failed anyways
             }
@@ -146,13 +202,17 @@ public class CacheStep extends AbstractStepImpl {
         }
 
         public void complete(StepContext context) throws IOException, InterruptedException {
+            complete(context, false);
+        }
+
+        public void complete(StepContext context, boolean failed) throws IOException, InterruptedException {
 
             Run run = context.get(Run.class);
             FilePath workspace = context.get(FilePath.class);
             Launcher launcher = context.get(Launcher.class);
             TaskListener listener = context.get(TaskListener.class);
 
-            CacheManager.save(GlobalItemStorage.get().getStorage(), run, workspace, launcher, listener, maxCacheSize, caches, cacheSavers);
+            CacheManager.save(GlobalItemStorage.get().getStorage(), run, workspace, launcher, listener, maxCacheSize, caches, cacheSavers, sharedCache, defaultBranch, mode, saveCondition, failed);
         }
     }
 
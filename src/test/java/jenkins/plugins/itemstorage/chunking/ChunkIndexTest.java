@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.chunking;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Hayes
+ */
+public class ChunkIndexTest {
+    @Test
+    public void roundTrip() throws IOException {
+        List<Chunk> chunks = Arrays.asList(
+                new Chunk("aa", 0, 100),
+                new Chunk("bb", 100, 2000),
+                new Chunk("aa", 2100, 100));
+        ChunkIndex index = new ChunkIndex(2200, 1234567890123L, chunks);
+
+        ChunkIndex decoded = ChunkIndex.decode(new ByteArrayInputStream(index.encode()));
+
+        assertEquals(2200, decoded.getLength());
+        assertEquals(1234567890123L, decoded.getLastModified());
+        assertEquals(chunks.size(), decoded.getChunks().size());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(chunks.get(i).getHash(), decoded.getChunks().get(i).getHash());
+            assertEquals(chunks.get(i).getOffset(), decoded.getChunks().get(i).getOffset());
+            assertEquals(chunks.get(i).getLength(), decoded.getChunks().get(i).getLength());
+        }
+    }
+
+    @Test
+    public void roundTripEmptyFile() throws IOException {
+        ChunkIndex index = new ChunkIndex(0, 42L, Collections.<Chunk>emptyList());
+
+        ChunkIndex decoded = ChunkIndex.decode(new ByteArrayInputStream(index.encode()));
+
+        assertEquals(0, decoded.getLength());
+        assertEquals(42L, decoded.getLastModified());
+        assertTrue(decoded.getChunks().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsChunksNotCoveringTheFile() throws IOException {
+        ChunkIndex index = new ChunkIndex(500, 0L, Collections.singletonList(new Chunk("aa", 0, 100)));
+
+        ChunkIndex.decode(new ByteArrayInputStream(index.encode()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherContent() throws IOException {
+        ChunkIndex.decode(new ByteArrayInputStream("jobcacher-manifest 1\n".getBytes(Charset.forName("UTF-8"))));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.chunking;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Hayes
+ */
+public class FastCdcTest {
+    private static final int AVERAGE_SIZE = 4096;
+
+    @Test
+    public void chunksCoverTheWholeInput() throws IOException {
+        byte[] data = random(1024 * 1024, 1);
+
+        long offset = 0;
+        for (Chunk chunk : chunk(data)) {
+            assertEquals(offset, chunk.getOffset());
+            assertTrue(chunk.getLength() <= AVERAGE_SIZE * 8);
+            offset += chunk.getLength();
+        }
+        assertEquals(data.length, offset);
+    }
+
+    @Test
+    public void sameInputGivesSameChunks() throws IOException {
+        byte[] data = random(256 * 1024, 2);
+
+        assertEquals(hashes(chunk(data)), hashes(chunk(data)));
+    }
+
+    @Test
+    public void localEditOnlyChangesChunksAroundIt() throws IOException {
+        byte[] data = random(1024 * 1024, 3);
+        int at = data.length / 2;
+
+        // Insert a few bytes in the middle, shifting everything after them
+        byte[] edited = new byte[data.length + 7];
+        System.arraycopy(data, 0, edited, 0, at);
+        System.arraycopy(random(7, 4), 0, edited, at, 7);
+        System.arraycopy(data, at, edited, at + 7, data.length - at);
+
+        List<Chunk> before = chunk(data);
+        List<Chunk> after = chunk(edited);
+
+        // Chunks ending before the edit are untouched
+        for (int i = 0; i < before.size() && before.get(i).getOffset() + before.get(i).getLength() <= at; i++) {
+            assertEquals(before.get(i).getHash(), after.get(i).getHash());
+        }
+
+        // Past the edit the boundaries resynchronize, so only a couple of chunks differ
+        Set<String> changed = new HashSet<>(hashes(after));
+        changed.removeAll(hashes(before));
+        assertTrue("Changed chunks: " + changed.size(), changed.size() <= 3);
+    }
+
+    private static List<Chunk> chunk(byte[] data) throws IOException {
+        return new FastCdc(AVERAGE_SIZE).chunk(new ByteArrayInputStream(data));
+    }
+
+    private static List<String> hashes(List<Chunk> chunks) {
+        List<String> hashes = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            hashes.add(chunk.getHash());
+        }
+        return hashes;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.s3;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Hayes
+ */
+public class S3KeysTest {
+    private static final String[] PATHS = {
+            "plain/file.jar",
+            "with space/and more spaces.txt",
+            "back\\slash\\\\double",
+            "trailing\\",
+            "line\nbreak",
+            "carriage\r\nreturn",
+            "literal \\n not a break",
+    };
+
+    @Test
+    public void escapeRoundTrip() {
+        for (String path : PATHS) {
+            String escaped = S3Keys.escape(path);
+            assertFalse(escaped.contains("\n"));
+            assertFalse(escaped.contains("\r"));
+            assertEquals(path, S3Keys.unescape(escaped));
+        }
+    }
+
+    @Test
+    public void manifestRoundTrip() throws IOException {
+        S3Keys keys = new S3Keys("job/cache", true);
+        List<S3ObjectSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < PATHS.length; i++) {
+            summaries.add(S3Keys.summary("bucket", "job/cache/" + PATHS[i], i * 100L, new Date(1000L + i)));
+        }
+
+        Map<String, S3ObjectSummary> decoded = keys.decode("bucket", new ByteArrayInputStream(keys.encode(summaries)));
+
+        assertEquals(summaries.size(), decoded.size());
+        for (S3ObjectSummary summary : summaries) {
+            S3ObjectSummary read = decoded.get(summary.getKey());
+            assertNotNull(summary.getKey(), read);
+            assertEquals(summary.getSize(), read.getSize());
+            assertEquals(summary.getLastModified(), read.getLastModified());
+            assertEquals("bucket", read.getBucketName());
+        }
+    }
+
+    @Test
+    public void spreadKeysKeepThePlainKey() {
+        S3Keys keys = new S3Keys("job/cache", true);
+
+        String objectKey = keys.toObjectKey("job/cache/a b\\c");
+
+        assertTrue(objectKey, objectKey.matches("[0-9a-f]{4}/job/cache/a b\\\\c"));
+        assertEquals(objectKey, keys.toObjectKey("job/cache/a b\\c"));
+        assertEquals("job/cache/a b\\c", new S3Keys("job/cache", false).toObjectKey("job/cache/a b\\c"));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Peter Hayes.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.itemstorage.striped;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Hayes
+ */
+public class AssignStripesTest {
+    private static final int FILES = 10000;
+
+    @Test
+    public void spreadsFilesOverStripes() {
+        Map<String, String> assigned = assign(Arrays.asList("a", "b", "c"));
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (String stripe : assigned.values()) {
+            counts.put(stripe, counts.containsKey(stripe) ? counts.get(stripe) + 1 : 1);
+        }
+        for (String stripe : Arrays.asList("a", "b", "c")) {
+            assertTrue(stripe + ": " + counts.get(stripe), counts.get(stripe) > FILES / 4);
+        }
+    }
+
+    @Test
+    public void addingStripeOnlyMovesFilesToIt() {
+        Map<String, String> before = assign(Arrays.asList("a", "b", "c"));
+        Map<String, String> after = assign(Arrays.asList("a", "b", "c", "d"));
+
+        int moved = 0;
+        for (String path : before.keySet()) {
+            if (!before.get(path).equals(after.get(path))) {
+                assertEquals(path, "d", after.get(path));
+                moved++;
+            }
+        }
+        assertTrue("Moved: " + moved, moved > 0 && moved < FILES / 2);
+    }
+
+    @Test
+    public void removingStripeOnlyMovesItsFiles() {
+        Map<String, String> before = assign(Arrays.asList("a", "b", "c"));
+        Map<String, String> after = assign(Arrays.asList("a", "c"));
+
+        for (String path : before.keySet()) {
+            if (!before.get(path).equals(after.get(path))) {
+                assertEquals(path, "b", before.get(path));
+            }
+        }
+    }
+
+    @Test
+    public void orderOfStripesDoesNotMatter() {
+        assertEquals(assign(Arrays.asList("a", "b", "c")), assign(Arrays.asList("c", "a", "b")));
+    }
+
+    @Test
+    public void acceptsOnlyTheFilesOfItsStripe() {
+        List<String> stripes = Arrays.asList("a", "b", "c");
+        for (String path : paths()) {
+            int accepted = 0;
+            for (String stripe : stripes) {
+                if (new AssignStripes(stripe, stripes, null).accepts(path)) {
+                    assertEquals(AssignStripes.assign(path, stripes), stripe);
+                    accepted++;
+                }
+            }
+            assertEquals(path, 1, accepted);
+        }
+    }
+
+    private static Map<String, String> assign(List<String> stripes) {
+        Map<String, String> assigned = new HashMap<>();
+        for (String path : paths()) {
+            assigned.put(path, AssignStripes.assign(path, stripes));
+        }
+        return assigned;
+    }
+
+    private static List<String> paths() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            paths.add("dir" + (i % 17) + "/sub" + (i % 5) + "/file" + i + ".jar");
+        }
+        return paths;
+    }
+}